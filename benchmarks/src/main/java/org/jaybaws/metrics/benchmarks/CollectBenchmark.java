@@ -0,0 +1,50 @@
+package org.jaybaws.metrics.benchmarks;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.jaybaws.metrics.core.SeriesRegistry;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A full collection by the OpenTelemetry reader, which is what every export interval costs the host process.
+ * The series are spread over ten instruments, like the per-destination metrics of the EMS and IBM MQ workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectBenchmark {
+
+    private static final int c_instruments = 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int series;
+
+    private SdkMeterProvider provider;
+    private InMemoryMetricReader reader;
+
+    @Setup
+    public void setUp() {
+        this.reader = InMemoryMetricReader.create();
+        this.provider = SdkMeterProvider.builder().registerMetricReader(this.reader).build();
+
+        SeriesRegistry registry = new SeriesRegistry(this.provider.get("benchmark"));
+        for (int i = 0; i < this.series; i++) {
+            registry.track("bench.metric." + (i % c_instruments), "QUEUE.NUMBER." + (i / c_instruments), i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    @Benchmark
+    public Collection<MetricData> collectAllMetrics() {
+        return this.reader.collectAllMetrics();
+    }
+}
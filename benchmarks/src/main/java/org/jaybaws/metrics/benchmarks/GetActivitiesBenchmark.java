@@ -0,0 +1,125 @@
+package org.jaybaws.metrics.benchmarks;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.jaybaws.metrics.bw.workers.GetActivitiesWorker;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * GetActivitiesWorker.run() against an in-process MBean that hands out a prebuilt GetActivities table, so only the
+ * row parsing and series updates are measured, not Hawk itself.
+ *
+ * With 'idle' every activity was last updated an hour ago, so after the first run every row is unchanged; without
+ * it, every activity was just updated, so every row is written on every run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetActivitiesBenchmark {
+
+    private static final String[] c_string_items = { "ProcessDefName", "Name", "ActivityClass" };
+    private static final String[] c_long_items = {
+            "ExecutionCount", "ErrorCount", "ElapsedTime", "MinElapsedTime", "MaxElapsedTime", "ExecutionTime",
+            "MinExecutionTime", "MaxExecutionTime", "MostRecentElapsedTime", "MostRecentExecutionTime",
+            "ExecutionCountSinceReset", "TimeSinceLastUpdate"
+    };
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean idle;
+
+    private SdkMeterProvider provider;
+    private GetActivitiesWorker worker;
+
+    public interface EngineMBean {
+        TabularDataSupport GetActivities(String processDefinition);
+    }
+
+    public static class Engine implements EngineMBean {
+        private final TabularDataSupport activities;
+
+        Engine(TabularDataSupport activities) {
+            this.activities = activities;
+        }
+
+        @Override
+        public TabularDataSupport GetActivities(String processDefinition) {
+            return this.activities;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName engine = new ObjectName("com.tibco.bw:key=engine,name=benchmark");
+        server.registerMBean(new StandardMBean(new Engine(table(this.rows, this.idle)), EngineMBean.class), engine);
+
+        this.provider = SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build();
+        this.worker = new GetActivitiesWorker(
+                OpenTelemetrySdk.builder().setMeterProvider(this.provider).build(),
+                server,
+                engine,
+                ".*",
+                RegistryConfig.DEFAULT
+        );
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    @Benchmark
+    public void run() {
+        this.worker.run();
+    }
+
+    static TabularDataSupport table(int rows, boolean idle) throws OpenDataException {
+        String[] names = new String[c_string_items.length + c_long_items.length];
+        OpenType<?>[] types = new OpenType<?>[names.length];
+        for (int i = 0; i < c_string_items.length; i++) {
+            names[i] = c_string_items[i];
+            types[i] = SimpleType.STRING;
+        }
+        for (int i = 0; i < c_long_items.length; i++) {
+            names[c_string_items.length + i] = c_long_items[i];
+            types[c_string_items.length + i] = SimpleType.LONG;
+        }
+
+        CompositeType rowType = new CompositeType("GetActivities", "GetActivities", names, names, types);
+        TabularDataSupport table = new TabularDataSupport(
+                new TabularType("GetActivities", "GetActivities", rowType, new String[] { "ProcessDefName", "Name" })
+        );
+
+        for (int row = 0; row < rows; row++) {
+            Object[] values = new Object[names.length];
+            values[0] = "Processes/Process" + (row / 20) + ".process";
+            values[1] = "Activity" + (row % 20);
+            values[2] = "com.tibco.plugin.mapper.MapperActivity";
+            for (int i = 0; i < c_long_items.length; i++) {
+                values[c_string_items.length + i] = (long) (row + i);
+            }
+            values[names.length - 1] = idle ? 3_600_000L : 0L;
+            table.put(new CompositeDataSupport(rowType, names, values));
+        }
+        return table;
+    }
+}
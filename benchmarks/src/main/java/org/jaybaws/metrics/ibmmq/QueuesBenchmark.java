@@ -0,0 +1,51 @@
+package org.jaybaws.metrics.ibmmq;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.headers.pcf.PCFException;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.concurrent.TimeUnit;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The parse loop of Worker.doQueues() over prebuilt INQUIRE_Q responses. Lives in the worker's package to reach
+ * the package-private trackQueues().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueuesBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int queues;
+
+    private Worker worker;
+    private PCFMessage[] responses;
+
+    @Setup
+    public void setUp() {
+        this.worker = new Worker(OpenTelemetry.noop(), "QM1", "localhost", 1414, "DEV.ADMIN.SVRCONN", "admin", "passw0rd", null, false, RegistryConfig.DEFAULT);
+
+        this.responses = new PCFMessage[this.queues];
+        for (int i = 0; i < this.queues; i++) {
+            PCFMessage response = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+            response.addParameter(CMQC.MQCA_Q_NAME, String.format("%-48s", "QUEUE.NUMBER." + i));
+            response.addParameter(CMQC.MQIA_CURRENT_Q_DEPTH, i);
+            response.addParameter(CMQC.MQIA_OPEN_INPUT_COUNT, 1);
+            response.addParameter(CMQC.MQIA_OPEN_OUTPUT_COUNT, 2);
+            response.addParameter(CMQC.MQIA_DEFINITION_TYPE, CMQC.MQQDT_PREDEFINED);
+            response.addParameter(CMQC.MQIA_MSG_DEQ_COUNT, 3 * i);
+            response.addParameter(CMQC.MQIA_MSG_ENQ_COUNT, 4 * i);
+            this.responses[i] = response;
+        }
+    }
+
+    @Benchmark
+    public void trackQueues() throws PCFException {
+        this.worker.trackQueues(this.responses);
+    }
+}
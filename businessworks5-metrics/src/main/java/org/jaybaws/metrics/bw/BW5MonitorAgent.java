@@ -1,14 +1,21 @@
 package org.jaybaws.metrics.bw;
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import org.jaybaws.metrics.bw.instrument.Instrumentor;
+import org.jaybaws.metrics.bw.instrument.Timings;
+import org.jaybaws.metrics.bw.metrics.Contention;
 import org.jaybaws.metrics.bw.metrics.JVM;
+import org.jaybaws.metrics.bw.metrics.Threads;
+import org.jaybaws.metrics.bw.pipeline.EnginePipeline;
+import org.jaybaws.metrics.bw.pipeline.Pipeline;
 import org.jaybaws.metrics.bw.util.Constants;
-import org.jaybaws.metrics.bw.workers.*;
 import org.jaybaws.metrics.bw.util.BWUtils;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
 import javax.management.*;
 import javax.management.relation.MBeanServerNotificationFilter;
+import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
 import org.jaybaws.metrics.bw.util.Logger;
@@ -18,15 +25,30 @@ public class BW5MonitorAgent implements NotificationListener {
     private final OpenTelemetry otelSdk;
     private final MBeanServerConnection server;
     private ObjectName engineHandle;
-    private ScheduledExecutorService executorService;
+    private AdaptiveScheduler scheduler;
+    private AdaptiveScheduler burstScheduler;
+    private Pipeline pipeline;
+    private Threads threads;
+    private Contention contention;
 
     @SuppressWarnings("unused")
     public static void premain(String agentArgs) {
+        premain(agentArgs, null);
+    }
+
+    /*
+     * The JVM prefers this one. The Instrumentation handle is only used when activity timing is enabled.
+     */
+    @SuppressWarnings("unused")
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
         if (BWUtils.isBusinessWorksEngine()) {
             Logger.info("JVM looks like a BusinessWorks engine, so we will instrument!");
 
             if (Boolean.parseBoolean(System.getProperty("bw.engine.opentelemetry.enable", "false"))) {
                 BW5MonitorAgent bridge = new BW5MonitorAgent();
+                if (instrumentation != null && Boolean.parseBoolean(System.getProperty(Constants.INSTRUMENT_JVMARG_PREFIX + ".enabled", "false"))) {
+                    bridge.time(instrumentation);
+                }
                 Logger.info("End of instrumentation!");
             } else {
                 Logger.warning("OpenTelemetry is not enabled, hence it makes no sense to proceed!");
@@ -102,6 +124,104 @@ public class BW5MonitorAgent implements NotificationListener {
         }
     }
 
+    /*
+     * Weaves timing into the engine's activities (and, when configured, jobs) as they get loaded, and reports the
+     * latency histograms: <prefix>.instrument.[activity.type|activity.method|process.type|process.method|
+     * process.name|maxseries|window]
+     */
+    private void time(Instrumentation instrumentation) {
+        String prefix = Constants.INSTRUMENT_JVMARG_PREFIX;
+        try {
+            Timings.install(
+                    new Timings(
+                            this.otelSdk.getMeter("com.tibco.bw.instrument"),
+                            Integer.parseInt(System.getProperty(prefix + ".maxseries", "100")),
+                            Runtime.getRuntime().availableProcessors(),
+                            System.getProperty(prefix + ".process.name", "getName"),
+                            Long.parseLong(System.getProperty(prefix + ".window", "1000"))
+                    )
+            );
+            Instrumentor.install(
+                    instrumentation,
+                    System.getProperty(prefix + ".activity.type", "com.tibco.pe.plugin.Activity"),
+                    System.getProperty(prefix + ".activity.method", "eval"),
+                    System.getProperty(prefix + ".process.type"),
+                    System.getProperty(prefix + ".process.method", "run")
+            );
+        } catch (Throwable t) {
+            Logger.severe("Unable to instrument the engine's activities!", t);
+        }
+    }
+
+    /*
+     * Attributes the engine's CPU time and allocations to groups of threads, and reports the busiest threads:
+     * <prefix>.threads.[enabled|delay|groups|top|resolve]
+     *
+     * The sampler outlives the scheduler, so its counters keep counting when the engine's MBean comes back.
+     */
+    private void sampleThreads() {
+        String prefix = Constants.THREADS_JVMARG_PREFIX;
+        if (!Boolean.parseBoolean(System.getProperty(prefix + ".enabled", "true"))) {
+            return;
+        }
+        try {
+            if (threads == null) {
+                threads = new Threads(this.otelSdk)
+                        .withGroups(System.getProperty(prefix + ".groups", Threads.DEFAULT_GROUPS))
+                        .withTop(
+                                Integer.parseInt(System.getProperty(prefix + ".top", "5")),
+                                Integer.parseInt(System.getProperty(prefix + ".resolve", "500"))
+                        );
+            }
+            scheduler.schedule(
+                    "threads",
+                    threads,
+                    EnginePipeline.initialDelay(),
+                    Long.parseLong(System.getProperty(prefix + ".delay", "60")),
+                    TimeUnit.SECONDS
+            );
+        } catch (Throwable t) {
+            Logger.severe("Unable to sample the engine's threads!", t);
+        }
+    }
+
+    /*
+     * Reports the time the engine's threads spend blocked and waiting, the threads holding them up, and deadlocks:
+     * <prefix>.contention.[enabled|delay|maxthreads|top|deadlock.every|deadlock.budget], by <prefix>.threads.groups.
+     *
+     * Off by default: contention monitoring makes the JVM time every contended monitor enter.
+     */
+    private void sampleContention() {
+        String prefix = Constants.CONTENTION_JVMARG_PREFIX;
+        if (!Boolean.parseBoolean(System.getProperty(prefix + ".enabled", "false"))) {
+            return;
+        }
+        try {
+            if (contention == null) {
+                contention = new Contention(this.otelSdk)
+                        .withGroups(System.getProperty(Constants.THREADS_JVMARG_PREFIX + ".groups", Threads.DEFAULT_GROUPS))
+                        .withSample(
+                                Integer.parseInt(System.getProperty(prefix + ".maxthreads", "1000")),
+                                Integer.parseInt(System.getProperty(prefix + ".top", "5"))
+                        )
+                        .withDeadlockCheck(
+                                Integer.parseInt(System.getProperty(prefix + ".deadlock.every", "5")),
+                                Long.parseLong(System.getProperty(prefix + ".deadlock.budget", "50")),
+                                TimeUnit.MILLISECONDS
+                        );
+            }
+            scheduler.schedule(
+                    "contention",
+                    contention,
+                    EnginePipeline.initialDelay(),
+                    Long.parseLong(System.getProperty(prefix + ".delay", "60")),
+                    TimeUnit.SECONDS
+            );
+        } catch (Throwable t) {
+            Logger.severe("Unable to sample the engine's thread contention!", t);
+        }
+    }
+
     @Override
     public void handleNotification(Notification notification, Object handback) {
         MBeanServerNotification mbs = (MBeanServerNotification) notification;
@@ -118,160 +238,64 @@ public class BW5MonitorAgent implements NotificationListener {
                 JVM.instrument(this.otelSdk);
 
                 /*
-                 * Only construct the ScheduledExecutorService when needed. Also, we may need to recreate it if
-                 * the MBean has been lost and (re)found, since it will be destroyed (shut-down) when it's lost.
+                 * Only construct the scheduler when needed. Also, we may need to recreate it if the MBean has been
+                 * lost and (re)found, since it will be destroyed (shut-down) when it's lost.
+                 *
+                 * The scheduler stretches the intervals of workers that fail or get expensive, and keeps the
+                 * workers' combined CPU time within <prefix>.scheduler.cpu_budget (see AdaptiveScheduler).
                  */
-                executorService = Executors.newScheduledThreadPool(Constants.EXECUTORSERVICE_CORE_POOLSIZE);
+                scheduler = AdaptiveScheduler.fromSystemProperties(
+                        Constants.SCHEDULER_JVMARG_PREFIX,
+                        Executors.newScheduledThreadPool(Constants.EXECUTORSERVICE_CORE_POOLSIZE)
+                );
 
                 /*
-                 * Schedule all our workers!
+                 * Declare the Hawk methods as the stages of one pipeline, and schedule that.
                  */
-                Logger.info("Start scheduling the workers!");
-                if (scheduleFor("getexecinfo")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetExecInfoWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getexecinfo"),
-                            delayFor("getexecinfo"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetExecInfo worker scheduled.");
-                }
-
-                if (scheduleFor("getmemoryusage")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetMemoryUsageWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getmemoryusage"),
-                            delayFor("getmemoryusage"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetMemoryUsage worker scheduled.");
-                }
+                Logger.info("Start building the pipeline!");
+                pipeline = EnginePipeline.build(
+                        this.otelSdk,
+                        server,
+                        engineHandle,
+                        Attributes.empty(),
+                        EnginePipeline.concurrency()
+                );
 
-                if (scheduleFor("getprocesscount")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetProcessCountWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getprocesscount"),
-                            delayFor("getprocesscount"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetProcessCount worker scheduled.");
-                }
-
-                if (scheduleFor("getactiveprocesscount")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetActiveProcessCountWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getactiveprocesscount"),
-                            delayFor("getactiveprocesscount"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetActiveProcessCount worker scheduled.");
-                }
+                scheduler.schedule(
+                        "pipeline",
+                        pipeline,
+                        EnginePipeline.initialDelay(),
+                        EnginePipeline.delay(),
+                        TimeUnit.SECONDS
+                );
 
-                if (scheduleFor("getprocessstarters")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetProcessStartersWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getprocessstarters"),
-                            delayFor("getprocessstarters"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetProcessStarters worker scheduled.");
-                }
-
-                if (scheduleFor("getprocessdefinitions")) {
-                    executorService.scheduleWithFixedDelay(
-                            new GetProcessDefinitionsWorker(this.otelSdk, server, engineHandle),
-                            initDelayFor("getprocessdefinitions"),
-                            delayFor("getprocessdefinitions"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetProcessDefinitions worker scheduled.");
-                }
+                /*
+                 * The burst gets a thread of its own: it has to tick while a slow engine holds up the cycle.
+                 */
+                burstScheduler = EnginePipeline.scheduleBurst(
+                        pipeline,
+                        EnginePipeline.initialDelay(),
+                        EnginePipeline.burstInterval(),
+                        TimeUnit.SECONDS
+                );
 
-                if (scheduleFor("getactivities")) {
-                    String filter = System.getProperty(
-                            Constants.GETACTIVITIES_CLASSFILTER_JVMARG,
-                            Constants.GETACTIVITIES_CLASSFILTER_DEFAULT
-                    );
-                    executorService.scheduleWithFixedDelay(
-                            new GetActivitiesWorker(this.otelSdk, server, engineHandle, filter),
-                            initDelayFor("getactivities"),
-                            delayFor("getactivities"),
-                            TimeUnit.SECONDS
-                    );
-                    Logger.info("--> GetActivities worker scheduled.");
-                }
+                Logger.info("Done scheduling the pipeline!");
 
-                Logger.info("Done scheduling the workers!");
+                sampleThreads();
+                sampleContention();
 
             } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(mbs.getType())) {
                 Logger.warning("Lost the bwengine's HMA MBean [" + mbs.getMBeanName() + "]");
-                if (mbs.getMBeanName() == engineHandle) {
+                if (mbs.getMBeanName().equals(engineHandle)) {
                     engineHandle = null;
-                    executorService.shutdown();
+                    scheduler.shutdown();
+                    if (burstScheduler != null) {
+                        burstScheduler.shutdown();
+                        burstScheduler = null;
+                    }
+                    pipeline.shutdown();
                 }
             }
         }
     }
-
-    private static boolean scheduleFor(String method) {
-        return Boolean.parseBoolean(
-                System.getProperty(
-                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + method + ".enabled",
-                        "true"
-                )
-        );
-    }
-
-    private static int delayFor(String method) {
-        return Integer.parseInt(
-                System.getProperty(
-                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + method + ".delay",
-                        "60"
-                )
-        );
-    }
-
-    private static int initDelayFor(String method) {
-        String defaultValue;
-
-        /*
-         * By default, avoid having all the load at the same time.
-         */
-        switch (method) {
-            case "getexecinfo":
-                defaultValue = "5";
-                break;
-            case "getmemoryusage":
-                defaultValue = "10";
-                break;
-            case "getprocesscount":
-                defaultValue = "15";
-                break;
-            case "getactiveprocesscount":
-                defaultValue = "20";
-                break;
-            case "getprocessstarters":
-                defaultValue = "25";
-                break;
-            case "getprocessdefinitions":
-                defaultValue = "30";
-                break;
-            case "getactivities":
-                defaultValue = "35";
-                break;
-            case "jvm":
-                defaultValue = "40";
-                break;
-            default:
-                defaultValue = "0";
-                break;
-        }
-
-        return Integer.parseInt(
-                System.getProperty(
-                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".initdelay",
-                        defaultValue
-                )
-        );
-    }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package org.jaybaws.metrics.bw.instrument;
+import net.bytebuddy.asm.Advice;
+
+/**
+ * Woven into the activities' eval method: times every execution, including the ones that throw.
+ *
+ * The method is woven into every class that implements it, so an override that calls {@code super.eval()} runs the
+ * advice twice; only the outer call is timed.
+ */
+public final class ActivityAdvice {
+
+    private ActivityAdvice() {
+    }
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object enter(@Advice.This Object activity, @Advice.Local("started") long started) {
+        started = System.nanoTime();
+        return Timings.enter(activity);
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void exit(@Advice.Enter Object outer, @Advice.This Object activity, @Advice.Local("started") long started) {
+        if (outer != activity) {
+            Timings.exit(outer);
+            Timings.activity(activity, System.nanoTime() - started);
+        }
+    }
+}
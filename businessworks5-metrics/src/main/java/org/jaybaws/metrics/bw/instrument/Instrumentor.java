@@ -0,0 +1,76 @@
+package org.jaybaws.metrics.bw.instrument;
+import static net.bytebuddy.matcher.ElementMatchers.hasSuperType;
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import java.lang.instrument.Instrumentation;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.utility.JavaModule;
+import org.jaybaws.metrics.bw.util.Logger;
+
+/**
+ * Weaves {@link ActivityAdvice} and {@link ProcessAdvice} into the engine's classes as they are loaded, so that the
+ * agent has to be installed from premain, before the engine starts.
+ *
+ * Activities are the implementations of 'method' in subclasses of the activity type (BW5's plugin API:
+ * {@code com.tibco.pe.plugin.Activity#eval}). Jobs have no public API, so process instances are only timed when a
+ * job type and method are configured.
+ */
+public final class Instrumentor {
+
+    private Instrumentor() {
+    }
+
+    /**
+     * @param processType the job class, or {@code null} not to time process instances.
+     */
+    public static void install(Instrumentation instrumentation, String activityType, String activityMethod, String processType, String processMethod) {
+        AgentBuilder builder = new AgentBuilder.Default()
+                .disableClassFormatChanges()
+                .ignore(nameStartsWith("net.bytebuddy.")
+                        .or(nameStartsWith("org.jaybaws."))
+                        .or(nameStartsWith("io.opentelemetry."))
+                        .or(nameStartsWith("java."))
+                        .or(nameStartsWith("javax."))
+                        .or(nameStartsWith("sun."))
+                        .or(nameStartsWith("jdk.")))
+                .with(new AgentBuilder.Listener.Adapter() {
+                    @Override
+                    public void onError(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded, Throwable throwable) {
+                        Logger.warning(String.format("Unable to instrument '%s'.", typeName), throwable);
+                    }
+
+                    @Override
+                    public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, boolean loaded, DynamicType dynamicType) {
+                        Logger.fine(String.format("Instrumented '%s'.", typeDescription.getName()));
+                    }
+                })
+                .type(hasSuperType(named(activityType)).and(not(isInterface())))
+                .transform(new AgentBuilder.Transformer.ForAdvice()
+                        .advice(named(activityMethod).and(not(isAbstract())), ActivityAdvice.class.getName())
+                        .include(Instrumentor.class.getClassLoader()));
+
+        if (processType != null && !processType.isEmpty()) {
+            builder = builder
+                    .type(named(processType))
+                    .transform(new AgentBuilder.Transformer.ForAdvice()
+                            .advice(named(processMethod).and(not(isAbstract())), ProcessAdvice.class.getName())
+                            .include(Instrumentor.class.getClassLoader()));
+        }
+
+        builder.installOn(instrumentation);
+
+        Logger.info(
+                String.format(
+                        "Timing %s#%s%s.",
+                        activityType,
+                        activityMethod,
+                        (processType == null || processType.isEmpty()) ? "" : " and " + processType + "#" + processMethod
+                )
+        );
+    }
+}
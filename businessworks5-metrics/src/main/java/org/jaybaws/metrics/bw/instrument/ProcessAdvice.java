@@ -0,0 +1,21 @@
+package org.jaybaws.metrics.bw.instrument;
+import net.bytebuddy.asm.Advice;
+
+/**
+ * Woven into the method that runs a job: times every process instance, including the ones that fail.
+ */
+public final class ProcessAdvice {
+
+    private ProcessAdvice() {
+    }
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static long enter() {
+        return System.nanoTime();
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void exit(@Advice.Enter long started, @Advice.This Object job) {
+        Timings.process(job, System.nanoTime() - started);
+    }
+}
@@ -0,0 +1,269 @@
+package org.jaybaws.metrics.bw.instrument;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.jaybaws.metrics.core.Instrument;
+import org.jaybaws.metrics.core.StripedHistogram;
+
+/**
+ * The latency histograms fed by the woven activities and jobs (see {@link Instrumentor}): one per activity class and
+ * one per process definition, at most 'maxSeries' of each. Beyond that, timings go into an {@code __overflow__}
+ * histogram.
+ *
+ * Recording is what runs inside the engine on every activity, so it does not lock and does not allocate: a lock-free
+ * map lookup and a {@link StripedHistogram#record(long)}. Everything else happens on the reader's thread, which
+ * reports per histogram:
+ *
+ * <ul>
+ *     <li>{@code <metric>}: the 0.5, 0.9, 0.99 and 1.0 quantiles (milliseconds) of the interval since the previous
+ *     collection, with a {@code quantile} attribute. Histograms that recorded nothing report no points. The SDK
+ *     collects once per reader; collections within 'window' of the one that drained the histograms report that same
+ *     interval, so that every reader gets all of it;</li>
+ *     <li>{@code <metric>.count}: the number of timings, cumulative;</li>
+ *     <li>{@code <metric>.sum}: the total time (milliseconds), cumulative.</li>
+ * </ul>
+ */
+public final class Timings {
+
+    private static final AttributeKey<String> ACTIVITY_CLASS = AttributeKey.stringKey("activityClass");
+    private static final AttributeKey<String> PROCESS = AttributeKey.stringKey("process");
+    private static final AttributeKey<Double> QUANTILE = AttributeKey.doubleKey("quantile");
+
+    private static final double[] c_quantiles = { 0.5, 0.9, 0.99, 1.0 };
+    private static final double c_nanos_per_milli = 1_000_000d;
+    private static final long c_window = 1000;
+
+    private static volatile Timings installed;
+
+    /*
+     * Per thread, the activity whose eval is being timed, so that an override calling super.eval() is timed once.
+     */
+    private static final ThreadLocal<Object> c_timed = new ThreadLocal<>();
+
+    private final Dimension activities;
+    private final Dimension processes;
+
+    /*
+     * Per job class, the accessor for its process definition's name; null when it has none.
+     */
+    private final ClassValue<MethodHandle> names;
+
+    /**
+     * @param processName the no-argument method of a job that returns the name of its process definition.
+     */
+    public Timings(Meter meter, int maxSeries, int stripes, String processName) {
+        this(meter, maxSeries, stripes, processName, c_window);
+    }
+
+    /**
+     * @param window the time (in milliseconds) within which the collections of several readers share one interval.
+     */
+    public Timings(Meter meter, int maxSeries, int stripes, String processName, long window) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(window);
+        this.activities = new Dimension(meter, "bwengine.activity.latency", "activity", ACTIVITY_CLASS, maxSeries, stripes, nanos);
+        this.processes = new Dimension(meter, "bwengine.process.latency", "process instance", PROCESS, maxSeries, stripes, nanos);
+        this.names = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> type) {
+                try {
+                    Method method = type.getMethod(processName);
+                    return MethodHandles.publicLookup()
+                            .unreflect(method)
+                            .asType(MethodType.methodType(Object.class, Object.class));
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes these the timings the woven code records into.
+     */
+    public static void install(Timings timings) {
+        installed = timings;
+    }
+
+    /**
+     * Called by the woven activities on entry: makes the activity the one being timed on this thread.
+     *
+     * @return the activity that was being timed before, the activity itself when this is a nested (super) call of
+     *         its own eval, which is not to be timed again.
+     */
+    public static Object enter(Object activity) {
+        Object outer = c_timed.get();
+        if (outer != activity) {
+            c_timed.set(activity);
+        }
+        return outer;
+    }
+
+    /**
+     * Called by the woven activities on the exit of a timed call, with what {@link #enter(Object)} returned.
+     */
+    public static void exit(Object outer) {
+        c_timed.set(outer);
+    }
+
+    /**
+     * Called by the woven activities.
+     */
+    public static void activity(Object activity, long nanos) {
+        Timings timings = installed;
+        if (timings != null) {
+            timings.activities.histogram(activity.getClass().getName()).record(nanos);
+        }
+    }
+
+    /**
+     * Called by the woven jobs.
+     */
+    public static void process(Object job, long nanos) {
+        Timings timings = installed;
+        if (timings != null) {
+            timings.processes.histogram(timings.name(job)).record(nanos);
+        }
+    }
+
+    private String name(Object job) {
+        MethodHandle name = this.names.get(job.getClass());
+        if (name != null) {
+            try {
+                Object value = (Object) name.invokeExact(job);
+                if (value != null) {
+                    return value.toString();
+                }
+            } catch (Throwable t) {
+                /* reported as overflow */
+            }
+        }
+        return Instrument.OVERFLOW;
+    }
+
+    /**
+     * The histograms of one attribute, and the instruments that report them.
+     */
+    private static final class Dimension {
+
+        private final AttributeKey<String> key;
+        private final int maxSeries;
+        private final int stripes;
+        private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final Entry overflow;
+        private volatile boolean overflowing = false;
+
+        /*
+         * The window, and (guarded by this) the time the histograms were last drained and whether they ever were.
+         */
+        private final long window;
+        private long drained;
+        private boolean ever = false;
+
+        private Dimension(Meter meter, String metric, String what, AttributeKey<String> key, int maxSeries, int stripes, long window) {
+            this.key = key;
+            this.maxSeries = maxSeries;
+            this.stripes = stripes;
+            this.window = window;
+            this.overflow = new Entry(Attributes.of(key, Instrument.OVERFLOW), stripes);
+
+            meter
+                    .gaugeBuilder(metric)
+                    .setDescription("Quantiles of the " + what + " latency over the last interval.")
+                    .setUnit("ms")
+                    .buildWithCallback(this::quantiles);
+
+            meter
+                    .counterBuilder(metric + ".count")
+                    .setDescription("Number of timed " + what + " executions.")
+                    .buildWithCallback(result -> {
+                        for (Entry entry : this.entries.values()) {
+                            result.record(entry.histogram.count(), entry.attributes);
+                        }
+                    });
+
+            meter
+                    .counterBuilder(metric + ".sum")
+                    .ofDoubles()
+                    .setDescription("Total time of the timed " + what + " executions.")
+                    .setUnit("ms")
+                    .buildWithCallback(result -> {
+                        for (Entry entry : this.entries.values()) {
+                            result.record(entry.histogram.sum() / c_nanos_per_milli, entry.attributes);
+                        }
+                    });
+        }
+
+        /*
+         * A collection within the window of the one that drained the histograms reports that same interval.
+         */
+        private synchronized void quantiles(ObservableDoubleMeasurement result) {
+            long now = System.nanoTime();
+            boolean drain = !this.ever || now - this.drained >= this.window;
+            if (drain) {
+                this.drained = now;
+                this.ever = true;
+            }
+
+            for (Entry entry : this.entries.values()) {
+                long[] interval = drain ? entry.drain() : entry.interval;
+                if (interval != null && interval[StripedHistogram.COUNT] > 0) {
+                    for (int q = 0; q < c_quantiles.length; q++) {
+                        result.record(
+                                StripedHistogram.quantile(interval, c_quantiles[q]) / c_nanos_per_milli,
+                                entry.quantiles[q]
+                        );
+                    }
+                }
+            }
+        }
+
+        private StripedHistogram histogram(String name) {
+            Entry entry = this.entries.get(name);
+            if (entry != null) {
+                return entry.histogram;
+            }
+            if (this.entries.size() >= this.maxSeries || name.equals(Instrument.OVERFLOW)) {
+                if (!this.overflowing) {
+                    this.entries.putIfAbsent(Instrument.OVERFLOW, this.overflow);
+                    this.overflowing = true;
+                }
+                return this.overflow.histogram;
+            }
+            return this.entries.computeIfAbsent(name, n -> new Entry(Attributes.of(this.key, n), this.stripes)).histogram;
+        }
+    }
+
+    private static final class Entry {
+
+        private final StripedHistogram histogram;
+        private final Attributes attributes;
+        private final Attributes[] quantiles = new Attributes[c_quantiles.length];
+
+        /*
+         * Guarded by the dimension: the interval drained last, reported again to the readers that collect within the
+         * window.
+         */
+        private long[] interval;
+
+        private Entry(Attributes attributes, int stripes) {
+            this.histogram = new StripedHistogram(stripes);
+            this.attributes = attributes;
+            for (int q = 0; q < c_quantiles.length; q++) {
+                this.quantiles[q] = attributes.toBuilder().put(QUANTILE, c_quantiles[q]).build();
+            }
+        }
+
+        private long[] drain() {
+            this.interval = this.histogram.drain();
+            return this.interval;
+        }
+    }
+}
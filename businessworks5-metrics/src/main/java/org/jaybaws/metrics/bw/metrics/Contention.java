@@ -0,0 +1,345 @@
+package org.jaybaws.metrics.bw.metrics;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
+
+/**
+ * Shows the engine's threads waiting on each other, e.g. on a shared JDBC pool or JMS session, and the threads that
+ * hold them up.
+ *
+ * Turns on the JVM's thread contention monitoring, which makes it keep the time every thread spent blocked on a
+ * monitor and waiting. Every run reads those of at most 'maxthreads' threads, in one call (without stack traces),
+ * taking turns among all live threads, and adds the increase since a thread's previous read to its group (see
+ * {@link Threads#DEFAULT_GROUPS}).
+ *
+ * Reports, by {@code group}, {@code jvm.threads.blocked.time} and {@code jvm.threads.waited.time} (ms) and
+ * {@code jvm.threads.blocked.count} as counters, with their {@code .delta} and {@code .rate}. The threads read that are
+ * blocked on a monitor, or waiting on a lock, held by another thread count for that owner:
+ * {@code jvm.threads.lock.owner.waiters} and {@code jvm.threads.lock.owner.time} (their blocked and waited time since
+ * their previous read, ms) report the 'top' owners, by {@code thread.name}, {@code group} and {@code lock} class.
+ *
+ * Every 'deadlock' runs, {@code findDeadlockedThreads} looks for deadlocks; {@code jvm.threads.deadlocked} reports
+ * the number of deadlocked threads it found, and a new deadlock is logged. Its cost grows with the number of threads:
+ * when a check takes longer than 'budget', the checks get twice as rare.
+ */
+public class Contention implements Scraper {
+
+    private static final AttributeKey<String> THREAD_NAME = AttributeKey.stringKey("thread.name");
+    private static final AttributeKey<String> LOCK = AttributeKey.stringKey("lock");
+
+    private static final String c_find_deadlocks = "findDeadlockedThreads";
+
+    private static final int c_max_deadlock_every = 64;
+
+    private final ThreadMXBean threads;
+    private ThreadGroups groups;
+
+    private int maxThreads = 1000;
+    private int top = 5;
+    private int deadlockEvery = 5;
+    private long deadlockBudget = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
+
+    /*
+     * Scrape thread only. The live threads, by ascending id: their group (-1 until read) and their blocked time,
+     * waited time and blocked count as of their previous read. Per group: the totals so far.
+     */
+    private long[] ids = new long[0];
+    private int[] group = new int[0];
+    private long[] blocked = new long[0];
+    private long[] waited = new long[0];
+    private long[] blockedCount = new long[0];
+    private long cursor = -1;
+
+    private long[] blockedTotals;
+    private long[] waitedTotals;
+    private long[] blockedCountTotals;
+
+    private long runs = 0;
+    private int deadlocked = 0;
+
+    /**
+     * @throws UnsupportedOperationException when the JVM cannot monitor thread contention.
+     */
+    public Contention(OpenTelemetry sdk) {
+        this.threads = ManagementFactory.getThreadMXBean();
+        if (!this.threads.isThreadContentionMonitoringSupported()) {
+            throw new UnsupportedOperationException("This JVM cannot monitor thread contention.");
+        }
+        if (!this.threads.isThreadContentionMonitoringEnabled()) {
+            this.threads.setThreadContentionMonitoringEnabled(true);
+            Logger.info("Enabled thread contention monitoring.");
+        }
+
+        Meter meter = sdk.getMeter("com.tibco.bw.jvm");
+
+        /*
+         * An owner reports only while it holds threads up: its series expire after one run without.
+         */
+        this.registry = new SeriesRegistry(meter, new RegistryConfig(1, 0, 0, true));
+        this.metrics = new CollectorMetrics(meter, "contention", this.registry);
+
+        withGroups(Threads.DEFAULT_GROUPS);
+    }
+
+    /**
+     * @see Threads#withGroups(String)
+     */
+    public Contention withGroups(String groups) {
+        this.groups = ThreadGroups.parse(groups);
+        this.blockedTotals = new long[this.groups.size()];
+        this.waitedTotals = new long[this.groups.size()];
+        this.blockedCountTotals = new long[this.groups.size()];
+
+        this.ids = new long[0];
+        this.group = new int[0];
+        this.blocked = new long[0];
+        this.waited = new long[0];
+        this.blockedCount = new long[0];
+        return this;
+    }
+
+    /**
+     * @param maxThreads the number of threads to read per run (default 1000).
+     * @param top the number of lock owners to report (default 5).
+     */
+    public Contention withSample(int maxThreads, int top) {
+        this.maxThreads = Math.max(1, maxThreads);
+        this.top = Math.max(0, top);
+        return this;
+    }
+
+    /**
+     * @param every the number of runs between two deadlock checks (default 5), {@code 0} for none.
+     * @param budget the time a check may take before the checks get rarer (default 50 milliseconds).
+     */
+    public Contention withDeadlockCheck(int every, long budget, TimeUnit unit) {
+        this.deadlockEvery = Math.max(0, every);
+        this.deadlockBudget = unit.toNanos(budget);
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void run() {
+        Logger.entering(this.getClass().getCanonicalName(), "run");
+
+        long started = this.metrics.scrapeStarted();
+
+        try {
+            this.metrics.rows(sample());
+            if (this.deadlockEvery > 0 && this.runs % this.deadlockEvery == 0) {
+                findDeadlocks();
+            }
+            this.runs++;
+
+            this.registry.gauge("jvm.threads.deadlocked", "Number of deadlocked threads, as of the last check.", null)
+                    .series(Attributes.empty())
+                    .set(this.deadlocked);
+            this.registry.completeCycle();
+            this.metrics.scrapeSucceeded(started);
+        } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
+            Logger.warning("Exception sampling the thread contention...", t);
+        }
+
+        Logger.exiting(this.getClass().getCanonicalName(), "run");
+    }
+
+    private int sample() {
+        long[] live = this.threads.getAllThreadIds();
+        Arrays.sort(live);
+        int n = live.length;
+
+        /*
+         * Carries the state of the threads that are still alive.
+         */
+        int[] group = new int[n];
+        long[] blocked = new long[n];
+        long[] waited = new long[n];
+        long[] blockedCount = new long[n];
+        Arrays.fill(group, -1);
+
+        for (int i = 0, j = 0; i < n; i++) {
+            while (j < this.ids.length && this.ids[j] < live[i]) {
+                j++;
+            }
+            if (j < this.ids.length && this.ids[j] == live[i]) {
+                group[i] = this.group[j];
+                blocked[i] = this.blocked[j];
+                waited[i] = this.waited[j];
+                blockedCount[i] = this.blockedCount[j];
+            }
+        }
+
+        /*
+         * The next 'maxthreads' threads after the last one read, in turn.
+         */
+        int count = Math.min(n, this.maxThreads);
+        int first = Arrays.binarySearch(live, this.cursor + 1);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        long[] window = new long[count];
+        for (int k = 0; k < count; k++) {
+            window[k] = live[(first + k) % n];
+        }
+        if (count > 0) {
+            this.cursor = window[count - 1];
+        }
+
+        ThreadInfo[] infos = this.threads.getThreadInfo(window, 0);
+        Map<Long, Owner> owners = new HashMap<>();
+
+        for (int k = 0; k < count; k++) {
+            ThreadInfo info = infos[k];
+            if (info == null) {
+                continue;
+            }
+            int at = (first + k) % n;
+            if (group[at] < 0) {
+                group[at] = this.groups.classify(info.getThreadName());
+            }
+
+            long blockedDelta = increase(info.getBlockedTime(), blocked[at]);
+            long waitedDelta = increase(info.getWaitedTime(), waited[at]);
+            long countDelta = increase(info.getBlockedCount(), blockedCount[at]);
+            blocked[at] = Math.max(blocked[at], info.getBlockedTime());
+            waited[at] = Math.max(waited[at], info.getWaitedTime());
+            blockedCount[at] = Math.max(blockedCount[at], info.getBlockedCount());
+
+            this.blockedTotals[group[at]] += blockedDelta;
+            this.waitedTotals[group[at]] += waitedDelta;
+            this.blockedCountTotals[group[at]] += countDelta;
+
+            if (info.getLockOwnerId() >= 0 && info.getLockOwnerName() != null) {
+                Owner owner = owners.get(info.getLockOwnerId());
+                if (owner == null) {
+                    owner = new Owner(info.getLockOwnerName(), info.getLockName());
+                    owners.put(info.getLockOwnerId(), owner);
+                }
+                owner.waiters++;
+                owner.time += blockedDelta + waitedDelta;
+            }
+        }
+
+        this.ids = live;
+        this.group = group;
+        this.blocked = blocked;
+        this.waited = waited;
+        this.blockedCount = blockedCount;
+
+        report(owners);
+        return count;
+    }
+
+    private void report(Map<Long, Owner> owners) {
+        for (int g = 0; g < this.groups.size(); g++) {
+            this.registry.counter("jvm.threads.blocked.time", "Time the group's threads spent blocked on a monitor.", "ms", 64)
+                    .series(this.groups.attributes(g))
+                    .set(this.blockedTotals[g]);
+            this.registry.counter("jvm.threads.waited.time", "Time the group's threads spent waiting.", "ms", 64)
+                    .series(this.groups.attributes(g))
+                    .set(this.waitedTotals[g]);
+            this.registry.counter("jvm.threads.blocked.count", "Number of times the group's threads got blocked on a monitor.", null, 64)
+                    .series(this.groups.attributes(g))
+                    .set(this.blockedCountTotals[g]);
+        }
+
+        /*
+         * The owners holding up the most threads, then the longest.
+         */
+        List<Owner> ranked = new ArrayList<>(owners.values());
+        ranked.sort((a, b) -> (a.waiters != b.waiters) ? Integer.compare(b.waiters, a.waiters) : Long.compare(b.time, a.time));
+
+        for (Owner owner : ranked.subList(0, Math.min(this.top, ranked.size()))) {
+            Attributes attributes = Attributes.of(
+                    THREAD_NAME, owner.name,
+                    ThreadGroups.GROUP, this.groups.name(this.groups.classify(owner.name)),
+                    LOCK, owner.lock
+            );
+            this.registry.gauge("jvm.threads.lock.owner.waiters", "Number of threads blocked on, or waiting for, a lock the thread holds.", null)
+                    .series(attributes)
+                    .set(owner.waiters);
+            this.registry.gauge("jvm.threads.lock.owner.time", "Time the threads waiting for the thread spent blocked and waiting since they were last read.", "ms")
+                    .series(attributes)
+                    .set(owner.time);
+        }
+    }
+
+    private void findDeadlocks() {
+        long call = System.nanoTime();
+        long[] ids = this.threads.findDeadlockedThreads();
+        long took = System.nanoTime() - call;
+        this.metrics.callCompleted(c_find_deadlocks, call);
+
+        int deadlocked = (ids == null) ? 0 : ids.length;
+        if (deadlocked > this.deadlocked) {
+            StringBuilder names = new StringBuilder();
+            for (ThreadInfo info : this.threads.getThreadInfo(ids, 0)) {
+                if (info != null) {
+                    names.append(String.format("%n  '%s' waits for %s, held by '%s'", info.getThreadName(), info.getLockName(), info.getLockOwnerName()));
+                }
+            }
+            Logger.severe(String.format("Found %d deadlocked thread(s):%s", deadlocked, names));
+        }
+        this.deadlocked = deadlocked;
+
+        if (took > this.deadlockBudget && this.deadlockEvery < c_max_deadlock_every) {
+            this.deadlockEvery = Math.min(c_max_deadlock_every, this.deadlockEvery * 2);
+            Logger.info(
+                    String.format(
+                            "%s took %d ms, checking every %d runs from now on.",
+                            c_find_deadlocks,
+                            TimeUnit.NANOSECONDS.toMillis(took),
+                            this.deadlockEvery
+                    )
+            );
+        }
+    }
+
+    /*
+     * The increase of a cumulative value since the previous read: all of it at the first one. An unknown (negative) value did not increase.
+     */
+    private static long increase(long now, long previous) {
+        return (now < 0) ? 0 : Math.max(0, now - previous);
+    }
+
+    private static final class Owner {
+
+        private final String name;
+        private final String lock;
+        private int waiters = 0;
+        private long time = 0;
+
+        /*
+         * The lock's class only: its identity hash would give every lock a series of its own.
+         */
+        private Owner(String name, String lock) {
+            this.name = name;
+            int at = (lock == null) ? -1 : lock.indexOf('@');
+            this.lock = (at < 0) ? String.valueOf(lock) : lock.substring(0, at);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.jaybaws.metrics.bw.metrics;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.jaybaws.metrics.bw.util.Logger;
+
+/**
+ * Reports every garbage collection as it happens, from the collectors' notifications, rather than the cumulative
+ * counts and times that hide the single long pause that stalls the engine's threads:
+ *
+ * <ul>
+ *     <li>{@code jvm.gc.pause}: a histogram of the collections' durations (ms), by collector {@code name},
+ *     {@code action} (e.g. "end of minor GC") and {@code cause} (e.g. "Allocation Failure");</li>
+ *     <li>{@code jvm.gc.reclaimed}: the bytes a collection freed in a pool, by {@code jvm.memory.pool.name};</li>
+ *     <li>{@code jvm.gc.promoted}: the bytes a collection added to an old generation pool;</li>
+ *     <li>{@code jvm.gc.heap.after}: the heap in use after the latest collection.</li>
+ * </ul>
+ *
+ * Nothing is polled. The listener runs on the JVM's notification thread, and does not allocate beyond what decoding
+ * the notification takes: the attributes of every collector, action, cause and pool are built the first time they
+ * show.
+ */
+public final class GC implements NotificationListener {
+
+    private static final AttributeKey<String> NAME = AttributeKey.stringKey("name");
+    private static final AttributeKey<String> ACTION = AttributeKey.stringKey("action");
+    private static final AttributeKey<String> CAUSE = AttributeKey.stringKey("cause");
+    private static final AttributeKey<String> POOL = AttributeKey.stringKey("jvm.memory.pool.name");
+
+    private final LongHistogram pauses;
+    private final LongCounter reclaimed;
+    private final LongCounter promoted;
+
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Attributes>>> collections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private volatile long heapAfter = -1;
+
+    private GC(Meter meter) {
+        this.pauses = meter
+                .histogramBuilder("jvm.gc.pause")
+                .setDescription("Duration of the garbage collections.")
+                .setUnit("ms")
+                .ofLongs()
+                .build();
+
+        this.reclaimed = meter
+                .counterBuilder("jvm.gc.reclaimed")
+                .setDescription("Bytes freed in a memory pool by the garbage collections.")
+                .setUnit("byte")
+                .build();
+
+        this.promoted = meter
+                .counterBuilder("jvm.gc.promoted")
+                .setDescription("Bytes added to an old generation memory pool by the garbage collections.")
+                .setUnit("byte")
+                .build();
+
+        meter
+                .upDownCounterBuilder("jvm.gc.heap.after")
+                .setDescription("Heap in use after the latest garbage collection.")
+                .setUnit("byte")
+                .buildWithCallback(result -> {
+                    long heapAfter = this.heapAfter;
+                    if (heapAfter >= 0) {
+                        result.record(heapAfter, Attributes.empty());
+                    }
+                });
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            this.pools.put(pool.getName(), new Pool(pool.getName(), pool.getType() == MemoryType.HEAP));
+        }
+    }
+
+    /**
+     * Listens to the notifications of every garbage collector of this JVM.
+     */
+    public static void instrument(OpenTelemetry sdk) {
+        GC gc = new GC(sdk.getMeter("com.tibco.bw.jvm"));
+
+        int listening = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(
+                        gc,
+                        notification -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()),
+                        null
+                );
+                listening++;
+            }
+        }
+
+        Logger.info(String.format("Listening to %d garbage collector(s).", listening));
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        GcInfo gcInfo = info.getGcInfo();
+
+        this.pauses.record(gcInfo.getDuration(), attributes(info.getGcName(), info.getGcAction(), info.getGcCause()));
+
+        Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+        long heapAfter = 0;
+
+        for (Map.Entry<String, MemoryUsage> entry : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+            Pool pool = pool(entry.getKey());
+            long used = entry.getValue().getUsed();
+            MemoryUsage previous = before.get(entry.getKey());
+
+            if (previous != null) {
+                long delta = used - previous.getUsed();
+                if (delta < 0) {
+                    this.reclaimed.add(-delta, pool.attributes);
+                } else if (delta > 0 && pool.old) {
+                    this.promoted.add(delta, pool.attributes);
+                }
+            }
+            if (pool.heap) {
+                heapAfter += used;
+            }
+        }
+
+        this.heapAfter = heapAfter;
+    }
+
+    private Attributes attributes(String name, String action, String cause) {
+        ConcurrentMap<String, Attributes> causes = this.collections
+                .computeIfAbsent(name, n -> new ConcurrentHashMap<>())
+                .computeIfAbsent(action, a -> new ConcurrentHashMap<>());
+        Attributes attributes = causes.get(cause);
+        if (attributes == null) {
+            attributes = causes.computeIfAbsent(cause, c -> Attributes.of(NAME, name, ACTION, action, CAUSE, c));
+        }
+        return attributes;
+    }
+
+    /*
+     * A pool the JVM did not list up front is taken for a non-heap one.
+     */
+    private Pool pool(String name) {
+        Pool pool = this.pools.get(name);
+        if (pool == null) {
+            pool = this.pools.computeIfAbsent(name, n -> new Pool(n, false));
+        }
+        return pool;
+    }
+
+    private static final class Pool {
+
+        private final Attributes attributes;
+        private final boolean heap;
+        private final boolean old;
+
+        private Pool(String name, boolean heap) {
+            this.attributes = Attributes.of(POOL, name);
+            this.heap = heap;
+            String lower = name.toLowerCase();
+            this.old = heap && (lower.contains("old") || lower.contains("tenured"));
+        }
+    }
+}
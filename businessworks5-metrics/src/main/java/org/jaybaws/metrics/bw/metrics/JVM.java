@@ -2,139 +2,228 @@ package org.jaybaws.metrics.bw.metrics;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
 
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.jaybaws.metrics.bw.util.Logger;
 
+/**
+ * Reports the engine's JVM: memory (in total, per pool, heap and non-heap), threads, collections and CPU.
+ *
+ * All of it is observed in a single batch callback, which reads every MXBean once per collection: one
+ * {@code getUsage()} per pool for its used, committed, limit and initial sizes, and one heap and one non-heap usage.
+ * The MXBeans themselves are looked up once.
+ *
+ * The CPU load of the process and of the whole system (0..1, over all processors) comes from the
+ * {@code com.sun.management} extension of the operating system MXBean. On JVMs without it, or while the load is not
+ * yet known, only the system load average is reported.
+ */
 public class JVM {
 
+    /*
+     * The agent instruments the JVM again when the engine's MBean comes back; the metrics are registered only once.
+     */
+    private static final AtomicBoolean c_instrumented = new AtomicBoolean();
+
     public static void instrument(OpenTelemetry sdk) {
+        if (!c_instrumented.compareAndSet(false, true)) {
+            return;
+        }
+
         Meter jvmMeter = sdk.getMeter("com.tibco.bw.jvm");
-        jvmMeter
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        /*
+         * The attributes never change for a pool or collector, so build them once instead of on every export.
+         */
+        Attributes[] poolAttributes = new Attributes[pools.size()];
+        for (int i = 0; i < poolAttributes.length; i++) {
+            poolAttributes[i] = Attributes.builder()
+                    .put("jvm.memory.pool.name", pools.get(i).getName())
+                    .put("jvm.memory.type", pools.get(i).getType().name())
+                    .build();
+        }
+        Attributes[] collectorAttributes = new Attributes[collectors.size()];
+        for (int i = 0; i < collectorAttributes.length; i++) {
+            collectorAttributes[i] = Attributes.builder().put("name", collectors.get(i).getName()).build();
+        }
+
+        ObservableLongMeasurement total = jvmMeter
                 .upDownCounterBuilder("jvm.memory.total")
                 .setDescription("Reports JVM memory usage.")
                 .setUnit("byte")
-                .buildWithCallback(result -> result.record(Runtime.getRuntime().totalMemory(), Attributes.empty()));
-
-        jvmMeter
+                .buildObserver();
+        ObservableLongMeasurement cpuCount = jvmMeter
                 .upDownCounterBuilder("jvm.cpu.count")
                 .setDescription("Number of processors available to the Java virtual machine.")
-                .buildWithCallback(result -> result.record(Runtime.getRuntime().availableProcessors(), Attributes.empty()));
-
-        for (MemoryPoolMXBean mpmxb : ManagementFactory.getMemoryPoolMXBeans()) {
-            String memoryPoolName = mpmxb.getName();
-            String memoryPoolType = mpmxb.getType().name();
-
-            jvmMeter
-                    .upDownCounterBuilder("jvm.memory.used")
-                    .setDescription("Measure of memory used.")
-                    .setUnit("byte")
-                    .buildWithCallback(
-                            result -> result.record(
-                                    mpmxb.getUsage().getUsed(),
-                                    Attributes.builder()
-                                            .put("jvm.memory.pool.name", memoryPoolName)
-                                            .put("jvm.memory.type", memoryPoolType)
-                                            .build())
-                    );
-
-            jvmMeter
-                    .upDownCounterBuilder("jvm.memory.committed")
-                    .setDescription("Measure of memory committed.")
-                    .setUnit("byte")
-                    .buildWithCallback(
-                            result -> result.record(
-                                    mpmxb.getUsage().getCommitted(),
-                                    Attributes.builder()
-                                            .put("jvm.memory.pool.name", memoryPoolName)
-                                            .put("jvm.memory.type", memoryPoolType)
-                                            .build())
-                    );
-
-            jvmMeter
-                    .upDownCounterBuilder("jvm.memory.limit")
-                    .setDescription("Measure of max obtainable memory.")
-                    .setUnit("byte")
-                    .buildWithCallback(
-                            result -> result.record(
-                                    mpmxb.getUsage().getMax(),
-                                    Attributes.builder()
-                                            .put("jvm.memory.pool.name", memoryPoolName)
-                                            .put("jvm.memory.type", memoryPoolType)
-                                            .build())
-                    );
-
-            jvmMeter
-                    .upDownCounterBuilder("jvm.memory.init")
-                    .setDescription("Measure of initial memory requested.")
-                    .setUnit("byte")
-                    .buildWithCallback(
-                            result -> result.record(
-                                    mpmxb.getUsage().getInit(),
-                                    Attributes.builder()
-                                            .put("jvm.memory.pool.name", memoryPoolName)
-                                            .put("jvm.memory.type", memoryPoolType)
-                                            .build())
-                    );
-        }
+                .buildObserver();
 
+        ObservableLongMeasurement used = jvmMeter
+                .upDownCounterBuilder("jvm.memory.used")
+                .setDescription("Measure of memory used.")
+                .setUnit("byte")
+                .buildObserver();
+        ObservableLongMeasurement committed = jvmMeter
+                .upDownCounterBuilder("jvm.memory.committed")
+                .setDescription("Measure of memory committed.")
+                .setUnit("byte")
+                .buildObserver();
+        ObservableLongMeasurement limit = jvmMeter
+                .upDownCounterBuilder("jvm.memory.limit")
+                .setDescription("Measure of max obtainable memory.")
+                .setUnit("byte")
+                .buildObserver();
+        ObservableLongMeasurement init = jvmMeter
+                .upDownCounterBuilder("jvm.memory.init")
+                .setDescription("Measure of initial memory requested.")
+                .setUnit("byte")
+                .buildObserver();
 
-        jvmMeter
+        ObservableLongMeasurement heapUsed = jvmMeter
                 .upDownCounterBuilder("jvm.memory.heap.used")
-                .buildWithCallback(
-                        result -> result.record(
-                                ManagementFactory.getPlatformMXBean(java.lang.management.MemoryMXBean.class).getHeapMemoryUsage().getUsed(),
-                                Attributes.empty()
-                        )
-                );
-
-        jvmMeter
+                .setDescription("Heap memory in use.")
+                .setUnit("byte")
+                .buildObserver();
+        ObservableLongMeasurement heapMax = jvmMeter
                 .upDownCounterBuilder("jvm.memory.heap.max")
-                .buildWithCallback(
-                        result -> result.record(
-                                ManagementFactory.getPlatformMXBean(java.lang.management.MemoryMXBean.class).getHeapMemoryUsage().getMax(),
-                                Attributes.empty()
-                        )
-                );
-
-        jvmMeter.upDownCounterBuilder("jvm.memory.non_heap.used")
-                .buildWithCallback(
-                        result -> result.record(
-                                ManagementFactory.getPlatformMXBean(java.lang.management.MemoryMXBean.class).getNonHeapMemoryUsage().getMax(),
-                                Attributes.empty()
-                        )
-                );
-
-        jvmMeter.upDownCounterBuilder("jvm.thread.count")
-                .buildWithCallback(
-                        result -> result.record(ManagementFactory.getThreadMXBean().getThreadCount(),
-                                Attributes.empty()
-                        )
-                );
-
-        for (GarbageCollectorMXBean gcmxb : ManagementFactory.getGarbageCollectorMXBeans()) {
-            String name = gcmxb.getName();
-            jvmMeter.upDownCounterBuilder("jvm.gc.count")
-                    .buildWithCallback(
-                            result -> result.record(gcmxb.getCollectionCount(),
-                                    Attributes.builder().put("name", name).build()
-                            )
-                    );
-            jvmMeter.upDownCounterBuilder("jvm.gc.time")
-                    .buildWithCallback(
-                            result -> result.record(gcmxb.getCollectionTime(),
-                                    Attributes.builder().put("name", name).build()
-                            )
-                    );
+                .setDescription("Max obtainable heap memory.")
+                .setUnit("byte")
+                .buildObserver();
+        ObservableLongMeasurement nonHeapUsed = jvmMeter
+                .upDownCounterBuilder("jvm.memory.non_heap.used")
+                .setDescription("Non-heap memory in use.")
+                .setUnit("byte")
+                .buildObserver();
+
+        ObservableLongMeasurement threadCount = jvmMeter
+                .upDownCounterBuilder("jvm.thread.count")
+                .setDescription("Number of live threads.")
+                .buildObserver();
+
+        ObservableLongMeasurement gcCount = jvmMeter
+                .upDownCounterBuilder("jvm.gc.count")
+                .setDescription("Number of collections.")
+                .buildObserver();
+        ObservableLongMeasurement gcTime = jvmMeter
+                .upDownCounterBuilder("jvm.gc.time")
+                .setDescription("Time spent in collections.")
+                .setUnit("ms")
+                .buildObserver();
+
+        /*
+         * Loads are fractions that go up and down freely: gauges. The CPU time only ever grows: a counter.
+         */
+        ObservableDoubleMeasurement systemCpu = jvmMeter
+                .gaugeBuilder("system.cpu.total.norm.pct")
+                .setDescription("CPU load of the whole system, over all processors (0..1).")
+                .setUnit("1")
+                .buildObserver();
+        ObservableDoubleMeasurement processCpu = jvmMeter
+                .gaugeBuilder("process.cpu.total.norm.pct")
+                .setDescription("CPU load of the engine's JVM, over all processors (0..1).")
+                .setUnit("1")
+                .buildObserver();
+        ObservableDoubleMeasurement processCpuTime = jvmMeter
+                .counterBuilder("process.cpu.time")
+                .ofDoubles()
+                .setDescription("CPU time used by the engine's JVM.")
+                .setUnit("s")
+                .buildObserver();
+        ObservableDoubleMeasurement loadAverage = jvmMeter
+                .gaugeBuilder("system.cpu.load_average.1m")
+                .setDescription("Number of runnable entities queued to and running on the processors, averaged over a minute.")
+                .buildObserver();
+
+        com.sun.management.OperatingSystemMXBean cpu = (os instanceof com.sun.management.OperatingSystemMXBean)
+                ? (com.sun.management.OperatingSystemMXBean) os
+                : null;
+        if (cpu == null) {
+            Logger.info("No com.sun.management OperatingSystemMXBean, reporting the system load average only.");
         }
 
+        jvmMeter.batchCallback(
+                () -> {
+                    Runtime runtime = Runtime.getRuntime();
+                    total.record(runtime.totalMemory());
+                    cpuCount.record(runtime.availableProcessors());
+
+                    for (int i = 0; i < poolAttributes.length; i++) {
+                        MemoryUsage usage = pools.get(i).getUsage();
+                        if (usage != null) {
+                            used.record(usage.getUsed(), poolAttributes[i]);
+                            committed.record(usage.getCommitted(), poolAttributes[i]);
+                            limit.record(usage.getMax(), poolAttributes[i]);
+                            init.record(usage.getInit(), poolAttributes[i]);
+                        }
+                    }
+
+                    MemoryUsage heap = memory.getHeapMemoryUsage();
+                    heapUsed.record(heap.getUsed());
+                    heapMax.record(heap.getMax());
+                    nonHeapUsed.record(memory.getNonHeapMemoryUsage().getUsed());
+
+                    threadCount.record(threads.getThreadCount());
+
+                    for (int i = 0; i < collectorAttributes.length; i++) {
+                        gcCount.record(collectors.get(i).getCollectionCount(), collectorAttributes[i]);
+                        gcTime.record(collectors.get(i).getCollectionTime(), collectorAttributes[i]);
+                    }
+
+                    /*
+                     * A negative value means not (yet) known; such values are left out.
+                     */
+                    if (cpu != null) {
+                        record(systemCpu, systemCpuLoad(cpu));
+                        record(processCpu, cpu.getProcessCpuLoad());
+                        long cpuTime = cpu.getProcessCpuTime();
+                        if (cpuTime >= 0) {
+                            processCpuTime.record(cpuTime / 1e9);
+                        }
+                    }
+                    record(loadAverage, os.getSystemLoadAverage());
+                },
+                total, cpuCount, used, committed, limit, init, heapUsed, heapMax, nonHeapUsed, threadCount, gcCount,
+                gcTime, systemCpu, processCpu, processCpuTime, loadAverage
+        );
+
         /*
-         * @TODO! How to determin this on Java 11 ???
+         * Every single collection, from the collectors' notifications.
          */
-        jvmMeter.upDownCounterBuilder("system.cpu.total.norm.pct").buildWithCallback(result -> result.record(0, Attributes.empty()));
+        GC.instrument(sdk);
+
+        /*
+         * And what the operating system sees of the process, heap or not.
+         */
+        NativeMemory.instrument(sdk);
 
         Logger.info("Registered (async) JVM metrics!");
     }
-}
\ No newline at end of file
+
+    /*
+     * getCpuLoad() replaces it, but only as of JDK 14.
+     */
+    @SuppressWarnings("deprecation")
+    private static double systemCpuLoad(com.sun.management.OperatingSystemMXBean cpu) {
+        return cpu.getSystemCpuLoad();
+    }
+
+    private static void record(ObservableDoubleMeasurement measurement, double value) {
+        if (value >= 0) {
+            measurement.record(value);
+        }
+    }
+}
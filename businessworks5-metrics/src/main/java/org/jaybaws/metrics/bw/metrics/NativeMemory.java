@@ -0,0 +1,261 @@
+package org.jaybaws.metrics.bw.metrics;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.jaybaws.metrics.bw.util.Logger;
+
+/**
+ * Reports the memory of the engine's process as the operating system sees it, to show what grows outside of the heap:
+ * thread stacks, direct buffers, and the native code of the TIBCO adapters and drivers.
+ *
+ * <ul>
+ *     <li>from {@code /proc/self/status}: {@code process.memory.rss} (and its {@code .peak}, {@code .anonymous} and
+ *     {@code .file} parts) and {@code process.memory.swap};</li>
+ *     <li>from {@code /proc/self/smaps_rollup} (Linux 4.14 and later): {@code process.memory.pss}, the resident memory
+ *     with the pages shared with other processes split among them, and {@code process.memory.anonymous};</li>
+ *     <li>{@code process.memory.outside_heap}: the resident memory minus the committed heap;</li>
+ *     <li>from the BufferPoolMXBeans: {@code jvm.buffer.memory.used}, {@code jvm.buffer.memory.limit} and
+ *     {@code jvm.buffer.count}, by {@code pool} ({@code direct} and {@code mapped}).</li>
+ * </ul>
+ *
+ * The files are read when the metrics are collected, through descriptors that are opened once, into a buffer that is
+ * reused, and parsed in place, without strings or regular expressions. On other systems than Linux, only the buffer
+ * pools are reported.
+ */
+public final class NativeMemory {
+
+    private static final String c_status = "/proc/self/status";
+    private static final String c_smaps_rollup = "/proc/self/smaps_rollup";
+
+    private static final int VM_RSS = 0;
+    private static final int VM_HWM = 1;
+    private static final int VM_SWAP = 2;
+    private static final int RSS_ANON = 3;
+    private static final int RSS_FILE = 4;
+
+    private static final int PSS = 0;
+    private static final int ANONYMOUS = 1;
+
+    private NativeMemory() {
+    }
+
+    public static void instrument(OpenTelemetry sdk) {
+        instrument(sdk, c_status, c_smaps_rollup);
+    }
+
+    static void instrument(OpenTelemetry sdk, String status, String smapsRollup) {
+        Meter meter = sdk.getMeter("com.tibco.bw.jvm");
+
+        ProcFile statusFile = ProcFile.open(status, "VmRSS", "VmHWM", "VmSwap", "RssAnon", "RssFile");
+        ProcFile smapsFile = ProcFile.open(smapsRollup, "Pss", "Anonymous");
+        if (statusFile == null) {
+            Logger.info(String.format("No %s, reporting the buffer pools only.", status));
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        Attributes[] poolAttributes = new Attributes[pools.size()];
+        for (int i = 0; i < poolAttributes.length; i++) {
+            poolAttributes[i] = Attributes.builder().put("pool", pools.get(i).getName()).build();
+        }
+
+        ObservableLongMeasurement rss = bytes(meter, "process.memory.rss", "Resident memory of the engine's process.");
+        ObservableLongMeasurement rssPeak = bytes(meter, "process.memory.rss.peak", "Highest resident memory of the engine's process.");
+        ObservableLongMeasurement rssAnonymous = bytes(meter, "process.memory.rss.anonymous", "Resident anonymous memory (heap, stacks, native allocations) of the engine's process.");
+        ObservableLongMeasurement rssFile = bytes(meter, "process.memory.rss.file", "Resident file-backed memory (code, mapped files) of the engine's process.");
+        ObservableLongMeasurement swap = bytes(meter, "process.memory.swap", "Memory of the engine's process that is swapped out.");
+        ObservableLongMeasurement pss = bytes(meter, "process.memory.pss", "Resident memory of the engine's process, with shared pages split among the processes sharing them.");
+        ObservableLongMeasurement anonymous = bytes(meter, "process.memory.anonymous", "Anonymous memory mapped by the engine's process.");
+        ObservableLongMeasurement outsideHeap = bytes(meter, "process.memory.outside_heap", "Resident memory of the engine's process minus the committed heap.");
+
+        ObservableLongMeasurement bufferUsed = bytes(meter, "jvm.buffer.memory.used", "Memory used by the buffers of the pool.");
+        ObservableLongMeasurement bufferLimit = bytes(meter, "jvm.buffer.memory.limit", "Total capacity of the buffers of the pool.");
+        ObservableLongMeasurement bufferCount = meter
+                .upDownCounterBuilder("jvm.buffer.count")
+                .setDescription("Number of buffers in the pool.")
+                .buildObserver();
+
+        meter.batchCallback(
+                () -> {
+                    if (statusFile != null && statusFile.read()) {
+                        long[] values = statusFile.values;
+                        record(rss, values[VM_RSS]);
+                        record(rssPeak, values[VM_HWM]);
+                        record(rssAnonymous, values[RSS_ANON]);
+                        record(rssFile, values[RSS_FILE]);
+                        record(swap, values[VM_SWAP]);
+                        if (values[VM_RSS] >= 0) {
+                            outsideHeap.record(values[VM_RSS] - memory.getHeapMemoryUsage().getCommitted());
+                        }
+                    }
+                    if (smapsFile != null && smapsFile.read()) {
+                        record(pss, smapsFile.values[PSS]);
+                        record(anonymous, smapsFile.values[ANONYMOUS]);
+                    }
+
+                    for (int i = 0; i < poolAttributes.length; i++) {
+                        BufferPoolMXBean pool = pools.get(i);
+                        bufferUsed.record(pool.getMemoryUsed(), poolAttributes[i]);
+                        bufferLimit.record(pool.getTotalCapacity(), poolAttributes[i]);
+                        bufferCount.record(pool.getCount(), poolAttributes[i]);
+                    }
+                },
+                rss, rssPeak, rssAnonymous, rssFile, swap, pss, anonymous, outsideHeap, bufferUsed, bufferLimit, bufferCount
+        );
+
+        Logger.info("Registered (async) native memory metrics!");
+    }
+
+    private static ObservableLongMeasurement bytes(Meter meter, String name, String description) {
+        return meter
+                .upDownCounterBuilder(name)
+                .setDescription(description)
+                .setUnit("byte")
+                .buildObserver();
+    }
+
+    /*
+     * A negative value means the file did not have it; such values are left out.
+     */
+    private static void record(ObservableLongMeasurement measurement, long value) {
+        if (value >= 0) {
+            measurement.record(value);
+        }
+    }
+
+    /**
+     * A {@code Key: value kB} file of procfs, kept open and read again from the start on every collection.
+     */
+    static final class ProcFile {
+
+        private final String path;
+        private final RandomAccessFile file;
+        private final byte[][] keys;
+        final long[] values;
+        private byte[] buffer = new byte[4096];
+
+        private ProcFile(String path, RandomAccessFile file, String... keys) {
+            this.path = path;
+            this.file = file;
+            this.keys = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                this.keys[i] = keys[i].getBytes(StandardCharsets.US_ASCII);
+            }
+            this.values = new long[keys.length];
+        }
+
+        /**
+         * @return {@code null} when the file cannot be read.
+         */
+        static ProcFile open(String path, String... keys) {
+            if (!new File(path).canRead()) {
+                return null;
+            }
+            try {
+                return new ProcFile(path, new RandomAccessFile(path, "r"), keys);
+            } catch (IOException e) {
+                Logger.warning(String.format("Unable to open %s.", path), e);
+                return null;
+            }
+        }
+
+        /**
+         * Reads and parses the file into {@link #values}: the value of every key in bytes, {@code -1} for a key the
+         * file does not have.
+         *
+         * @return false when the file could not be read.
+         */
+        synchronized boolean read() {
+            int length = 0;
+            try {
+                this.file.seek(0);
+                int read;
+                while ((read = this.file.read(this.buffer, length, this.buffer.length - length)) > 0) {
+                    length += read;
+                    if (length == this.buffer.length) {
+                        byte[] larger = new byte[this.buffer.length * 2];
+                        System.arraycopy(this.buffer, 0, larger, 0, length);
+                        this.buffer = larger;
+                    }
+                }
+            } catch (IOException e) {
+                Logger.warning(String.format("Unable to read %s.", this.path), e);
+                return false;
+            }
+
+            parse(length);
+            return true;
+        }
+
+        private void parse(int length) {
+            for (int i = 0; i < this.values.length; i++) {
+                this.values[i] = -1;
+            }
+
+            int line = 0;
+            while (line < length) {
+                int end = line;
+                while (end < length && this.buffer[end] != '\n') {
+                    end++;
+                }
+                int colon = line;
+                while (colon < end && this.buffer[colon] != ':') {
+                    colon++;
+                }
+
+                int key = (colon < end) ? key(line, colon) : -1;
+                if (key >= 0) {
+                    this.values[key] = value(colon + 1, end);
+                }
+                line = end + 1;
+            }
+        }
+
+        private int key(int from, int to) {
+            for (int k = 0; k < this.keys.length; k++) {
+                byte[] candidate = this.keys[k];
+                if (candidate.length == to - from) {
+                    int i = 0;
+                    while (i < candidate.length && candidate[i] == this.buffer[from + i]) {
+                        i++;
+                    }
+                    if (i == candidate.length) {
+                        return k;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /*
+         * The number after the colon, in bytes when followed by a unit of kB.
+         */
+        private long value(int from, int to) {
+            int i = from;
+            while (i < to && (this.buffer[i] == ' ' || this.buffer[i] == '\t')) {
+                i++;
+            }
+            if (i == to || this.buffer[i] < '0' || this.buffer[i] > '9') {
+                return -1;
+            }
+            long value = 0;
+            while (i < to && this.buffer[i] >= '0' && this.buffer[i] <= '9') {
+                value = value * 10 + (this.buffer[i] - '0');
+                i++;
+            }
+            while (i < to && this.buffer[i] == ' ') {
+                i++;
+            }
+            return (i < to && (this.buffer[i] == 'k' || this.buffer[i] == 'K')) ? value * 1024 : value;
+        }
+    }
+}
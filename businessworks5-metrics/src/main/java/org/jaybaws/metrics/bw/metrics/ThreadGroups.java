@@ -0,0 +1,71 @@
+package org.jaybaws.metrics.bw.metrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The groups the engine's threads are reported by: the first of the name patterns a thread's name matches, else
+ * {@code other}.
+ */
+final class ThreadGroups {
+
+    static final AttributeKey<String> GROUP = AttributeKey.stringKey("group");
+
+    private static final String c_other = "other";
+
+    private final String[] names;
+    private final Pattern[] patterns;
+    private final Attributes[] attributes;
+
+    private ThreadGroups(List<String> names, List<Pattern> patterns) {
+        names.add(c_other);
+        this.names = names.toArray(new String[0]);
+        this.patterns = patterns.toArray(new Pattern[0]);
+        this.attributes = new Attributes[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            this.attributes[i] = Attributes.of(GROUP, this.names[i]);
+        }
+    }
+
+    /**
+     * @param groups {@code <group>=<regex>} pairs, separated by {@code ;}. A pattern must match the whole name.
+     */
+    static ThreadGroups parse(String groups) {
+        List<String> names = new ArrayList<>();
+        List<Pattern> patterns = new ArrayList<>();
+        for (String group : groups.split(";")) {
+            int separator = group.indexOf('=');
+            if (separator > 0) {
+                names.add(group.substring(0, separator).trim());
+                patterns.add(Pattern.compile(group.substring(separator + 1).trim()));
+            }
+        }
+        return new ThreadGroups(names, patterns);
+    }
+
+    /**
+     * @return the number of groups, {@code other} included.
+     */
+    int size() {
+        return this.names.length;
+    }
+
+    String name(int group) {
+        return this.names[group];
+    }
+
+    Attributes attributes(int group) {
+        return this.attributes[group];
+    }
+
+    int classify(String name) {
+        for (int i = 0; i < this.patterns.length; i++) {
+            if (this.patterns[i].matcher(name).matches()) {
+                return i;
+            }
+        }
+        return this.patterns.length;
+    }
+}
@@ -0,0 +1,326 @@
+package org.jaybaws.metrics.bw.metrics;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.util.Arrays;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
+
+/**
+ * Tells which of the engine's threads use its CPU and allocate its memory: the job threads, the JMS and HTTP
+ * receivers, Hawk, or the JVM itself.
+ *
+ * Every run reads the CPU time and the allocated bytes of all live threads in two bulk calls of the
+ * {@code com.sun.management} ThreadMXBean, and adds the increase since the previous run to the thread's group: the
+ * first of the configured name patterns it matches, else {@code other}. The process CPU time the threads do not
+ * account for goes to {@code vm}: the garbage collector, the JIT compilers and the VM's own threads, which are not
+ * Java threads, plus what threads used between the previous run and their end.
+ *
+ * Reports, by {@code group}, {@code jvm.threads.cpu.time} (ms) and {@code jvm.threads.allocated} (bytes) as counters
+ * with their {@code .rate} per second, and {@code jvm.threads.count}. The 'top' threads that used the most CPU during
+ * the last interval report {@code jvm.threads.hot.cpu.time} and {@code jvm.threads.hot.allocated}, by
+ * {@code thread.name} and {@code thread.id}; a thread that drops out of the top no longer reports.
+ *
+ * To stay cheap on engines with thousands of threads, a run makes no call per thread: the live ids are sorted and
+ * merged with those of the previous run, and only the names of new threads are looked up, in one call (without stack
+ * traces), for at most 'resolve' of them per run. The others are picked up by the next runs, with all their CPU time
+ * and allocations since they started. A thread keeps the group of the name it had when it was first seen.
+ */
+public class Threads implements Scraper {
+
+    public static final String DEFAULT_GROUPS =
+            "jobs=(?i)^(bw-)?worker-\\d+.*;"
+            + "jms=(?i).*(jms|ems|queue receiver|topic subscriber).*;"
+            + "http=(?i).*(http|tomcat|jetty|soap).*;"
+            + "hawk=(?i).*(hawk|microagent|tibrv).*";
+
+    private static final AttributeKey<String> THREAD_NAME = AttributeKey.stringKey("thread.name");
+    private static final AttributeKey<String> THREAD_ID = AttributeKey.stringKey("thread.id");
+
+    private static final String c_vm = "vm";
+
+    private static final long c_nanos_per_milli = 1000000L;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final com.sun.management.OperatingSystemMXBean os;
+    private final boolean allocation;
+
+    private ThreadGroups groups;
+    private final Attributes vm = Attributes.of(ThreadGroups.GROUP, c_vm);
+
+    private int top = 5;
+    private int resolve = 500;
+
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
+
+    /*
+     * Scrape thread only. The tracked threads, by ascending id: their group, name, and CPU time (ns) and allocated
+     * bytes as of the previous run. Per group (the last one being 'other'): the totals so far.
+     */
+    private long[] ids = new long[0];
+    private int[] group = new int[0];
+    private String[] names = new String[0];
+    private long[] cpu = new long[0];
+    private long[] allocated = new long[0];
+
+    private long[] cpuTotals;
+    private long[] allocatedTotals;
+    private long vmTotal = 0;
+    private long lastProcessCpu = -1;
+
+    /**
+     * @throws UnsupportedOperationException when the JVM cannot tell the CPU time of its threads.
+     */
+    public Threads(OpenTelemetry sdk) {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean) || !threads.isThreadCpuTimeSupported()) {
+            throw new UnsupportedOperationException("This JVM does not tell the CPU time of its threads.");
+        }
+        this.threads = (com.sun.management.ThreadMXBean) threads;
+        if (!this.threads.isThreadCpuTimeEnabled()) {
+            this.threads.setThreadCpuTimeEnabled(true);
+        }
+
+        this.allocation = this.threads.isThreadAllocatedMemorySupported() && this.threads.isThreadAllocatedMemoryEnabled();
+        if (!this.allocation) {
+            Logger.info("This JVM does not tell the allocations of its threads, reporting their CPU time only.");
+        }
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        this.os = (os instanceof com.sun.management.OperatingSystemMXBean)
+                ? (com.sun.management.OperatingSystemMXBean) os
+                : null;
+
+        Meter meter = sdk.getMeter("com.tibco.bw.jvm");
+
+        /*
+         * A hot thread reports only while it is in the top: its series expire after one run without it.
+         */
+        this.registry = new SeriesRegistry(meter, new RegistryConfig(1, 0, 0, true));
+        this.metrics = new CollectorMetrics(meter, "threads", this.registry);
+
+        withGroups(DEFAULT_GROUPS);
+    }
+
+    /**
+     * @param groups {@code <group>=<regex>} pairs, separated by {@code ;}. A thread belongs to the first group whose
+     *               pattern matches its whole name, else to {@code other}.
+     */
+    public Threads withGroups(String groups) {
+        this.groups = ThreadGroups.parse(groups);
+        this.cpuTotals = new long[this.groups.size()];
+        this.allocatedTotals = new long[this.groups.size()];
+
+        this.ids = new long[0];
+        this.group = new int[0];
+        this.names = new String[0];
+        this.cpu = new long[0];
+        this.allocated = new long[0];
+        return this;
+    }
+
+    /**
+     * @param top the number of hot threads to report (default 5).
+     * @param resolve the number of new threads whose name is looked up per run (default 500).
+     */
+    public Threads withTop(int top, int resolve) {
+        this.top = Math.max(0, top);
+        this.resolve = Math.max(1, resolve);
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void run() {
+        Logger.entering(this.getClass().getCanonicalName(), "run");
+
+        long started = this.metrics.scrapeStarted();
+
+        try {
+            sample();
+            this.registry.completeCycle();
+            this.metrics.scrapeSucceeded(started);
+        } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
+            Logger.warning("Exception sampling the threads...", t);
+        }
+
+        Logger.exiting(this.getClass().getCanonicalName(), "run");
+    }
+
+    private void sample() {
+        long processCpu = (this.os == null) ? -1 : this.os.getProcessCpuTime();
+
+        long[] live = this.threads.getAllThreadIds();
+        Arrays.sort(live);
+        long[] cpuNow = this.threads.getThreadCpuTime(live);
+        long[] allocatedNow = this.allocation ? this.threads.getThreadAllocatedBytes(live) : null;
+
+        /*
+         * Merges the live ids with the tracked ones. A new thread starts from zero, unless its name cannot be looked
+         * up in this run: then it waits for the next.
+         */
+        int[] at = new int[live.length];
+        long[] ids = new long[live.length];
+        int[] group = new int[live.length];
+        String[] names = new String[live.length];
+        long[] cpu = new long[live.length];
+        long[] allocated = new long[live.length];
+
+        long[] pending = new long[Math.min(live.length, this.resolve)];
+        int[] pendingAt = new int[pending.length];
+        int resolving = 0;
+
+        int n = 0;
+        for (int i = 0, j = 0; i < live.length; i++) {
+            while (j < this.ids.length && this.ids[j] < live[i]) {
+                j++;
+            }
+            if (j < this.ids.length && this.ids[j] == live[i]) {
+                group[n] = this.group[j];
+                names[n] = this.names[j];
+                cpu[n] = this.cpu[j];
+                allocated[n] = this.allocated[j];
+            } else if (resolving < pending.length) {
+                pending[resolving] = live[i];
+                pendingAt[resolving++] = n;
+                group[n] = -1;
+            } else {
+                continue;
+            }
+            ids[n] = live[i];
+            at[n++] = i;
+        }
+
+        if (resolving > 0) {
+            ThreadInfo[] infos = this.threads.getThreadInfo(Arrays.copyOf(pending, resolving), 0);
+            for (int k = 0; k < resolving; k++) {
+                if (infos[k] != null) {
+                    names[pendingAt[k]] = infos[k].getThreadName();
+                    group[pendingAt[k]] = this.groups.classify(infos[k].getThreadName());
+                }
+            }
+        }
+
+        /*
+         * Adds every thread's increase to its group, keeps the busiest, and drops the threads that ended before
+         * their name was looked up.
+         */
+        int[] counts = new int[this.groups.size()];
+        int[] hot = new int[this.top];
+        long[] hotCpu = new long[this.top];
+        long[] hotAllocated = new long[this.top];
+        int hottest = 0;
+        long threadsCpu = 0;
+
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            if (group[k] < 0) {
+                continue;
+            }
+
+            long cpuDelta = 0;
+            if (cpuNow[at[k]] >= 0) {
+                cpuDelta = Math.max(0, cpuNow[at[k]] - cpu[k]);
+                cpu[k] = cpuNow[at[k]];
+            }
+            long allocatedDelta = 0;
+            if (allocatedNow != null && allocatedNow[at[k]] >= 0) {
+                allocatedDelta = Math.max(0, allocatedNow[at[k]] - allocated[k]);
+                allocated[k] = allocatedNow[at[k]];
+            }
+
+            this.cpuTotals[group[k]] += cpuDelta;
+            this.allocatedTotals[group[k]] += allocatedDelta;
+            counts[group[k]]++;
+            threadsCpu += cpuDelta;
+
+            /*
+             * Insertion into the (short) list of the busiest, kept by descending CPU time.
+             */
+            if (cpuDelta > 0 && this.top > 0 && (hottest < this.top || cpuDelta > hotCpu[hottest - 1])) {
+                int slot = Math.min(hottest, this.top - 1);
+                while (slot > 0 && hotCpu[slot - 1] < cpuDelta) {
+                    hot[slot] = hot[slot - 1];
+                    hotCpu[slot] = hotCpu[slot - 1];
+                    hotAllocated[slot] = hotAllocated[slot - 1];
+                    slot--;
+                }
+                hot[slot] = kept;
+                hotCpu[slot] = cpuDelta;
+                hotAllocated[slot] = allocatedDelta;
+                hottest = Math.min(this.top, hottest + 1);
+            }
+
+            ids[kept] = ids[k];
+            group[kept] = group[k];
+            names[kept] = names[k];
+            cpu[kept] = cpu[k];
+            allocated[kept] = allocated[k];
+            kept++;
+        }
+
+        this.ids = Arrays.copyOf(ids, kept);
+        this.group = Arrays.copyOf(group, kept);
+        this.names = Arrays.copyOf(names, kept);
+        this.cpu = Arrays.copyOf(cpu, kept);
+        this.allocated = Arrays.copyOf(allocated, kept);
+
+        if (processCpu >= 0 && this.lastProcessCpu >= 0) {
+            this.vmTotal += Math.max(0, processCpu - this.lastProcessCpu - threadsCpu);
+        }
+        this.lastProcessCpu = processCpu;
+
+        report(counts, hot, hotCpu, hotAllocated, hottest);
+        this.metrics.rows(kept);
+    }
+
+    private void report(int[] counts, int[] hot, long[] hotCpu, long[] hotAllocated, int hottest) {
+        for (int g = 0; g < this.groups.size(); g++) {
+            this.registry.counter("jvm.threads.cpu.time", "CPU time used by the group's threads.", "ms", 64)
+                    .series(this.groups.attributes(g))
+                    .set(this.cpuTotals[g] / c_nanos_per_milli);
+            if (this.allocation) {
+                this.registry.counter("jvm.threads.allocated", "Bytes allocated by the group's threads.", "byte", 64)
+                        .series(this.groups.attributes(g))
+                        .set(this.allocatedTotals[g]);
+            }
+            this.registry.gauge("jvm.threads.count", "Number of live threads in the group.", null)
+                    .series(this.groups.attributes(g))
+                    .set(counts[g]);
+        }
+        if (this.lastProcessCpu >= 0) {
+            this.registry.counter("jvm.threads.cpu.time", "CPU time used by the group's threads.", "ms", 64)
+                    .series(this.vm)
+                    .set(this.vmTotal / c_nanos_per_milli);
+        }
+
+        for (int i = 0; i < hottest; i++) {
+            Attributes thread = Attributes.of(
+                    THREAD_NAME, this.names[hot[i]],
+                    THREAD_ID, String.valueOf(this.ids[hot[i]]),
+                    ThreadGroups.GROUP, this.groups.name(this.group[hot[i]])
+            );
+            this.registry.gauge("jvm.threads.hot.cpu.time", "CPU time used by one of the busiest threads during the last interval.", "ms")
+                    .series(thread)
+                    .set(hotCpu[i] / c_nanos_per_milli);
+            if (this.allocation) {
+                this.registry.gauge("jvm.threads.hot.allocated", "Bytes allocated by one of the busiest threads during the last interval.", "byte")
+                        .series(thread)
+                        .set(hotAllocated[i]);
+            }
+        }
+    }
+}
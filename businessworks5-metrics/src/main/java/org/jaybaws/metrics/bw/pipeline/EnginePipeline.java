@@ -0,0 +1,311 @@
+package org.jaybaws.metrics.bw.pipeline;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import org.jaybaws.metrics.bw.util.Constants;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.bw.workers.GetActiveProcessCountWorker;
+import org.jaybaws.metrics.bw.workers.GetActivitiesWorker;
+import org.jaybaws.metrics.bw.workers.GetExecInfoWorker;
+import org.jaybaws.metrics.bw.workers.GetMemoryUsageWorker;
+import org.jaybaws.metrics.bw.workers.GetProcessCountWorker;
+import org.jaybaws.metrics.bw.workers.GetProcessDefinitionsWorker;
+import org.jaybaws.metrics.bw.workers.GetProcessStartersWorker;
+import org.jaybaws.metrics.bw.workers.GetProcessesWorker;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+
+/**
+ * Declares the Hawk methods of one engine as the stages of a {@link Pipeline}, from the JVM arguments under
+ * {@code org.jaybaws.method}. Shared by the in-process agent and the remote collector, so both take the same
+ * switches, delays and limits.
+ */
+public final class EnginePipeline {
+
+    private static final String c_burst = Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".getprocessstarters.burst";
+
+    private EnginePipeline() {
+    }
+
+    /**
+     * @param server the connection to the engine's MBean server, in-process or remote.
+     * @param engine the engine's Hawk MBean.
+     * @param attributes the attributes identifying the engine, empty for the engine the agent runs in.
+     * @param concurrency the pipeline's concurrency, {@code 0} to run every stage on the thread running the cycle.
+     */
+    public static Pipeline build(OpenTelemetry sdk, MBeanServerConnection server, ObjectName engine, Attributes attributes, int concurrency) {
+        /*
+         * A method whose delay is a multiple of the pipeline's runs every so many cycles.
+         */
+        int pipelineDelay = delay();
+        List<Stage> stages = new ArrayList<>();
+
+        GetExecInfoWorker execInfo = null;
+        if (scheduleFor("getexecinfo")) {
+            execInfo = new GetExecInfoWorker(sdk, server, engine, attributes);
+            stages.add(stage("getexecinfo", execInfo, false, pipelineDelay));
+        }
+
+        if (scheduleFor("getmemoryusage")) {
+            stages.add(stage("getmemoryusage", new GetMemoryUsageWorker(sdk, server, engine, attributes), false, pipelineDelay));
+        }
+
+        if (scheduleFor("getprocesscount")) {
+            stages.add(stage("getprocesscount", new GetProcessCountWorker(sdk, server, engine, attributes), false, pipelineDelay));
+        }
+
+        GetActiveProcessCountWorker activeProcessCount = null;
+        if (scheduleFor("getactiveprocesscount")) {
+            activeProcessCount = new GetActiveProcessCountWorker(sdk, server, engine, attributes);
+            stages.add(stage("getactiveprocesscount", activeProcessCount, false, pipelineDelay));
+        }
+
+        GetProcessStartersWorker starters = null;
+        Stage startersStage = null;
+        if (scheduleFor("getprocessstarters")) {
+            starters = new GetProcessStartersWorker(sdk, server, engine, registryConfigFor("getprocessstarters"), attributes);
+            startersStage = stage("getprocessstarters", starters, true, pipelineDelay);
+            stages.add(startersStage);
+        }
+
+        GetProcessDefinitionsWorker definitions = null;
+        if (scheduleFor("getprocessdefinitions")) {
+            definitions = new GetProcessDefinitionsWorker(sdk, server, engine, registryConfigFor("getprocessdefinitions"), attributes)
+                    .withWindow(intFor("getprocessdefinitions.window", 15));
+            stages.add(stage("getprocessdefinitions", definitions, true, pipelineDelay));
+        }
+
+        /*
+         * Off by default: it needs the starters, and an engine whose MBean has a GetProcesses method taking the main
+         * process' name.
+         */
+        if (scheduleFor("getprocesses", false)) {
+            if (starters == null) {
+                Logger.warning("--> getprocesses needs getprocessstarters, not adding it.");
+            } else {
+                stages.add(
+                        stage(
+                                "getprocesses",
+                                new GetProcessesWorker(sdk, server, engine, starters::running, registryConfigFor("getprocesses"), attributes)
+                                        .withSample(
+                                                intFor("getprocesses.sample", 4),
+                                                intFor("getprocesses.top", 5),
+                                                intFor("getprocesses.threshold", 300),
+                                                TimeUnit.SECONDS
+                                        ),
+                                true,
+                                pipelineDelay
+                        )
+                );
+            }
+        }
+
+        GetActivitiesWorker activities = null;
+        Stage activitiesStage = null;
+        if (scheduleFor("getactivities")) {
+            String filter = System.getProperty(
+                    Constants.GETACTIVITIES_CLASSFILTER_JVMARG,
+                    Constants.GETACTIVITIES_CLASSFILTER_DEFAULT
+            );
+            String exclude = System.getProperty(Constants.GETACTIVITIES_CLASSFILTER_EXCLUDE_JVMARG);
+
+            /*
+             * A pipeline without threads of its own does not get a pool for the sliced calls either. With one, the
+             * sliced calls take the pipeline's invoke permits (once it is built), rather than the stage one for all.
+             */
+            int slices = intFor("getactivities.slices", 0);
+            activities = new GetActivitiesWorker(sdk, server, engine, filter, exclude, registryConfigFor("getactivities"), attributes)
+                    .withSlices(
+                            slices,
+                            (concurrency > 0) ? intFor("getactivities.slices.concurrency", 1) : 1,
+                            intFor("getactivities.slices.priority", 10)
+                    );
+            if (definitions != null) {
+                activities.withDefinitions(definitions::definitions);
+            }
+            activitiesStage = stage("getactivities", activities, true, pipelineDelay);
+            if (slices > 0 && concurrency > 0) {
+                activitiesStage.withOwnPermits();
+            }
+            stages.add(activitiesStage);
+        }
+
+        Pipeline pipeline = new Pipeline(
+                sdk,
+                stages,
+                TimeUnit.SECONDS.toMillis(Integer.parseInt(System.getProperty(Constants.PIPELINE_JVMARG_PREFIX + ".deadline", "30"))),
+                concurrency,
+                attributes
+        );
+        if (activitiesStage != null && activitiesStage.ownPermits()) {
+            activities.withPermits(pipeline.invokes(), pipeline::cycleDeadline);
+        }
+
+        /*
+         * Let the cheap stages tell when the engine is under load, and defer the expensive ones meanwhile:
+         * <prefix>.pipeline.governor.[enabled|stages|busy|latency|max_defer]
+         */
+        String governor = Constants.PIPELINE_JVMARG_PREFIX + ".governor";
+        if (Boolean.parseBoolean(System.getProperty(governor + ".enabled", "true"))) {
+            Set<String> governed = new HashSet<>();
+            for (String method : System.getProperty(governor + ".stages", "getactivities,getprocessdefinitions").split(",")) {
+                if (!method.trim().isEmpty()) {
+                    governed.add(method.trim());
+                }
+            }
+
+            LoadGovernor loadGovernor = new LoadGovernor(
+                    sdk,
+                    attributes,
+                    governed,
+                    Double.parseDouble(System.getProperty(governor + ".busy", "0.9")),
+                    Long.parseLong(System.getProperty(governor + ".latency", "2000")),
+                    TimeUnit.MILLISECONDS,
+                    Integer.parseInt(System.getProperty(governor + ".max_defer", "4"))
+            );
+            if (starters != null) {
+                loadGovernor.withFlowControl(starters::flowControlled);
+            }
+            if (execInfo != null && activeProcessCount != null) {
+                loadGovernor.withThreads(execInfo::threads, activeProcessCount::activeProcessCount);
+            }
+            pipeline.withGovernor(loadGovernor);
+            Logger.info(String.format("--> load governor defers %s while the engine is under load.", governed));
+        }
+
+        /*
+         * Poll the starters at a high frequency for a while after one got FLOW-CONTROLLED or its creation rate jumped:
+         * <prefix>.getprocessstarters.burst.[enabled|interval|window|surge|surge.min]
+         */
+        if (starters != null && burstInterval() > 0) {
+            starters.withSurge(
+                    Double.parseDouble(System.getProperty(c_burst + ".surge", "2")),
+                    Long.parseLong(System.getProperty(c_burst + ".surge.min", "600"))
+            );
+            pipeline.withBurst(
+                    new StarterBurst(
+                            sdk,
+                            attributes,
+                            startersStage,
+                            starters,
+                            burstInterval(),
+                            intFor("getprocessstarters.burst.window", 60),
+                            TimeUnit.SECONDS
+                    )
+            );
+            Logger.info("--> getprocessstarters bursts when starters get FLOW-CONTROLLED or surge.");
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * Schedules the pipeline's {@link Pipeline#burst()} on a thread of its own. A cycle holds up the thread it runs on
+     * for as long as its slowest stage, and a slow engine is when starters get FLOW-CONTROLLED: sharing that thread,
+     * the burst could not tick when it is needed.
+     *
+     * @return the burst's scheduler, to be shut down with the pipeline, or {@code null} if the pipeline has no burst.
+     */
+    public static AdaptiveScheduler scheduleBurst(Pipeline pipeline, long initialDelay, long interval, TimeUnit unit) {
+        if (pipeline.burst() == null) {
+            return null;
+        }
+        AdaptiveScheduler scheduler = AdaptiveScheduler.fromSystemProperties(
+                Constants.SCHEDULER_JVMARG_PREFIX,
+                Executors.newSingleThreadScheduledExecutor()
+        );
+        scheduler.schedule("pipeline.burst", pipeline.burst(), initialDelay, interval, unit);
+        return scheduler;
+    }
+
+    /**
+     * @return the pipeline's concurrency for an in-process engine: {@code <prefix>.pipeline.concurrency}.
+     */
+    public static int concurrency() {
+        return Integer.parseInt(System.getProperty(Constants.PIPELINE_JVMARG_PREFIX + ".concurrency", "2"));
+    }
+
+    /**
+     * @return the interval (in seconds) at which to schedule the pipeline's {@link Pipeline#burst()}:
+     * {@code <prefix>.getprocessstarters.burst.interval}, {@code 0} when bursts are disabled.
+     */
+    public static int burstInterval() {
+        if (!scheduleFor("getprocessstarters") || !Boolean.parseBoolean(System.getProperty(c_burst + ".enabled", "true"))) {
+            return 0;
+        }
+        return Math.max(1, intFor("getprocessstarters.burst.interval", 1));
+    }
+
+    /**
+     * @return the interval (in seconds) between two cycles: {@code <prefix>.pipeline.delay}.
+     */
+    public static int delay() {
+        return delayFor("pipeline");
+    }
+
+    /**
+     * @return the delay (in seconds) before the first cycle: {@code <prefix>.initdelay}. By default, this gives the
+     * engine a moment to finish starting.
+     */
+    public static int initialDelay() {
+        return Integer.parseInt(
+                System.getProperty(
+                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".initdelay",
+                        "5"
+                )
+        );
+    }
+
+    private static boolean scheduleFor(String method) {
+        return scheduleFor(method, true);
+    }
+
+    private static boolean scheduleFor(String method, boolean defaultValue) {
+        return Boolean.parseBoolean(
+                System.getProperty(
+                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + method + ".enabled",
+                        String.valueOf(defaultValue)
+                )
+        );
+    }
+
+    private static Stage stage(String method, Scraper worker, boolean heavy, int pipelineDelay) {
+        int every = (delayFor(method) + pipelineDelay - 1) / pipelineDelay;
+        Logger.info(String.format("--> %s stage added, runs every %d cycle(s).", method, every));
+        return new Stage(method, worker, heavy, every);
+    }
+
+    private static int delayFor(String method) {
+        return Integer.parseInt(
+                System.getProperty(
+                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + method + ".delay",
+                        "60"
+                )
+        );
+    }
+
+    private static int intFor(String property, int defaultValue) {
+        return Integer.parseInt(
+                System.getProperty(
+                        Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + property,
+                        String.valueOf(defaultValue)
+                )
+        );
+    }
+
+    /*
+     * How long a process, starter or activity may be absent from a table before we stop reporting it, and how many
+     * of them we are willing to report at all: <prefix>.<method>.[ttl|maxseries|maxseries.per_metric]
+     */
+    private static RegistryConfig registryConfigFor(String method) {
+        return RegistryConfig.fromSystemProperties(Constants.METHOD_ENABLED_FLAG_JVMARG_PREFIX + "." + method);
+    }
+}
@@ -0,0 +1,185 @@
+package org.jaybaws.metrics.bw.pipeline;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+
+/**
+ * Defers the expensive stages of a {@link Pipeline} (by default GetActivities and GetProcessDefinitions) while the
+ * engine is under load, so that monitoring does not add to it. The cheap stages keep running, and are what tells
+ * whether the engine is under load:
+ *
+ * <ul>
+ *     <li>{@code flow_control}: one or more starters were FLOW-CONTROLLED (GetProcessStarters);</li>
+ *     <li>{@code threads}: the active processes take up at least 'busy' of the engine's worker threads
+ *     (GetActiveProcessCount over GetExecInfo's Threads);</li>
+ *     <li>{@code latency}: a cheap stage took at least 'latency' to answer.</li>
+ * </ul>
+ *
+ * The signals of one cycle govern the next. A governed stage that is due while the engine is under load is deferred
+ * to its next due cycle, but never more than 'maxDefer' times in a row, so its values do not go stale altogether.
+ *
+ * Reports {@code otel_metrics.collector.governor.shedding} ({@code 1} while deferring) and counts every deferral in
+ * {@code otel_metrics.collector.governor.deferrals}, by {@code stage} and {@code reason}.
+ */
+public final class LoadGovernor {
+
+    public static final AttributeKey<String> STAGE = AttributeKey.stringKey("stage");
+    public static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+
+    public static final String FLOW_CONTROL = "flow_control";
+    public static final String THREADS = "threads";
+    public static final String LATENCY = "latency";
+
+    private final Set<String> governed;
+    private final double busy;
+    private final long latency;
+    private final int maxDefer;
+
+    private final Attributes attributes;
+    private final LongCounter deferrals;
+    private final ObservableLongGauge shedding;
+
+    private IntSupplier flowControlled;
+    private LongSupplier threads;
+    private LongSupplier active;
+
+    /*
+     * The slowest cheap stage since the previous cycle started; written by the stages' threads.
+     */
+    private final AtomicLong slowest = new AtomicLong();
+
+    /*
+     * Pipeline thread only, but for the reason the gauge reads.
+     */
+    private final Map<String, Integer> deferred = new HashMap<>();
+    private final Map<String, Attributes> reasons = new HashMap<>();
+    private volatile String reason;
+
+    /**
+     * @param governed the methods of the stages to defer.
+     * @param busy the share (0..1) of the engine's worker threads that makes it busy, {@code 0} to ignore threads.
+     * @param latency the time a cheap stage may take before the engine counts as slow, {@code 0} to ignore latency.
+     * @param maxDefer the number of times in a row a stage may be deferred, {@code 0} for no limit.
+     */
+    public LoadGovernor(OpenTelemetry sdk, Attributes engine, Set<String> governed, double busy, long latency, TimeUnit unit, int maxDefer) {
+        this.governed = new HashSet<>(governed);
+        this.busy = Math.max(0, busy);
+        this.latency = unit.toNanos(Math.max(0, latency));
+        this.maxDefer = Math.max(0, maxDefer);
+        this.attributes = engine.toBuilder().put(CollectorMetrics.WORKER, "pipeline").build();
+
+        Meter meter = sdk.getMeter("com.tibco.bw.pipeline");
+
+        this.deferrals = meter
+                .counterBuilder("otel_metrics.collector.governor.deferrals")
+                .setDescription("Number of stages deferred because the engine was under load, by stage and reason.")
+                .build();
+
+        this.shedding = meter
+                .gaugeBuilder("otel_metrics.collector.governor.shedding")
+                .ofLongs()
+                .setDescription("Whether the pipeline is deferring its expensive stages because the engine is under load.")
+                .buildWithCallback(result -> result.record((this.reason == null) ? 0 : 1, this.attributes));
+    }
+
+    /**
+     * Takes the number of FLOW-CONTROLLED starters into account.
+     */
+    public LoadGovernor withFlowControl(IntSupplier flowControlled) {
+        this.flowControlled = flowControlled;
+        return this;
+    }
+
+    /**
+     * Takes the number of active processes, relative to the number of worker threads, into account. Negative
+     * values mean unknown.
+     */
+    public LoadGovernor withThreads(LongSupplier threads, LongSupplier active) {
+        this.threads = threads;
+        this.active = active;
+        return this;
+    }
+
+    /**
+     * Records how long a stage took; only the cheap ones count.
+     */
+    void observe(Stage stage, long nanos) {
+        if (!stage.heavy() && !this.governed.contains(stage.method())) {
+            this.slowest.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Called as a cycle starts.
+     *
+     * @return why the engine is under load, {@code null} if it is not.
+     */
+    String pressure() {
+        long slowest = this.slowest.getAndSet(0);
+        String reason = null;
+
+        if (this.flowControlled != null && this.flowControlled.getAsInt() > 0) {
+            reason = FLOW_CONTROL;
+        } else if (this.threads != null && this.busy > 0) {
+            long threads = this.threads.getAsLong();
+            long active = this.active.getAsLong();
+            if (threads > 0 && active >= 0 && active >= threads * this.busy) {
+                reason = THREADS;
+            }
+        }
+        if (reason == null && this.latency > 0 && slowest >= this.latency) {
+            reason = LATENCY;
+        }
+
+        if (reason != null && this.reason == null) {
+            Logger.info(String.format("Engine under load (%s), deferring %s.", reason, this.governed));
+        } else if (reason == null && this.reason != null) {
+            Logger.info("Engine no longer under load, resuming all stages.");
+        }
+        this.reason = reason;
+        return reason;
+    }
+
+    /**
+     * @return whether the stage, which is due, is to be deferred to a later cycle.
+     */
+    boolean defer(Stage stage, String reason) {
+        if (!this.governed.contains(stage.method())) {
+            return false;
+        }
+        if (reason == null) {
+            this.deferred.remove(stage.method());
+            return false;
+        }
+
+        int times = this.deferred.getOrDefault(stage.method(), 0);
+        if (this.maxDefer > 0 && times >= this.maxDefer) {
+            this.deferred.remove(stage.method());
+            return false;
+        }
+
+        this.deferred.put(stage.method(), times + 1);
+        this.deferrals.add(1, this.reasons.computeIfAbsent(
+                stage.method() + '/' + reason,
+                k -> this.attributes.toBuilder().put(STAGE, stage.method()).put(REASON, reason).build()
+        ));
+        return true;
+    }
+
+    void close() {
+        this.shedding.close();
+    }
+}
@@ -0,0 +1,327 @@
+package org.jaybaws.metrics.bw.pipeline;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.OnDemandScrape;
+import org.jaybaws.metrics.core.Scraper;
+
+/**
+ * Runs the Hawk methods of one engine as the stages of a single cycle, instead of as independently scheduled workers.
+ *
+ * All stages of a cycle share one snapshot timestamp (reported as {@code bwengine.snapshot.timestamp}) and one
+ * deadline: a stage that has not started by then is skipped, and the cycle does not wait for a stage beyond it.
+ * At most 'concurrency' stages invoke the engine's MBean at the same time, and heavy (table) stages never overlap
+ * each other, so the engine does not get hit by several large tables at once.
+ *
+ * Every stage keeps reporting its own self-metrics; the pipeline reports the cycle as a whole under
+ * {@code worker="pipeline"}.
+ *
+ * A {@link LoadGovernor} may defer the expensive stages while the engine is under load, and a {@link StarterBurst}
+ * may take over the starters stage for a while, to poll it at a high frequency.
+ *
+ * Without concurrency, the stages run one after the other on the thread that runs the cycle, and the pipeline has no
+ * threads of its own: that is how the remote collector runs the pipelines of many engines on the host's scheduler.
+ * With it, the thread that runs the cycle mostly waits, so the CPU time of the stages is reported to the pipeline's
+ * metrics (see {@link CollectorMetrics#cpuUsed(long)}), for the scheduler's CPU budget to see it.
+ */
+public final class Pipeline implements Scraper {
+
+    private final List<Stage> stages;
+    private final long deadline;
+
+    private final ExecutorService executor;
+    private final Semaphore invokes;
+    private final Semaphore heavy = new Semaphore(1);
+
+    private final CollectorMetrics metrics;
+    private final ObservableLongGauge snapshotGauge;
+
+    private LoadGovernor governor;
+    private StarterBurst burst;
+
+    private volatile long snapshot = -1;
+    private volatile long cycleDeadline = 0;
+    private long cycle = 0;
+
+    public Pipeline(OpenTelemetry sdk, List<Stage> stages, long deadline, int concurrency) {
+        this(sdk, stages, deadline, concurrency, Attributes.empty());
+    }
+
+    /**
+     * @param deadline the time (in milliseconds) a cycle may take.
+     * @param concurrency the maximum number of concurrent invokes on the engine's MBean, {@code 0} to run the stages
+     *                    one after the other on the calling thread.
+     * @param engine the attributes identifying the engine, when one process reports several.
+     */
+    public Pipeline(OpenTelemetry sdk, List<Stage> stages, long deadline, int concurrency, Attributes engine) {
+        this.stages = new ArrayList<>(stages);
+        this.deadline = TimeUnit.MILLISECONDS.toNanos(deadline);
+        this.executor = (concurrency > 0) ? Executors.newFixedThreadPool(concurrency) : null;
+        this.invokes = new Semaphore(Math.max(1, concurrency));
+
+        Meter meter = sdk.getMeter("com.tibco.bw.pipeline");
+        this.metrics = new CollectorMetrics(meter, "pipeline", null, engine);
+
+        this.snapshotGauge = meter
+                .gaugeBuilder("bwengine.snapshot.timestamp")
+                .ofLongs()
+                .setDescription("Start of the collection cycle the reported BW metrics were taken in.")
+                .setUnit("ms")
+                .buildWithCallback(result -> result.record(this.snapshot, engine));
+    }
+
+    /**
+     * Has the governor defer the expensive stages while the engine is under load (see {@link LoadGovernor}).
+     */
+    public Pipeline withGovernor(LoadGovernor governor) {
+        this.governor = governor;
+        return this;
+    }
+
+    /**
+     * Has the burst poll the starters at a high frequency after they got FLOW-CONTROLLED (see {@link StarterBurst}).
+     * The burst is to be scheduled next to the pipeline.
+     */
+    public Pipeline withBurst(StarterBurst burst) {
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * @return the burst to schedule next to the pipeline, {@code null} if there is none.
+     */
+    public StarterBurst burst() {
+        return this.burst;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return the permits of the concurrent invokes on the engine's MBean, for a stage that takes its own (see
+     *         {@link Stage#withOwnPermits()}).
+     */
+    Semaphore invokes() {
+        return this.invokes;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} by which the current cycle is to be done, for a stage that takes its own
+     *         permits.
+     */
+    long cycleDeadline() {
+        return this.cycleDeadline;
+    }
+
+    /*
+     * In pull mode, collecting any of the stages' metrics runs the whole cycle, so an export holds one cycle's values.
+     */
+    @Override
+    public void collectOnDemand(OnDemandScrape onDemand) {
+        this.metrics.collectOnDemand(onDemand);
+        for (Stage stage : this.stages) {
+            stage.worker().collectOnDemand(onDemand);
+        }
+    }
+
+    @Override
+    public void run() {
+        Logger.entering(this.getClass().getCanonicalName(), "run");
+
+        long started = this.metrics.scrapeStarted();
+        long deadline = started + this.deadline;
+        this.cycleDeadline = deadline;
+        this.snapshot = System.currentTimeMillis();
+
+        List<Stage> submitted = new ArrayList<>();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+
+        String pressure = (this.governor == null) ? null : this.governor.pressure();
+
+        for (Stage stage : this.stages) {
+            if (!stage.dueAt(this.cycle)) {
+                continue;
+            }
+            if (this.governor != null && this.governor.defer(stage, pressure)) {
+                continue;
+            }
+            if (this.burst != null && this.burst.covers(stage)) {
+                continue;
+            }
+            if (!stage.start()) {
+                skipped.add(stage.method());
+                continue;
+            }
+            if (this.executor == null) {
+                /*
+                 * Inline: a stage that would only start beyond the deadline is skipped.
+                 */
+                if (System.nanoTime() - deadline >= 0) {
+                    stage.finish();
+                    skipped.add(stage.method());
+                    continue;
+                }
+                submitted.add(stage);
+                try {
+                    runWorker(stage, false);
+                } finally {
+                    stage.finish();
+                }
+                if (stage.worker().metrics().failing()) {
+                    failed.add(stage.method());
+                }
+                continue;
+            }
+            submitted.add(stage);
+            futures.add(this.executor.submit(() -> runStage(stage, deadline)));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Stage stage = submitted.get(i);
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                if (!futures.get(i).get(remaining, TimeUnit.NANOSECONDS)) {
+                    skipped.add(stage.method());
+                } else if (stage.worker().metrics().failing()) {
+                    failed.add(stage.method());
+                }
+            } catch (TimeoutException e) {
+                skipped.add(stage.method());
+            } catch (ExecutionException e) {
+                failed.add(stage.method());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                skipped.add(stage.method());
+            }
+        }
+
+        this.cycle++;
+        this.metrics.rows(submitted.size() - skipped.size());
+
+        if (!skipped.isEmpty()) {
+            Logger.warning(String.format("Stage(s) %s did not complete within the pipeline's deadline.", skipped));
+            this.metrics.scrapeFailed(started, new TimeoutException(skipped.toString()));
+        } else if (!failed.isEmpty()) {
+            this.metrics.scrapeFailed(started, new StageFailedException(failed.toString()));
+        } else {
+            this.metrics.scrapeSucceeded(started);
+        }
+
+        Logger.exiting(this.getClass().getCanonicalName(), "run");
+    }
+
+    /*
+     * Runs on the pipeline's pool. Returns false when the stage could not get its turn before the deadline.
+     */
+    private boolean runStage(Stage stage, long deadline) throws InterruptedException {
+        boolean heavy = false;
+        boolean invoke = false;
+
+        try {
+            if (stage.heavy()) {
+                heavy = this.heavy.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (!heavy) {
+                    return false;
+                }
+            }
+
+            if (!stage.ownPermits()) {
+                invoke = this.invokes.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (!invoke) {
+                    return false;
+                }
+            }
+
+            runWorker(stage, true);
+            return true;
+        } finally {
+            if (invoke) {
+                this.invokes.release();
+            }
+            if (heavy) {
+                this.heavy.release();
+            }
+            stage.finish();
+        }
+    }
+
+    /*
+     * On the pool, the CPU time of the thread counts; either way, so does what the worker used on threads of its own.
+     */
+    private void runWorker(Stage stage, boolean pooled) {
+        CollectorMetrics worker = stage.worker().metrics();
+        long started = System.nanoTime();
+        long cpuStarted = pooled ? CollectorMetrics.threadCpuTime() : 0;
+        long offThread = worker.cpuTime();
+
+        try {
+            stage.worker().run();
+        } finally {
+            long cpu = worker.cpuTime() - offThread;
+            if (pooled) {
+                cpu += CollectorMetrics.threadCpuTime() - cpuStarted;
+            }
+            this.metrics.cpuUsed(cpu);
+        }
+
+        if (this.governor != null) {
+            this.governor.observe(stage, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Stops the pipeline's pool, and stops reporting the metrics of the pipeline and its stages (see
+     * {@link #close()}); a stage that is still invoking the MBean completes in the background.
+     */
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        close();
+    }
+
+    /**
+     * Closes the instruments of the pipeline, its governor and burst, and all stages, so that a pipeline built anew
+     * for the same engine (when its MBean comes back) does not report next to this one.
+     */
+    @Override
+    public void close() {
+        for (Stage stage : this.stages) {
+            stage.worker().close();
+        }
+        if (this.governor != null) {
+            this.governor.close();
+        }
+        if (this.burst != null) {
+            this.burst.close();
+        }
+        this.snapshotGauge.close();
+        this.metrics.close();
+    }
+
+    /**
+     * Reported as the {@code exception.type} of a cycle in which one or more stages failed.
+     */
+    public static final class StageFailedException extends Exception {
+
+        StageFailedException(String stages) {
+            super(stages, null, false, false);
+        }
+    }
+}
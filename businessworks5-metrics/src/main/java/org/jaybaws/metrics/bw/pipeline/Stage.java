@@ -0,0 +1,69 @@
+package org.jaybaws.metrics.bw.pipeline;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jaybaws.metrics.core.Scraper;
+
+/**
+ * One Hawk method of the {@link Pipeline}: the worker that invokes it, whether it is a heavy (table) method, and
+ * every how many cycles it is due.
+ */
+public final class Stage {
+
+    private final String method;
+    private final Scraper worker;
+    private final boolean heavy;
+    private final int every;
+
+    /*
+     * A stage that outlived the deadline keeps its thread until the MBean returns; it is skipped until then.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /*
+     * Whether the worker takes the pipeline's invoke permits itself, one per call, rather than the stage one for all.
+     */
+    private boolean permits = false;
+
+    public Stage(String method, Scraper worker, boolean heavy, int every) {
+        this.method = method;
+        this.worker = worker;
+        this.heavy = heavy;
+        this.every = Math.max(1, every);
+    }
+
+    /**
+     * For a worker that makes concurrent calls, and takes one of the pipeline's invoke permits (see
+     * {@link Pipeline#invokes()}) for each; the stage then takes none itself.
+     */
+    public Stage withOwnPermits() {
+        this.permits = true;
+        return this;
+    }
+
+    public String method() {
+        return this.method;
+    }
+
+    Scraper worker() {
+        return this.worker;
+    }
+
+    boolean heavy() {
+        return this.heavy;
+    }
+
+    boolean ownPermits() {
+        return this.permits;
+    }
+
+    boolean dueAt(long cycle) {
+        return cycle % this.every == 0;
+    }
+
+    boolean start() {
+        return this.running.compareAndSet(false, true);
+    }
+
+    void finish() {
+        this.running.set(false);
+    }
+}
@@ -0,0 +1,143 @@
+package org.jaybaws.metrics.bw.pipeline;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import java.util.concurrent.TimeUnit;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.bw.workers.GetProcessStartersWorker;
+import org.jaybaws.metrics.core.CollectorMetrics;
+
+/**
+ * Polls GetProcessStarters at a high frequency for a while after the pipeline saw a starter FLOW-CONTROLLED, or its
+ * creation rate jump, so that an incident shows how long starters stay throttled and how fast they recover, instead
+ * of one value per pipeline cycle.
+ *
+ * Scheduled every 'interval', next to the pipeline; a tick does nothing unless a burst is on. A burst is started by a
+ * run of the pipeline's own starters stage, and lasts 'window'. While it is on, the pipeline leaves the starters stage
+ * to the burst. When the condition persists, the next burst waits for the pipeline's next run, so at most one burst
+ * is started per cycle.
+ *
+ * A burst's polls update the starters' gauges and the time they spend in each status; their counters (with their
+ * deltas and rates) and the aging of their series still follow the pipeline's cycles (see
+ * {@link GetProcessStartersWorker#poll()}).
+ *
+ * Reports {@code otel_metrics.collector.burst.active} ({@code 1} during a burst) and counts the bursts in
+ * {@code otel_metrics.collector.bursts}, by {@code reason} ({@code flow_control} or {@code surge}).
+ */
+public final class StarterBurst implements Runnable {
+
+    public static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+
+    public static final String FLOW_CONTROL = "flow_control";
+    public static final String SURGE = "surge";
+
+    private final Stage stage;
+    private final GetProcessStartersWorker starters;
+    private final long interval;
+    private final long window;
+
+    private final Attributes attributes;
+    private final LongCounter bursts;
+    private final ObservableLongGauge activeGauge;
+
+    /*
+     * Burst thread only, except for the flag the pipeline and the gauge read.
+     */
+    private volatile boolean active = false;
+    private long until;
+    private long armedAfter = 0;
+
+    /**
+     * @param stage the pipeline's starters stage, which runs 'starters'.
+     * @param interval the time between two polls during a burst, which is what the burst is to be scheduled at.
+     * @param window the time a burst lasts.
+     */
+    public StarterBurst(OpenTelemetry sdk, Attributes engine, Stage stage, GetProcessStartersWorker starters, long interval, long window, TimeUnit unit) {
+        this.stage = stage;
+        this.starters = starters;
+        this.interval = unit.toMillis(Math.max(1, interval));
+        this.window = unit.toNanos(window);
+        this.attributes = engine.toBuilder().put(CollectorMetrics.WORKER, stage.method()).build();
+
+        Meter meter = sdk.getMeter("com.tibco.bw.pipeline");
+
+        this.bursts = meter
+                .counterBuilder("otel_metrics.collector.bursts")
+                .setDescription("Number of bursts of high-frequency polls, by reason.")
+                .build();
+
+        this.activeGauge = meter
+                .gaugeBuilder("otel_metrics.collector.burst.active")
+                .ofLongs()
+                .setDescription("Whether the worker is being polled at a high frequency.")
+                .buildWithCallback(result -> result.record(this.active ? 1 : 0, this.attributes));
+    }
+
+    /**
+     * @return whether the pipeline is to leave the stage to the burst.
+     */
+    boolean covers(Stage stage) {
+        return this.active && stage == this.stage;
+    }
+
+    @Override
+    public void run() {
+        if (!this.active) {
+            String reason = trigger();
+            if (reason == null) {
+                return;
+            }
+            this.active = true;
+            this.until = System.nanoTime() + this.window;
+            this.bursts.add(1, this.attributes.toBuilder().put(REASON, reason).build());
+            Logger.info(
+                    String.format(
+                            "Starters %s, polling '%s' every %d ms for %d second(s).",
+                            reason.equals(FLOW_CONTROL) ? "flow-controlled" : "surging",
+                            this.stage.method(),
+                            this.interval,
+                            TimeUnit.NANOSECONDS.toSeconds(this.window)
+                    )
+            );
+        } else if (System.nanoTime() - this.until >= 0) {
+            this.active = false;
+            this.armedAfter = this.starters.runs();
+            Logger.info(String.format("Burst over, polling '%s' with the pipeline again.", this.stage.method()));
+            return;
+        }
+
+        /*
+         * The pipeline may be running the stage as the burst starts; skip this tick then.
+         */
+        if (this.stage.start()) {
+            try {
+                this.starters.poll();
+            } finally {
+                this.stage.finish();
+            }
+        }
+    }
+
+    void close() {
+        this.activeGauge.close();
+    }
+
+    /*
+     * Only a run that is not the burst's own may start a burst.
+     */
+    private String trigger() {
+        if (this.starters.runs() <= this.armedAfter) {
+            return null;
+        }
+        if (this.starters.flowControlled() > 0) {
+            return FLOW_CONTROL;
+        }
+        if (this.starters.surging() > 0) {
+            return SURGE;
+        }
+        return null;
+    }
+}
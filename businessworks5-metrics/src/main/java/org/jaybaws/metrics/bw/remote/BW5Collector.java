@@ -0,0 +1,261 @@
+package org.jaybaws.metrics.bw.remote;
+import io.opentelemetry.api.OpenTelemetry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import org.jaybaws.metrics.bw.pipeline.EnginePipeline;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+
+/**
+ * Monitors a fleet of BW5 engines from outside, over remote JMX, instead of from an agent inside every engine: one
+ * JVM, one SDK, one exporter and one scheduler for all of them.
+ *
+ * Engines are listed in {@code <prefix>.engines} (comma-separated {@code <name>@<host>:<port>} or
+ * {@code <name>@<JMX service URL>}), and/or found in the {@code .tra} files under {@code <prefix>.tra} (comma-separated
+ * files or directories), which are scanned again every {@code <prefix>.discovery} seconds. An engine is found in its
+ * {@code .tra} file by its {@code Hawk.AMI.DisplayName} and the {@code java.property.com.sun.management.jmxremote.port}
+ * it enables remote JMX on, at {@code <prefix>.tra.host}.
+ *
+ * Every engine is a {@link RemoteEngine}, scheduled on the host's scheduler, and runs the same pipeline (and takes the
+ * same {@code org.jaybaws.method.*} properties) as the agent does inside an engine.
+ */
+public class BW5Collector implements Collector {
+
+    static final String c_jvm_arg_prefix = BW5Collector.class.getPackage().getName();
+
+    static final String c_jvm_arg_engines = c_jvm_arg_prefix + ".engines";
+    static final String c_jvm_arg_tra = c_jvm_arg_prefix + ".tra";
+    static final String c_jvm_arg_tra_host = c_jvm_arg_prefix + ".tra.host";
+    static final String c_jvm_arg_discovery = c_jvm_arg_prefix + ".discovery";
+    static final String c_jvm_arg_user = c_jvm_arg_prefix + ".user";
+    static final String c_jvm_arg_pass = c_jvm_arg_prefix + ".pass";
+    static final String c_jvm_arg_backoff = c_jvm_arg_prefix + ".backoff";
+    static final String c_jvm_arg_backoff_max = c_jvm_arg_prefix + ".backoff.max";
+    static final String c_jvm_arg_timeout = c_jvm_arg_prefix + ".timeout";
+
+    /*
+     * The JVM-wide time RMI waits for the response to a call, read once, by the first RMI call; and the socket
+     * factory of the RMI registry lookups made through JNDI.
+     */
+    static final String c_rmi_response_timeout = "sun.rmi.transport.tcp.responseTimeout";
+    static final String c_jndi_rmi_socket_factory = "com.sun.jndi.rmi.factory.socket";
+
+    static final String c_tra_display_name = "Hawk.AMI.DisplayName";
+    static final String c_tra_jmx_port = "java.property.com.sun.management.jmxremote.port";
+
+    /*
+     * Discovery thread only.
+     */
+    private final Map<String, RemoteEngine> engines = new HashMap<>();
+
+    private OpenTelemetry sdk;
+    private AdaptiveScheduler scheduler;
+    private Map<String, ?> environment;
+    private String list;
+    private String tra;
+    private String traHost;
+    private int backoff;
+    private int backoffMax;
+
+    @Override
+    public String name() {
+        return "bw5";
+    }
+
+    @Override
+    public void start(OpenTelemetry sdk, AdaptiveScheduler scheduler) {
+        this.sdk = sdk;
+        this.scheduler = scheduler;
+        this.list = System.getProperty(c_jvm_arg_engines, "");
+        this.tra = System.getProperty(c_jvm_arg_tra, "");
+        this.traHost = System.getProperty(c_jvm_arg_tra_host, "localhost");
+        this.backoff = Integer.parseInt(System.getProperty(c_jvm_arg_backoff, "15"));
+        this.backoffMax = Integer.parseInt(System.getProperty(c_jvm_arg_backoff_max, "600"));
+
+        /*
+         * The engines' pipelines run on the host's scheduler, so a hung engine must not hold a thread indefinitely.
+         */
+        int timeout = (int) TimeUnit.SECONDS.toMillis(Integer.parseInt(System.getProperty(c_jvm_arg_timeout, "30")));
+        if (timeout > 0 && System.getProperty(c_rmi_response_timeout) == null) {
+            System.setProperty(c_rmi_response_timeout, Integer.toString(timeout));
+        }
+        this.environment = environment(System.getProperty(c_jvm_arg_user), System.getProperty(c_jvm_arg_pass), timeout);
+
+        if (this.list.trim().isEmpty() && this.tra.trim().isEmpty()) {
+            Logger.warning(String.format("Neither %s nor %s is set, so there are no engines to monitor.", c_jvm_arg_engines, c_jvm_arg_tra));
+            return;
+        }
+
+        discover();
+
+        /*
+         * Engines get deployed and undeployed, so keep looking.
+         */
+        if (!this.tra.trim().isEmpty()) {
+            int discovery = Integer.parseInt(System.getProperty(c_jvm_arg_discovery, "300"));
+            scheduler.schedule(name() + ".discovery", this::discover, discovery, discovery, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return the environment of the engines' JMX connectors: the credentials, if any, and the timeout (milliseconds,
+     *         {@code 0} for none) of the lookup of the connector in the engine's RMI registry.
+     */
+    static Map<String, ?> environment(String user, String pass, int timeout) {
+        Map<String, Object> environment = new HashMap<>();
+        if (user != null) {
+            environment.put(JMXConnector.CREDENTIALS, new String[] { user, pass });
+        }
+        if (timeout > 0) {
+            environment.put(c_jndi_rmi_socket_factory, new TimeoutSocketFactory(timeout));
+        }
+        return environment;
+    }
+
+    /*
+     * Schedules the engines that are new, retires the ones that are gone, and follows the ones that moved.
+     */
+    private void discover() {
+        Map<String, JMXServiceURL> found = new LinkedHashMap<>();
+        found.putAll(fromTra(this.tra, this.traHost));
+        found.putAll(fromList(this.list));
+
+        for (Map.Entry<String, JMXServiceURL> entry : found.entrySet()) {
+            RemoteEngine engine = this.engines.get(entry.getKey());
+            if (engine == null) {
+                engine = new RemoteEngine(this.sdk, entry.getKey(), entry.getValue(), this.environment, this.backoff, this.backoffMax, TimeUnit.SECONDS);
+                this.engines.put(entry.getKey(), engine);
+                this.scheduler.schedule(
+                        name() + ":" + entry.getKey(),
+                        engine,
+                        EnginePipeline.initialDelay(),
+                        EnginePipeline.delay(),
+                        TimeUnit.SECONDS
+                );
+                if (EnginePipeline.burstInterval() > 0) {
+                    this.scheduler.schedule(
+                            name() + ":" + entry.getKey() + ".burst",
+                            engine::burst,
+                            EnginePipeline.initialDelay(),
+                            EnginePipeline.burstInterval(),
+                            TimeUnit.SECONDS
+                    );
+                }
+                Logger.info(String.format("Monitoring engine '%s' at %s.", entry.getKey(), entry.getValue()));
+            } else {
+                if (engine.retired() || !entry.getValue().toString().equals(engine.url().toString())) {
+                    Logger.info(String.format("Monitoring engine '%s' at %s again.", entry.getKey(), entry.getValue()));
+                }
+                engine.revive(entry.getValue());
+            }
+        }
+
+        for (RemoteEngine engine : this.engines.values()) {
+            if (!engine.retired() && !found.containsKey(engine.name())) {
+                engine.retire();
+                Logger.info(String.format("Engine '%s' is gone, no longer monitoring it.", engine.name()));
+            }
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of {@code <name>@<host>:<port>} or {@code <name>@<JMX service URL>}.
+     */
+    static Map<String, JMXServiceURL> fromList(String list) {
+        Map<String, JMXServiceURL> engines = new LinkedHashMap<>();
+        for (String entry : list.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int at = entry.indexOf('@');
+            if (at <= 0) {
+                Logger.warning(String.format("Ignoring engine '%s', expected <name>@<host>:<port>.", entry));
+                continue;
+            }
+            try {
+                engines.put(entry.substring(0, at), url(entry.substring(at + 1)));
+            } catch (MalformedURLException e) {
+                Logger.warning(String.format("Ignoring engine '%s'.", entry), e);
+            }
+        }
+        return engines;
+    }
+
+    /**
+     * Reads the engines from the {@code .tra} files in a comma-separated list of files and directories (searched
+     * recursively). Files without a remote JMX port are not engines that can be monitored remotely, and are skipped.
+     */
+    static Map<String, JMXServiceURL> fromTra(String paths, String host) {
+        Map<String, JMXServiceURL> engines = new LinkedHashMap<>();
+        for (String path : paths.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            for (Path file : traFiles(Paths.get(path))) {
+                Properties tra = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    tra.load(in);
+                } catch (IOException e) {
+                    Logger.warning(String.format("Unable to read '%s'.", file), e);
+                    continue;
+                }
+
+                String port = tra.getProperty(c_tra_jmx_port);
+                if (port == null || port.trim().isEmpty()) {
+                    Logger.fine(String.format("Skipping '%s', it does not enable remote JMX.", file));
+                    continue;
+                }
+
+                String fileName = file.getFileName().toString();
+                String name = tra.getProperty(c_tra_display_name, fileName.substring(0, fileName.length() - ".tra".length()));
+                try {
+                    engines.put(name.trim(), url(host + ":" + port.trim()));
+                } catch (MalformedURLException e) {
+                    Logger.warning(String.format("Skipping '%s'.", file), e);
+                }
+            }
+        }
+        return engines;
+    }
+
+    private static List<Path> traFiles(Path path) {
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            return files
+                    .filter(file -> file.getFileName().toString().endsWith(".tra") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            Logger.warning(String.format("Unable to scan '%s' for .tra files.", path), e);
+            return new ArrayList<>();
+        }
+    }
+
+    static JMXServiceURL url(String address) throws MalformedURLException {
+        if (address.startsWith("service:jmx:")) {
+            return new JMXServiceURL(address);
+        }
+        return new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi");
+    }
+}
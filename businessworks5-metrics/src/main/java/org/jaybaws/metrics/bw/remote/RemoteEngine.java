@@ -0,0 +1,318 @@
+package org.jaybaws.metrics.bw.remote;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import org.jaybaws.metrics.bw.pipeline.EnginePipeline;
+import org.jaybaws.metrics.bw.pipeline.Pipeline;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.OnDemandScrape;
+import org.jaybaws.metrics.core.Scraper;
+
+/**
+ * One engine of the fleet, reached over JMX: keeps a single connection to the engine open across cycles, and runs
+ * the engine's {@link Pipeline} over it.
+ *
+ * The pipeline (and so every worker and instrument) is built on connecting, and talks to the engine through a
+ * connection that delegates to whatever the current one is. A call that fails with an {@link IOException}, or a
+ * notification that the connection failed, closes the connection and shuts the pipeline down, closing its
+ * instruments: an engine that cannot be reached (or is retired) reports no values at all rather than its last ones,
+ * and the connection's self-metrics tell why. The next attempt is put off by a backoff that doubles from 'backoff' up
+ * to 'maxBackoff'. Runs that fall within the backoff return at once, and leave the engine reported as failing.
+ *
+ * The connection itself is reported under {@code worker="connection"}, with the engine's {@code domain},
+ * {@code application} and {@code instance} attributes, which all of the engine's metrics carry.
+ */
+final class RemoteEngine implements Scraper {
+
+    static final AttributeKey<String> DOMAIN = AttributeKey.stringKey("domain");
+    static final AttributeKey<String> APPLICATION = AttributeKey.stringKey("application");
+    static final AttributeKey<String> INSTANCE = AttributeKey.stringKey("instance");
+
+    private final OpenTelemetry sdk;
+    private final String name;
+    private final Attributes attributes;
+    private final Map<String, ?> environment;
+    private final long backoff;
+    private final long maxBackoff;
+
+    private final CollectorMetrics metrics;
+    private final MBeanServerConnection server;
+
+    private volatile JMXServiceURL url;
+    private volatile boolean retired = false;
+
+    /*
+     * Scrape thread only, except for the flag the connection's notifications raise.
+     */
+    private volatile JMXConnector connector;
+    private volatile MBeanServerConnection connection;
+    private volatile boolean broken = false;
+    private ObjectName engine;
+    private volatile Pipeline pipeline;
+    private long delay = 0;
+    private long retryAt = 0;
+
+    private volatile OnDemandScrape onDemand;
+
+    /**
+     * @param environment the environment of the JMX connector, e.g. its credentials.
+     * @param backoff the delay before the first reconnect attempt.
+     * @param maxBackoff the longest delay between two reconnect attempts.
+     */
+    RemoteEngine(OpenTelemetry sdk, String name, JMXServiceURL url, Map<String, ?> environment, long backoff, long maxBackoff, TimeUnit unit) {
+        this.sdk = sdk;
+        this.name = name;
+        this.url = url;
+        this.attributes = attributes(name);
+        this.environment = environment;
+        this.backoff = unit.toNanos(backoff);
+        this.maxBackoff = Math.max(this.backoff, unit.toNanos(maxBackoff));
+
+        this.metrics = new CollectorMetrics(sdk.getMeter("com.tibco.bw.remote"), "connection", null, this.attributes);
+        this.server = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] { MBeanServerConnection.class },
+                new CurrentConnection()
+        );
+    }
+
+    /**
+     * @return the {@code domain}, {@code application} and {@code instance} attributes of the engine with the given
+     * Hawk display name ({@code <prefix>.<prefix>.<prefix>.<prefix>.<domain>.<application>.<instance>}, as in the
+     * engine's {@code .tra} file) or name ({@code <domain>.<application>.<instance>}). Any other name is taken as the
+     * instance.
+     */
+    static Attributes attributes(String name) {
+        String[] parts = name.split("\\.");
+        AttributesBuilder builder = Attributes.builder();
+        if (parts.length >= 7) {
+            builder.put(DOMAIN, parts[4]).put(APPLICATION, parts[5]).put(INSTANCE, parts[6]);
+        } else if (parts.length == 3) {
+            builder.put(DOMAIN, parts[0]).put(APPLICATION, parts[1]).put(INSTANCE, parts[2]);
+        } else {
+            builder.put(INSTANCE, name);
+        }
+        return builder.build();
+    }
+
+    String name() {
+        return this.name;
+    }
+
+    JMXServiceURL url() {
+        return this.url;
+    }
+
+    /**
+     * Stops monitoring the engine, e.g. because it is no longer deployed. The connection is closed by the next run.
+     */
+    void retire() {
+        this.retired = true;
+    }
+
+    boolean retired() {
+        return this.retired;
+    }
+
+    /**
+     * Resumes monitoring the engine, at a possibly different address.
+     */
+    void revive(JMXServiceURL url) {
+        this.url = url;
+        this.retired = false;
+    }
+
+    /**
+     * Runs a tick of the pipeline's {@link Pipeline#burst()}, while connected to the engine.
+     */
+    void burst() {
+        Pipeline pipeline = this.pipeline;
+        if (!this.retired && this.connection != null && pipeline != null && pipeline.burst() != null) {
+            pipeline.burst().run();
+        }
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void collectOnDemand(OnDemandScrape onDemand) {
+        this.onDemand = onDemand;
+        this.metrics.collectOnDemand(onDemand);
+        Pipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.collectOnDemand(onDemand);
+        }
+    }
+
+    @Override
+    public void run() {
+        Logger.entering(this.getClass().getCanonicalName(), "run");
+
+        if (this.retired) {
+            if (this.connector != null || this.pipeline != null) {
+                disconnect();
+            }
+            return;
+        }
+
+        if (this.connection == null && System.nanoTime() - this.retryAt < 0) {
+            return;
+        }
+
+        long started = this.metrics.scrapeStarted();
+
+        try {
+            if (this.connection == null) {
+                connect();
+            }
+
+            if (this.pipeline == null) {
+                this.pipeline = EnginePipeline.build(this.sdk, this.server, this.engine, this.attributes, 0);
+                OnDemandScrape onDemand = this.onDemand;
+                if (onDemand != null) {
+                    this.pipeline.collectOnDemand(onDemand);
+                }
+            }
+
+            this.pipeline.run();
+
+            if (this.broken) {
+                throw new IOException(String.format("Lost the connection to engine '%s'.", this.name));
+            }
+
+            this.delay = 0;
+            this.metrics.scrapeSucceeded(started);
+        } catch (IOException | JMException | SecurityException e) {
+            disconnect();
+
+            this.delay = (this.delay == 0) ? this.backoff : Math.min(this.maxBackoff, this.delay * 2);
+            this.retryAt = System.nanoTime() + this.delay;
+            this.metrics.scrapeFailed(started, e);
+
+            Logger.warning(
+                    String.format(
+                            "Engine '%s' at %s is unreachable (%s), retrying in %d second(s).",
+                            this.name,
+                            this.url,
+                            e,
+                            TimeUnit.NANOSECONDS.toSeconds(this.delay)
+                    )
+            );
+        }
+
+        Logger.exiting(this.getClass().getCanonicalName(), "run");
+    }
+
+    private void connect() throws IOException, JMException {
+        long call = System.nanoTime();
+        JMXConnector connector = JMXConnectorFactory.connect(this.url, this.environment);
+
+        try {
+            connector.addConnectionNotificationListener(
+                    (notification, handback) -> {
+                        if (handback == this.connector
+                                && (JMXConnectionNotification.FAILED.equals(notification.getType())
+                                || JMXConnectionNotification.CLOSED.equals(notification.getType()))) {
+                            this.broken = true;
+                        }
+                    },
+                    null,
+                    connector
+            );
+
+            MBeanServerConnection connection = connector.getMBeanServerConnection();
+            this.engine = find(connection);
+
+            this.connector = connector;
+            this.broken = false;
+            this.connection = connection;
+        } catch (IOException | JMException | RuntimeException e) {
+            close(connector);
+            throw e;
+        } finally {
+            this.metrics.callCompleted("connect", call);
+        }
+
+        Logger.info(String.format("Connected to engine '%s' [%s] at %s.", this.name, this.engine, this.url));
+    }
+
+    private ObjectName find(MBeanServerConnection connection) throws IOException, JMException {
+        Set<ObjectName> names = new TreeSet<>(connection.queryNames(new ObjectName("com.tibco.bw:*"), null));
+        if (names.isEmpty()) {
+            throw new InstanceNotFoundException("No com.tibco.bw MBean found; is the engine started with Jmx.Enabled=true?");
+        }
+        return names.iterator().next();
+    }
+
+    private void disconnect() {
+        this.connection = null;
+        this.broken = false;
+        if (this.connector != null) {
+            close(this.connector);
+            this.connector = null;
+        }
+
+        Pipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            this.pipeline = null;
+            pipeline.shutdown();
+        }
+    }
+
+    private void close(JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (IOException e) {
+            Logger.fine(String.format("Unable to close the connection to engine '%s': %s", this.name, e));
+        }
+    }
+
+    /*
+     * The connection the pipeline's workers hold on to.
+     */
+    private final class CurrentConnection implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+
+            MBeanServerConnection connection = RemoteEngine.this.connection;
+            if (connection == null) {
+                throw new IOException(String.format("Not connected to engine '%s'.", RemoteEngine.this.name));
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    RemoteEngine.this.broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+    }
+}
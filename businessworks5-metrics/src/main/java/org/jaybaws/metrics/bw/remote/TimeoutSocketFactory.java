@@ -0,0 +1,47 @@
+package org.jaybaws.metrics.bw.remote;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * Connects with a timeout, and times out reads on the connection, so that looking an engine's JMX connector up in its
+ * RMI registry cannot hang the thread that does it. Equal factories share RMI's connection cache.
+ */
+final class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int timeout;
+
+    /**
+     * @param timeout the connect and read timeout, in milliseconds.
+     */
+    TimeoutSocketFactory(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), this.timeout);
+            socket.setSoTimeout(this.timeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TimeoutSocketFactory && ((TimeoutSocketFactory) other).timeout == this.timeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.timeout;
+    }
+}
@@ -8,9 +8,20 @@ public class Constants {
 
     public static final String GETACTIVITIES_CLASSFILTER_JVMARG = "org.jaybaws.getactivities.classfilter";
     public static final String GETACTIVITIES_CLASSFILTER_DEFAULT = ".*(SOAP|JMS|JDBC|http|FTP|GenerateErrorActivity|CatchActivity|JavaActivity|MapperActivity).*";
+    public static final String GETACTIVITIES_CLASSFILTER_EXCLUDE_JVMARG = GETACTIVITIES_CLASSFILTER_JVMARG + ".exclude";
 
     public static final String METHOD_ENABLED_FLAG_JVMARG_PREFIX = "org.jaybaws.method";
 
-    public static final int EXECUTORSERVICE_CORE_POOLSIZE = 10;
+    public static final String PIPELINE_JVMARG_PREFIX = METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".pipeline";
+
+    public static final String SCHEDULER_JVMARG_PREFIX = METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".scheduler";
+
+    public static final String INSTRUMENT_JVMARG_PREFIX = METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".instrument";
+
+    public static final String THREADS_JVMARG_PREFIX = METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".threads";
+
+    public static final String CONTENTION_JVMARG_PREFIX = METHOD_ENABLED_FLAG_JVMARG_PREFIX + ".contention";
+
+    public static final int EXECUTORSERVICE_CORE_POOLSIZE = 1;
 
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package org.jaybaws.metrics.bw.workers;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.jaybaws.metrics.core.CollectorMetrics;
+
+/**
+ * Decides which activity classes are reported, from a list of include and a list of exclude patterns.
+ *
+ * Both lists are comma-separated. A pattern is a regular expression, or a glob ({@code *} and {@code ?}) when it
+ * starts with {@code glob:}; {@code regex:} may be used to be explicit. Only commas outside brackets, braces and
+ * parentheses separate patterns, so a single regular expression such as {@code .*(JDBC|SOAP){1,2}.*}, as the include
+ * property has always taken, stays one pattern: a class name cannot contain a comma anyway. A class is reported when
+ * it matches any include pattern (or there are none) and no exclude pattern.
+ *
+ * An engine has a few dozen distinct activity classes across tens of thousands of activities, so every decision is
+ * cached by class name and the patterns only run once per class. Lookups are counted in plain fields, and reported as
+ * {@code otel_metrics.collector.filter.hits} and {@code otel_metrics.collector.filter.misses} when the metrics are
+ * collected: a lookup stays a hash lookup.
+ *
+ * Scrape thread only.
+ */
+final class ActivityClassFilter {
+
+    /*
+     * Guards against a source that makes up class names; decisions beyond this many are not cached.
+     */
+    private static final int c_max_decisions = 4096;
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    private final Map<String, Boolean> decisions = new HashMap<>();
+
+    /*
+     * Written by the scrape thread only, read by the collecting one.
+     */
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    private final ObservableLongCounter hitsCounter;
+    private final ObservableLongCounter missesCounter;
+    private final Attributes attributes;
+
+    ActivityClassFilter(Meter meter, String worker, String includes, String excludes) {
+        this(meter, worker, includes, excludes, Attributes.empty());
+    }
+
+    ActivityClassFilter(Meter meter, String worker, String includes, String excludes, Attributes engine) {
+        this.includes = patterns(includes);
+        this.excludes = patterns(excludes);
+        this.attributes = engine.toBuilder().put(CollectorMetrics.WORKER, worker).build();
+
+        this.hitsCounter = meter
+                .counterBuilder("otel_metrics.collector.filter.hits")
+                .setDescription("Number of filter decisions taken from the cache.")
+                .buildWithCallback(result -> result.record(this.hits, this.attributes));
+
+        this.missesCounter = meter
+                .counterBuilder("otel_metrics.collector.filter.misses")
+                .setDescription("Number of filter decisions that had to run the patterns.")
+                .buildWithCallback(result -> result.record(this.misses, this.attributes));
+    }
+
+    boolean matches(String activityClass) {
+        Boolean decision = this.decisions.get(activityClass);
+        if (decision != null) {
+            this.hits++;
+            return decision;
+        }
+
+        this.misses++;
+        decision = decide(activityClass);
+        if (this.decisions.size() < c_max_decisions) {
+            this.decisions.put(activityClass, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Stops reporting the hits and misses.
+     */
+    void close() {
+        this.hitsCounter.close();
+        this.missesCounter.close();
+    }
+
+    private boolean decide(String activityClass) {
+        boolean included = this.includes.isEmpty();
+        for (Pattern include : this.includes) {
+            if (include.matcher(activityClass).matches()) {
+                included = true;
+                break;
+            }
+        }
+        if (!included) {
+            return false;
+        }
+        for (Pattern exclude : this.excludes) {
+            if (exclude.matcher(activityClass).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<Pattern> patterns(String list) {
+        List<Pattern> patterns = new ArrayList<>();
+        if (list == null) {
+            return patterns;
+        }
+        for (String pattern : split(list)) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (pattern.startsWith("glob:")) {
+                patterns.add(Pattern.compile(glob(pattern.substring("glob:".length()))));
+            } else if (pattern.startsWith("regex:")) {
+                patterns.add(Pattern.compile(pattern.substring("regex:".length())));
+            } else {
+                patterns.add(Pattern.compile(pattern));
+            }
+        }
+        return patterns;
+    }
+
+    /*
+     * Splits on the commas outside (), {} and [], skipping escaped characters. In a character class, only brackets
+     * count.
+     */
+    static List<String> split(String list) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int classDepth = 0;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']') {
+                classDepth = Math.max(0, classDepth - 1);
+            } else if (classDepth > 0) {
+                continue;
+            } else if (c == '(' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == '}') {
+                depth = Math.max(0, depth - 1);
+            } else if (c == ',' && depth == 0) {
+                parts.add(list.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(list.substring(start));
+        return parts;
+    }
+
+    private static String glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literal) {
+                    regex.append(Pattern.quote(glob.substring(literal, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (glob.length() > literal) {
+            regex.append(Pattern.quote(glob.substring(literal)));
+        }
+        return regex.toString();
+    }
+}
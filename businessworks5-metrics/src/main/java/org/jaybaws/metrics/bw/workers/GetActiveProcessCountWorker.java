@@ -2,36 +2,69 @@ package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongUpDownCounter;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
 
-public class GetActiveProcessCountWorker implements Runnable {
+public class GetActiveProcessCountWorker implements Scraper {
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
+    private final Attributes engine;
+    private final CollectorMetrics metrics;
+    private final ObservableLongUpDownCounter activeProcessCountCounter;
 
-    private long valActiveProcessCount = -1;
+    private volatile long valActiveProcessCount = -1;
 
     public GetActiveProcessCountWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+        this(sdk, mbsc, objectName, Attributes.empty());
+    }
+
+    public GetActiveProcessCountWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, Attributes engine) {
         this.mbsc = mbsc;
+        this.engine = engine;
         this.objectName = objectName;
 
         Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getactiveprocesscount");
-        meter
+        this.metrics = new CollectorMetrics(meter, "getactiveprocesscount", null, engine);
+        this.activeProcessCountCounter = meter
                 .upDownCounterBuilder("bwengine.activeprocess.count")
                 .setDescription("Reports the amount of active processes within the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valActiveProcessCount, Attributes.empty())
+                                this.valActiveProcessCount, this.engine)
                 );
     }
 
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        this.activeProcessCountCounter.close();
+        this.metrics.close();
+    }
+
+    /**
+     * @return the number of active processes as of the last run, {@code -1} before the first.
+     */
+    public long activeProcessCount() {
+        return this.valActiveProcessCount;
+    }
+
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             Integer value =
                     (Integer) mbsc.invoke(
                             objectName,
@@ -39,6 +72,7 @@ public class GetActiveProcessCountWorker implements Runnable {
                             null,
                             null
                     );
+            this.metrics.callCompleted("GetActiveProcessCount", call);
 
             if (value != null) {
                 this.valActiveProcessCount = value;
@@ -50,7 +84,10 @@ public class GetActiveProcessCountWorker implements Runnable {
                         )
                 );
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetActiveProcessCount'...", t);
         }
 
@@ -1,98 +1,556 @@
 package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
 import javax.management.*;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.TabularDataSupport;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.Series;
+import org.jaybaws.metrics.core.SeriesRegistry;
 
-public class GetActivitiesWorker implements Runnable {
+/**
+ * Reports the GetActivities table, one set of series per activity.
+ *
+ * Most activities of a large engine are idle in any given cycle. The worker therefore remembers, per
+ * (ProcessDefName, Name), whether the activity class matched the filter, the activity's resolved series, and the
+ * columns that tell whether the activity ran since: ExecutionCount, ErrorCount, ExecutionCountSinceReset and
+ * TimeSinceLastUpdate. A row on which none of them moved only has its series kept alive; just the rows that changed
+ * are written to the registry.
+ *
+ * By default, one call returns the activities of all process definitions. On engines with many of them, that call
+ * gets slow and may hit Hawk's 10 second timeout; see {@link #withSlices(int, int, int)} for the sharded mode.
+ */
+public class GetActivitiesWorker implements Scraper {
+
+    private static final AttributeKey<String> PROCESS = AttributeKey.stringKey("process");
+    private static final AttributeKey<String> ACTIVITY_CLASS = AttributeKey.stringKey("activityClass");
+    private static final AttributeKey<String> ACTIVITY = AttributeKey.stringKey("activity");
+
+    /*
+     * The reported columns, the metric each goes to, and whether that is a cumulative (counter) column.
+     */
+    private static final String[] c_columns = {
+            "ExecutionCount", "ErrorCount", "ElapsedTime", "MinElapsedTime", "MaxElapsedTime", "ExecutionTime",
+            "MinExecutionTime", "MaxExecutionTime", "MostRecentElapsedTime", "MostRecentExecutionTime"
+    };
+    private static final String[] c_metrics = {
+            "bwengine.activity.executioncount",
+            "bwengine.activity.errorcount",
+            "bwengine.activity.elapsedtime",
+            "bwengine.activity.elapsedtime_min",
+            "bwengine.activity.elapsedtime_max",
+            "bwengine.activity.executiontime",
+            "bwengine.activity.executiontime_min",
+            "bwengine.activity.executiontime_max",
+            "bwengine.activity.elapsedtime_recent",
+            "bwengine.activity.executiontime_recent"
+    };
+    private static final boolean[] c_counters = { true, true, true, false, false, true, false, false, false, false };
 
     private final ObjectName objectName;
     private final MBeanServerConnection mbsc;
-    private final Pattern activityClassPattern;
+    private final ActivityClassFilter activityClassFilter;
+
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
 
-    private final Meter meter;
+    /*
+     * Scrape thread only. Rows that are no longer in the table are dropped at the end of the cycle.
+     */
+    private final Map<String, Map<String, Row>> rows = new HashMap<>();
+    private int cached = 0;
+    private long cycle = 0;
+
+    /*
+     * Sharded mode only: the number of slices (0 when off), the number of busy processes called every cycle, the
+     * pool for concurrent calls (null when they run on the scrape thread), the next slice, and every process
+     * definition's Created count at the previous listing.
+     */
+    private int slices = 0;
+    private int priority = 0;
+    private ExecutorService invokes;
+    private int slice = 0;
+    private final Map<String, Long> created = new HashMap<>();
+
+    /*
+     * Sharded mode only: where the listing comes from (null to list them itself), the listing the busy processes were
+     * last derived from, and those; the permits every call takes (null for none), and by when (System.nanoTime()).
+     */
+    private Supplier<TabularDataSupport> definitions;
+    private TabularDataSupport listing;
+    private List<String> busy = Collections.emptyList();
+    private Semaphore permits;
+    private LongSupplier deadline;
+
+    public GetActivitiesWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, String activityClassFilter, RegistryConfig registryConfig) {
+        this(sdk, mbsc, objectName, activityClassFilter, null, registryConfig);
+    }
 
-    private final Map<String, Long> metrics = new HashMap<String, Long>();
+    /**
+     * @param includes the activity classes to report, see {@link ActivityClassFilter}.
+     * @param excludes the activity classes not to report after all, see {@link ActivityClassFilter}.
+     */
+    public GetActivitiesWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, String includes, String excludes, RegistryConfig registryConfig) {
+        this(sdk, mbsc, objectName, includes, excludes, registryConfig, Attributes.empty());
+    }
 
-    public GetActivitiesWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, String activityClassFilter) {
+    /**
+     * @param engine attributes identifying the engine on all metrics, for a collector that reports several engines.
+     */
+    public GetActivitiesWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, String includes, String excludes, RegistryConfig registryConfig, Attributes engine) {
         this.mbsc = mbsc;
         this.objectName = objectName;
-        this.activityClassPattern = Pattern.compile(activityClassFilter);
-        this.meter = sdk.getMeter("com.tibco.bw.hawkmethod.getactivities");
+        Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getactivities");
+        this.activityClassFilter = new ActivityClassFilter(meter, "getactivities", includes, excludes, engine);
+        this.registry = new SeriesRegistry(meter, registryConfig).withAttributes(engine);
+        this.metrics = new CollectorMetrics(meter, "getactivities", this.registry, engine);
+    }
+
+    /**
+     * Switches to sharded mode: every cycle takes the listing of the process definitions (see
+     * {@link #withDefinitions(Supplier)}, else it calls GetProcessDefinitions itself), and calls GetActivities for
+     * one of 'slices' rotating slices of them, so every process is refreshed once per 'slices'
+     * cycles. The (at most) 'priority' processes that created the most jobs since the previous listing are called on
+     * top of that, every cycle. The activities of the other processes keep their last values meanwhile.
+     *
+     * @param slices the number of slices, {@code 0} to call GetActivities once for all processes.
+     * @param concurrency the number of GetActivities calls made at the same time.
+     * @param priority the maximum number of busy processes called every cycle.
+     */
+    public GetActivitiesWorker withSlices(int slices, int concurrency, int priority) {
+        this.slices = Math.max(0, slices);
+        this.priority = Math.max(0, priority);
+        if (this.slices > 0 && concurrency > 1) {
+            /*
+             * The threads go away when idle, so a worker that is dropped along with its engine's MBean leaves none.
+             */
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    concurrency,
+                    concurrency,
+                    60,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "getactivities-slice");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+            pool.allowCoreThreadTimeOut(true);
+            this.invokes = pool;
+        }
+        return this;
     }
 
-    private void trackMetric(String metricName, String processDefinitionName, String activityName, String activityClassName, long value) {
-        String uniqueId = processDefinitionName + "/" + activityClassName + "/" + activityName + "/" + metricName;
+    /**
+     * Has the sharded mode take the process definitions from the listing another worker made (typically
+     * {@link GetProcessDefinitionsWorker#definitions()}), instead of listing them every cycle itself. It still lists
+     * them itself while there is none.
+     */
+    public GetActivitiesWorker withDefinitions(Supplier<TabularDataSupport> definitions) {
+        this.definitions = definitions;
+        return this;
+    }
 
-        if (metrics.containsKey(uniqueId)) {
-            metrics.replace(uniqueId, value);
-        } else {
-            metrics.put(uniqueId, value);
-            this.meter
-                    .gaugeBuilder(metricName)
-                    .ofLongs()
-                    .buildWithCallback(
-                            result -> result.record(
-                                    this.metrics.get(uniqueId),
-                                    Attributes.builder()
-                                            .put("process", processDefinitionName)
-                                            .put("activityClass", activityClassName)
-                                            .put("activity", activityName)
-                                            .build()
-                            )
-                    );
+    /**
+     * Has every call of the sharded mode take one of the permits, so that the concurrent calls count towards the
+     * pipeline's limit of concurrent invokes on the engine's MBean. A call that cannot get a permit by the deadline,
+     * e.g. because another stage is stuck in the MBean, fails rather than holding up the cycle.
+     *
+     * @param deadline the {@link System#nanoTime()} by which a call must have its permit, i.e. the cycle's deadline.
+     */
+    public GetActivitiesWorker withPermits(Semaphore permits, LongSupplier deadline) {
+        this.permits = permits;
+        this.deadline = deadline;
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        if (this.invokes != null) {
+            this.invokes.shutdown();
         }
+        this.activityClassFilter.close();
+        this.metrics.close();
     }
 
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
-            TabularDataSupport result =
-                    (TabularDataSupport) mbsc.invoke(
-                            objectName,
-                            "GetActivities",
-                            new Object[] { null },
-                            new String[] { String.class.getName() }
-                    );
-
-            if (result != null) {
-                for (Object value : result.values()) {
-                    CompositeDataSupport resultItem = (CompositeDataSupport) value;
-
-                    String process = (String) resultItem.get("ProcessDefName");
-                    String activity = (String) resultItem.get("Name");
-                    String activityClass = (String) resultItem.get("ActivityClass");
-
-                    Matcher m = this.activityClassPattern.matcher(activityClass);
-                    if (m.matches()) {
-                        trackMetric("bwengine.activity.executioncount", process, activity, activityClass, (Long) resultItem.get("ExecutionCount"));
-                        trackMetric("bwengine.activity.errorcount", process, activity, activityClass, (Long) resultItem.get("ErrorCount"));
-                        trackMetric("bwengine.activity.elapsedtime", process, activity, activityClass, (Long) resultItem.get("ElapsedTime"));
-                        trackMetric("bwengine.activity.elapsedtime_min", process, activity, activityClass, (Long) resultItem.get("MinElapsedTime"));
-                        trackMetric("bwengine.activity.elapsedtime_max", process, activity, activityClass, (Long) resultItem.get("MaxElapsedTime"));
-                        trackMetric("bwengine.activity.executiontime", process, activity, activityClass, (Long) resultItem.get("ExecutionTime"));
-                        trackMetric("bwengine.activity.executiontime_min", process, activity, activityClass, (Long) resultItem.get("MinExecutionTime"));
-                        trackMetric("bwengine.activity.executiontime_max", process, activity, activityClass, (Long) resultItem.get("MaxExecutionTime"));
-                        trackMetric("bwengine.activity.elapsedtime_recent", process, activity, activityClass, (Long) resultItem.get("MostRecentElapsedTime"));
-                        trackMetric("bwengine.activity.executiontime_recent", process, activity, activityClass, (Long) resultItem.get("MostRecentExecutionTime"));
-                    }
+            if (this.slices > 0) {
+                runSliced();
+            } else {
+                long call = System.nanoTime();
+                TabularDataSupport result =
+                        (TabularDataSupport) mbsc.invoke(
+                                objectName,
+                                "GetActivities",
+                                new Object[] { null },
+                                new String[] { String.class.getName() }
+                        );
+                this.metrics.callCompleted("GetActivities", call);
+
+                if (result != null) {
+                    int[] counts = new int[2];
+                    update(result, call, counts);
+                    completeCycle(counts);
                 }
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetActivities'...", t);
         }
 
         Logger.exiting(this.getClass().getCanonicalName(), "run");
     }
+
+    private void runSliced() throws Exception {
+        long call = System.nanoTime();
+        TabularDataSupport definitions = (this.definitions == null) ? null : this.definitions.get();
+        if (definitions == null) {
+            acquire();
+            try {
+                definitions = (TabularDataSupport) mbsc.invoke(objectName, "GetProcessDefinitions", null, null);
+            } finally {
+                release();
+            }
+            this.metrics.callCompleted("GetProcessDefinitions", call);
+        }
+
+        if (definitions == null) {
+            return;
+        }
+
+        Set<String> listed = new HashSet<>();
+        List<String> due = due(definitions, listed);
+
+        List<Callable<TabularDataSupport>> calls = new ArrayList<>(due.size());
+        for (String process : due) {
+            calls.add(() -> activities(process));
+        }
+
+        List<TabularDataSupport> tables = new ArrayList<>(due.size());
+        if (this.invokes == null) {
+            for (Callable<TabularDataSupport> c : calls) {
+                tables.add(c.call());
+            }
+        } else {
+            for (Future<TabularDataSupport> future : this.invokes.invokeAll(calls)) {
+                try {
+                    tables.add(future.get());
+                } catch (ExecutionException e) {
+                    tables.add(null);
+                }
+            }
+        }
+
+        int[] counts = new int[2];
+        Set<String> fetched = new HashSet<>();
+        for (int i = 0; i < due.size(); i++) {
+            if (tables.get(i) != null) {
+                update(tables.get(i), call, counts);
+                fetched.add(due.get(i));
+            }
+        }
+
+        /*
+         * The activities of the listed processes that were not (successfully) called this cycle are still there;
+         * keep their series alive.
+         */
+        for (Map.Entry<String, Map<String, Row>> process : this.rows.entrySet()) {
+            if (listed.contains(process.getKey()) && !fetched.contains(process.getKey())) {
+                for (Row row : process.getValue().values()) {
+                    row.cycle = this.cycle;
+                    if (row.series != null) {
+                        row.touch();
+                    }
+                    counts[0]++;
+                }
+            }
+        }
+
+        completeCycle(counts);
+    }
+
+    /*
+     * The busy processes first, then the next slice of all listed processes (in name order, so slices are stable).
+     * A listing that was seen before (the other worker did not run since) keeps the busy processes derived from it.
+     */
+    private List<String> due(TabularDataSupport definitions, Set<String> listed) {
+        List<String> processes = new ArrayList<>(definitions.size());
+        Map<String, Long> grown = new HashMap<>();
+        boolean fresh = (definitions != this.listing);
+
+        for (Object value : definitions.values()) {
+            CompositeDataSupport definition = (CompositeDataSupport) value;
+
+            String process = (String) definition.get("Name");
+            processes.add(process);
+            listed.add(process);
+
+            if (fresh) {
+                long created = (Long) definition.get("Created");
+                Long previous = this.created.put(process, created);
+                if (previous != null && created != previous) {
+                    grown.put(process, created - previous);
+                }
+            }
+        }
+
+        if (fresh) {
+            this.created.keySet().retainAll(listed);
+
+            List<String> busy = new ArrayList<>(grown.keySet());
+            busy.sort((a, b) -> Long.compare(Math.abs(grown.get(b)), Math.abs(grown.get(a))));
+            this.busy = busy.subList(0, Math.min(this.priority, busy.size()));
+            this.listing = definitions;
+        }
+
+        Set<String> due = new LinkedHashSet<>(this.busy);
+
+        Collections.sort(processes);
+        int size = (processes.size() + this.slices - 1) / this.slices;
+        int from = Math.min(processes.size(), this.slice * size);
+        due.addAll(processes.subList(from, Math.min(processes.size(), from + size)));
+        this.slice = (this.slice + 1) % this.slices;
+
+        return new ArrayList<>(due);
+    }
+
+    /*
+     * May run on the pool. Returns null when the call failed; the other slices' calls go ahead.
+     */
+    private TabularDataSupport activities(String process) {
+        long call = System.nanoTime();
+        long cpuStarted = (this.invokes == null) ? 0 : CollectorMetrics.threadCpuTime();
+        try {
+            acquire();
+            TabularDataSupport result;
+            try {
+                call = System.nanoTime();
+                result = (TabularDataSupport) mbsc.invoke(
+                        objectName,
+                        "GetActivities",
+                        new Object[] { process },
+                        new String[] { String.class.getName() }
+                );
+            } finally {
+                release();
+            }
+            this.metrics.callCompleted("GetActivities", call);
+            return result;
+        } catch (Exception e) {
+            this.metrics.callFailed("GetActivities", call, e);
+            Logger.warning(String.format("Exception invoking 'GetActivities' for '%s'...", process), e);
+            return null;
+        } finally {
+            if (this.invokes != null) {
+                this.metrics.cpuUsed(CollectorMetrics.threadCpuTime() - cpuStarted);
+            }
+        }
+    }
+
+    private void acquire() throws InterruptedException, TimeoutException {
+        if (this.permits != null && !this.permits.tryAcquire(this.deadline.getAsLong() - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException("No invoke permit within the pipeline's deadline.");
+        }
+    }
+
+    private void release() {
+        if (this.permits != null) {
+            this.permits.release();
+        }
+    }
+
+    /*
+     * counts[0] is the number of rows seen, counts[1] the number of rows written.
+     */
+    private void update(TabularDataSupport result, long call, int[] counts) {
+        this.metrics.rows(result.size());
+
+        for (Object value : result.values()) {
+            CompositeDataSupport resultItem = (CompositeDataSupport) value;
+
+            Row row = row(resultItem);
+            row.cycle = this.cycle;
+            counts[0]++;
+
+            if (row.series == null) {
+                continue;
+            }
+
+            long executionCount = (Long) resultItem.get("ExecutionCount");
+            long errorCount = (Long) resultItem.get("ErrorCount");
+            long sinceReset = column(resultItem, "ExecutionCountSinceReset");
+            long idle = column(resultItem, "TimeSinceLastUpdate");
+
+            if (row.unchanged(executionCount, errorCount, sinceReset, idle, call) && row.touch()) {
+                continue;
+            }
+
+            for (int i = 0; i < c_columns.length; i++) {
+                row.series[i].set((Long) resultItem.get(c_columns[i]));
+            }
+            row.read(executionCount, errorCount, sinceReset, call);
+            counts[1]++;
+        }
+    }
+
+    private void completeCycle(int[] counts) {
+        if (counts[0] < this.cached) {
+            prune();
+        }
+        this.cycle++;
+
+        Logger.fine(String.format("Updated %d of %d activities.", counts[1], counts[0]));
+
+        this.registry.completeCycle();
+    }
+
+    /*
+     * Looks the row up by (ProcessDefName, Name), matching and resolving it on first sight only.
+     */
+    private Row row(CompositeDataSupport resultItem) {
+        String process = (String) resultItem.get("ProcessDefName");
+        String activity = (String) resultItem.get("Name");
+
+        Map<String, Row> activities = this.rows.computeIfAbsent(process, p -> new HashMap<>());
+        Row row = activities.get(activity);
+        if (row == null) {
+            String activityClass = (String) resultItem.get("ActivityClass");
+            Series[] series = null;
+
+            if (this.activityClassFilter.matches(activityClass)) {
+                Attributes attributes = Attributes.of(PROCESS, process, ACTIVITY_CLASS, activityClass, ACTIVITY, activity);
+                series = new Series[c_columns.length];
+                for (int i = 0; i < c_columns.length; i++) {
+                    series[i] = c_counters[i]
+                            ? this.registry.counter(c_metrics[i], 64).series(attributes)
+                            : this.registry.gauge(c_metrics[i]).series(attributes);
+                }
+            }
+
+            row = new Row(series);
+            activities.put(activity, row);
+            this.cached++;
+        }
+        return row;
+    }
+
+    private void prune() {
+        Iterator<Map<String, Row>> processes = this.rows.values().iterator();
+        while (processes.hasNext()) {
+            Map<String, Row> activities = processes.next();
+            Iterator<Row> rows = activities.values().iterator();
+            while (rows.hasNext()) {
+                if (rows.next().cycle != this.cycle) {
+                    rows.remove();
+                    this.cached--;
+                }
+            }
+            if (activities.isEmpty()) {
+                processes.remove();
+            }
+        }
+    }
+
+    /*
+     * Older engines lack some of the change-detection columns; -1 makes those columns not count.
+     */
+    private static long column(CompositeDataSupport resultItem, String column) {
+        if (!resultItem.containsKey(column)) {
+            return -1;
+        }
+        Long value = (Long) resultItem.get(column);
+        return (value == null) ? -1 : value;
+    }
+
+    /**
+     * What an earlier cycle saw of one activity. 'series' is null when its class does not match the filter.
+     */
+    private static final class Row {
+
+        private final Series[] series;
+
+        private boolean read = false;
+        private long executionCount;
+        private long errorCount;
+        private long sinceReset;
+        private long readAt;
+        private long cycle;
+
+        private Row(Series[] series) {
+            this.series = series;
+        }
+
+        /*
+         * The counts (and the counts since the last ResetActivityStats) must not have moved, and when the engine
+         * reports when the row was last updated, that must have been before the previous read.
+         */
+        private boolean unchanged(long executionCount, long errorCount, long sinceReset, long idle, long now) {
+            return this.read
+                    && executionCount == this.executionCount
+                    && errorCount == this.errorCount
+                    && sinceReset == this.sinceReset
+                    && (idle < 0 || idle >= TimeUnit.NANOSECONDS.toMillis(now - this.readAt));
+        }
+
+        private void read(long executionCount, long errorCount, long sinceReset, long now) {
+            this.read = true;
+            this.executionCount = executionCount;
+            this.errorCount = errorCount;
+            this.sinceReset = sinceReset;
+            this.readAt = now;
+        }
+
+        /*
+         * Fails for a row that went to an overflow series, which has to be written every cycle.
+         */
+        private boolean touch() {
+            for (Series series : this.series) {
+                if (!series.touch()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
 
 /*
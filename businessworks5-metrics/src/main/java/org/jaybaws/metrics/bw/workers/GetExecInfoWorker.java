@@ -2,59 +2,96 @@ package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeDataSupport;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
 
-public class GetExecInfoWorker implements Runnable {
+public class GetExecInfoWorker implements Scraper {
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
+    private final Attributes engine;
+    private final CollectorMetrics metrics;
+    private final ObservableLongGauge statusGauge;
+    private final ObservableLongGauge uptimeGauge;
+    private final ObservableLongGauge threadsGauge;
 
     private long valStatus = -1;
     private long valUptime = -1;
-    private long valThreads = -1;
+    private volatile long valThreads = -1;
 
     public GetExecInfoWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+        this(sdk, mbsc, objectName, Attributes.empty());
+    }
+
+    public GetExecInfoWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, Attributes engine) {
         this.mbsc = mbsc;
+        this.engine = engine;
         this.objectName = objectName;
 
         Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getexecinfo");
+        this.metrics = new CollectorMetrics(meter, "getexecinfo", null, engine);
 
-        meter
+        this.statusGauge = meter
                 .gaugeBuilder("bwengine.status")
                 .ofLongs()
                 .setDescription("Reports the status of the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valStatus, Attributes.empty())
+                                this.valStatus, this.engine)
                 );
 
-        meter
+        this.uptimeGauge = meter
                 .gaugeBuilder("bwengine.uptime")
                 .ofLongs()
                 .setDescription("Reports the uptime of the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valUptime, Attributes.empty())
+                                this.valUptime, this.engine)
                 );
 
-        meter
+        this.threadsGauge = meter
                 .gaugeBuilder("bwengine.threads")
                 .ofLongs()
                 .setDescription("Reports the amount of availble engine threads within the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valThreads, Attributes.empty())
+                                this.valThreads, this.engine)
                 );
     }
 
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        this.statusGauge.close();
+        this.uptimeGauge.close();
+        this.threadsGauge.close();
+        this.metrics.close();
+    }
+
+    /**
+     * @return the number of engine worker threads as of the last run, {@code -1} before the first.
+     */
+    public long threads() {
+        return this.valThreads;
+    }
+
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             CompositeDataSupport result =
                     (CompositeDataSupport) mbsc.invoke(
                             objectName,
@@ -62,6 +99,7 @@ public class GetExecInfoWorker implements Runnable {
                             null,
                             null
                     );
+            this.metrics.callCompleted("GetExecInfo", call);
 
             if (result != null) {
                 this.valUptime = (Long) result.get("Uptime");
@@ -95,7 +133,10 @@ public class GetExecInfoWorker implements Runnable {
                                 this.valThreads                        )
                 );
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetExecInfo'...", t);
         }
 
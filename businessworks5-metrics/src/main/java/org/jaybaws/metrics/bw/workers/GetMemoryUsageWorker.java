@@ -2,15 +2,24 @@ package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleGauge;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeDataSupport;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
 
-public class GetMemoryUsageWorker implements Runnable {
+public class GetMemoryUsageWorker implements Scraper {
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
+    private final Attributes engine;
+    private final CollectorMetrics metrics;
+    private final ObservableDoubleGauge usedGauge;
+    private final ObservableDoubleGauge percentUsedGauge;
+    private final ObservableDoubleGauge freeGauge;
+    private final ObservableDoubleGauge totalGauge;
 
     private long valUsedBytes = -1;
     private long valPercentUsed = -1;
@@ -18,53 +27,76 @@ public class GetMemoryUsageWorker implements Runnable {
     private long valTotalBytes = -1;
 
     public GetMemoryUsageWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+        this(sdk, mbsc, objectName, Attributes.empty());
+    }
+
+    public GetMemoryUsageWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, Attributes engine) {
         this.mbsc = mbsc;
+        this.engine = engine;
         this.objectName = objectName;
 
         Meter meter = sdk
                 .getMeter("com.tibco.bw.hawkmethod.getmemoryusage");
+        this.metrics = new CollectorMetrics(meter, "getmemoryusage", null, engine);
 
-        meter
+        this.usedGauge = meter
                 .gaugeBuilder("bwengine.memory.used")
                 .setUnit("bytes")
                 .setDescription("The amount of memory used by the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valUsedBytes, Attributes.empty())
+                                this.valUsedBytes, this.engine)
                 );
 
-        meter
+        this.percentUsedGauge = meter
                 .gaugeBuilder("bwengine.memory.used.pct")
                 .setDescription("The percentage of availble memory that is used by the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valPercentUsed, Attributes.empty())
+                                this.valPercentUsed, this.engine)
                 );
 
-        meter
+        this.freeGauge = meter
                 .gaugeBuilder("bwengine.memory.free")
                 .setUnit("bytes")
                 .setDescription("The amount of memory that is still free in the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valFreeBytes, Attributes.empty())
+                                this.valFreeBytes, this.engine)
                 );
 
-        meter
+        this.totalGauge = meter
                 .gaugeBuilder("bwengine.memory.total")
                 .setUnit("bytes")
                 .setDescription("The total amount of memory allocated to the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valTotalBytes, Attributes.empty())
+                                this.valTotalBytes, this.engine)
                 );
     }
 
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        this.usedGauge.close();
+        this.percentUsedGauge.close();
+        this.freeGauge.close();
+        this.totalGauge.close();
+        this.metrics.close();
+    }
+
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             CompositeDataSupport result =
                     (CompositeDataSupport) mbsc.invoke(
                             objectName,
@@ -72,6 +104,7 @@ public class GetMemoryUsageWorker implements Runnable {
                             null,
                             null
                     );
+            this.metrics.callCompleted("GetMemoryUsage", call);
 
             if (result != null) {
                 this.valUsedBytes = (Long) result.get("UsedBytes");
@@ -89,7 +122,10 @@ public class GetMemoryUsageWorker implements Runnable {
                         )
                 );
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetMemoryUsage'...", t);
         }
 
@@ -2,39 +2,66 @@ package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongUpDownCounter;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
 
-public class GetProcessCountWorker implements Runnable {
+public class GetProcessCountWorker implements Scraper {
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
+    private final Attributes engine;
+    private final CollectorMetrics metrics;
+    private final ObservableLongUpDownCounter processCountCounter;
 
     private long valProcessCount = -1;
 
     public GetProcessCountWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+        this(sdk, mbsc, objectName, Attributes.empty());
+    }
+
+    public GetProcessCountWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, Attributes engine) {
         this.mbsc = mbsc;
+        this.engine = engine;
         this.objectName = objectName;
 
         Meter meter = sdk
                 .getMeter("com.tibco.bw.hawkmethod.getprocesscount");
+        this.metrics = new CollectorMetrics(meter, "getprocesscount", null, engine);
 
-        meter
+        this.processCountCounter = meter
                 .upDownCounterBuilder("bwengine.process.count")
                 .setDescription("The total amount of process loaded in the BW engine.")
                 .buildWithCallback(
                         result -> result.record(
-                                this.valProcessCount, Attributes.empty())
+                                this.valProcessCount, this.engine)
                 );
     }
 
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        this.processCountCounter.close();
+        this.metrics.close();
+    }
+
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             Integer value = (Integer) mbsc.invoke(objectName, "GetProcessCount", null, null);
+            this.metrics.callCompleted("GetProcessCount", call);
 
             if (value != null) {
                 this.valProcessCount = value;
@@ -46,7 +73,10 @@ public class GetProcessCountWorker implements Runnable {
                         )
                 );
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetProcessCount'...", t);
         }
 
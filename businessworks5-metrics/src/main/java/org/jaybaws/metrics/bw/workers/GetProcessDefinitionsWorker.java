@@ -1,74 +1,129 @@
 package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import java.util.HashMap;
+import java.util.Map;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.TabularDataSupport;
-import java.util.HashMap;
-import java.util.Map;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Instrument;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
+
+public class GetProcessDefinitionsWorker implements Scraper {
+
+    private static final AttributeKey<String> PROCESS = AttributeKey.stringKey("process");
+    private static final AttributeKey<Double> QUANTILE = AttributeKey.doubleKey("quantile");
 
-public class GetProcessDefinitionsWorker implements Runnable {
+    private static final double[] c_quantiles = { 0.5, 0.9, 0.99, 1.0 };
+    private static final String[] c_latencies = { "execution", "elapsed" };
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
 
-    private final Meter meter;
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
 
-    private final Map<String, Long> metrics = new HashMap<String, Long>();
+    /*
+     * Per process definition, the latency over the last 'window' cycles; none when 0.
+     */
+    private int window = 0;
+    private Map<String, Windowed> windows = new HashMap<>();
 
-    public GetProcessDefinitionsWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+    /*
+     * The last listing, for the sharded GetActivitiesWorker of the same engine.
+     */
+    private volatile TabularDataSupport definitions;
+
+    public GetProcessDefinitionsWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, RegistryConfig registryConfig) {
+        this(sdk, mbsc, objectName, registryConfig, Attributes.empty());
+    }
+
+    public GetProcessDefinitionsWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, RegistryConfig registryConfig, Attributes engine) {
         this.mbsc = mbsc;
         this.objectName = objectName;
-        this.meter = sdk.getMeter("com.tibco.bw.hawkmethod.getprocessdefinitions");
+        Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getprocessdefinitions");
+        this.registry = new SeriesRegistry(meter, registryConfig).withAttributes(engine);
+        this.metrics = new CollectorMetrics(meter, "getprocessdefinitions", this.registry, engine);
     }
 
     private void trackMetric(String metricName, String processDefinitionName, long value) {
-        String uniqueId = processDefinitionName + "/" + metricName;
-
-        if (metrics.containsKey(uniqueId)) {
-            metrics.replace(uniqueId, value);
-        } else {
-            metrics.put(uniqueId, value);
-            this.meter
-                    .gaugeBuilder(metricName)
-                    .ofLongs()
-                    .buildWithCallback(
-                            result -> result.record(
-                                    this.metrics.get(uniqueId),
-                                    Attributes.builder()
-                                            .put("process", processDefinitionName)
-                                            .build()
-                            )
-                    );
-        }
+        this.registry.gauge(metricName).series(PROCESS, processDefinitionName).set(value);
+    }
+
+    private void countMetric(String metricName, String processDefinitionName, long value) {
+        this.registry.counter(metricName, 64).series(PROCESS, processDefinitionName).set(value);
+    }
+
+    /**
+     * Derives the latency of the last 'window' cycles from the cumulative totals (see {@link LatencyWindow}), and
+     * reports it per process definition:
+     *
+     * <ul>
+     *     <li>{@code bwengine.processdefinition.[execution|elapsed]_interval}: the mean time (ms) of the jobs
+     *     completed during the last cycle;</li>
+     *     <li>{@code bwengine.processdefinition.[execution|elapsed]_window}: the 0.5, 0.9, 0.99 and 1.0 quantiles
+     *     (ms) of those means over the window, with a {@code quantile} attribute;</li>
+     *     <li>{@code bwengine.processdefinition.throughput}: the completions per hour over the window.</li>
+     * </ul>
+     *
+     * @param window the number of cycles, {@code 0} to derive nothing.
+     */
+    public GetProcessDefinitionsWorker withWindow(int window) {
+        this.window = Math.max(0, window);
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return the process definitions as of the last run that got them, {@code null} before the first.
+     */
+    public TabularDataSupport definitions() {
+        return this.definitions;
     }
 
     @Override
     public void run() {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             TabularDataSupport result = (TabularDataSupport) mbsc.invoke(objectName, "GetProcessDefinitions", null, null);
+            this.metrics.callCompleted("GetProcessDefinitions", call);
 
             if (result != null) {
+                this.definitions = result;
+                this.metrics.rows(result.size());
+                long now = System.nanoTime();
+                Map<String, Windowed> windows = new HashMap<>();
+
                 for (Object value : result.values()) {
                     CompositeDataSupport resultItem = (CompositeDataSupport) value;
 
                     String process = (String) resultItem.get("Name");
 
-                    trackMetric("bwengine.processdefinition.created", process, (Long) resultItem.get("Created"));
-                    trackMetric("bwengine.processdefinition.suspended", process, (Long) resultItem.get("Suspended"));
-                    trackMetric("bwengine.processdefinition.swapped", process, (Long) resultItem.get("Swapped"));
-                    trackMetric("bwengine.processdefinition.queued", process, (Long) resultItem.get("Queued"));
-                    trackMetric("bwengine.processdefinition.aborted", process, (Long) resultItem.get("Aborted"));
-                    trackMetric("bwengine.processdefinition.completed", process, (Long) resultItem.get("Completed"));
-                    trackMetric("bwengine.processdefinition.checkpointed", process, (Long) resultItem.get("Checkpointed"));
-                    trackMetric("bwengine.processdefinition.execution_total", process, (Long) resultItem.get("TotalExecution"));
+                    countMetric("bwengine.processdefinition.created", process, (Long) resultItem.get("Created"));
+                    countMetric("bwengine.processdefinition.suspended", process, (Long) resultItem.get("Suspended"));
+                    countMetric("bwengine.processdefinition.swapped", process, (Long) resultItem.get("Swapped"));
+                    countMetric("bwengine.processdefinition.queued", process, (Long) resultItem.get("Queued"));
+                    countMetric("bwengine.processdefinition.aborted", process, (Long) resultItem.get("Aborted"));
+                    countMetric("bwengine.processdefinition.completed", process, (Long) resultItem.get("Completed"));
+                    countMetric("bwengine.processdefinition.checkpointed", process, (Long) resultItem.get("Checkpointed"));
+                    countMetric("bwengine.processdefinition.execution_total", process, (Long) resultItem.get("TotalExecution"));
                     trackMetric("bwengine.processdefinition.execution_avg", process, (Long) resultItem.get("AverageExecution"));
-                    trackMetric("bwengine.processdefinition.elapsed_total", process, (Long) resultItem.get("TotalElapsed"));
+                    countMetric("bwengine.processdefinition.elapsed_total", process, (Long) resultItem.get("TotalElapsed"));
                     trackMetric("bwengine.processdefinition.elapsed_avg", process, (Long) resultItem.get("AverageElapsed"));
                     trackMetric("bwengine.processdefinition.elapsed_min", process, (Long) resultItem.get("MinElapsed"));
                     trackMetric("bwengine.processdefinition.elapsed_max", process, (Long) resultItem.get("MaxElapsed"));
@@ -76,14 +131,94 @@ public class GetProcessDefinitionsWorker implements Runnable {
                     trackMetric("bwengine.processdefinition.execution_max", process, (Long) resultItem.get("MaxExecution"));
                     trackMetric("bwengine.processdefinition.execution_recent", process, (Long) resultItem.get("MostRecentExecutionTime"));
                     trackMetric("bwengine.processdefinition.elapsed_recent", process, (Long) resultItem.get("MostRecentElapsedTime"));
+
+                    if (this.window > 0) {
+                        derive(
+                                process,
+                                (Long) resultItem.get("Completed"),
+                                (Long) resultItem.get("TotalExecution"),
+                                (Long) resultItem.get("TotalElapsed"),
+                                now,
+                                windows
+                        );
+                    }
                 }
+
+                this.windows = windows;
+                this.registry.completeCycle();
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetProcessDefinitions'...", t);
         }
 
         Logger.exiting(this.getClass().getCanonicalName(), "run");
     }
+
+    /*
+     * Keeps the windows of the process definitions in this run's table only.
+     */
+    private void derive(String process, long completed, long execution, long elapsed, long now, Map<String, Windowed> windows) {
+        Windowed windowed = this.windows.get(process);
+        if (windowed == null) {
+            windowed = new Windowed(process, this.window);
+        }
+        windows.put(process, windowed);
+
+        if (!windowed.latencies.observe(completed, execution, elapsed, now)) {
+            return;
+        }
+
+        for (int which = 0; which < c_latencies.length; which++) {
+            String latency = c_latencies[which];
+
+            long last = windowed.latencies.last(which);
+            if (last >= 0) {
+                this.registry
+                        .gauge(
+                                "bwengine.processdefinition." + latency + "_interval",
+                                "Mean " + latency + " time of the processes completed during the last cycle.",
+                                "ms"
+                        )
+                        .series(windowed.attributes)
+                        .set(last);
+            }
+
+            Instrument quantiles = this.registry.gauge(
+                    "bwengine.processdefinition." + latency + "_window",
+                    "Quantiles of the per-cycle mean " + latency + " time over the window.",
+                    "ms"
+            );
+            for (int q = 0; q < c_quantiles.length; q++) {
+                long quantile = windowed.latencies.quantile(which, c_quantiles[q]);
+                if (quantile >= 0) {
+                    quantiles.series(windowed.quantiles[q]).set(quantile);
+                }
+            }
+        }
+
+        this.registry
+                .gauge("bwengine.processdefinition.throughput", "Processes completed per hour over the window.", "{process}/h")
+                .series(windowed.attributes)
+                .set(windowed.latencies.throughput());
+    }
+
+    private static final class Windowed {
+
+        private final LatencyWindow latencies;
+        private final Attributes attributes;
+        private final Attributes[] quantiles = new Attributes[c_quantiles.length];
+
+        private Windowed(String process, int size) {
+            this.latencies = new LatencyWindow(size);
+            this.attributes = Attributes.of(PROCESS, process);
+            for (int q = 0; q < c_quantiles.length; q++) {
+                this.quantiles[q] = this.attributes.toBuilder().put(QUANTILE, c_quantiles[q]).build();
+            }
+        }
+    }
 }
 
 /*
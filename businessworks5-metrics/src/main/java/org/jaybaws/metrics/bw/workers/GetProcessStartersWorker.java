@@ -1,57 +1,138 @@
 package org.jaybaws.metrics.bw.workers;
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.TabularDataSupport;
-import java.util.HashMap;
-import java.util.Map;
 import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
 
-public class GetProcessStartersWorker implements Runnable {
+public class GetProcessStartersWorker implements Scraper {
+
+    private static final AttributeKey<String> PROCESS = AttributeKey.stringKey("process");
+    private static final AttributeKey<String> ACTIVITY = AttributeKey.stringKey("activity");
+    private static final AttributeKey<String> STATUS = AttributeKey.stringKey("status");
+
+    private static final String[] c_statuses = { "INACTIVE", "FLOW-CONTROLLED", "ACTIVE" };
 
     private final MBeanServerConnection mbsc;
     private final ObjectName objectName;
 
-    private final Meter meter;
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
+
+    private double surge = 0;
+    private long surgeMin = 0;
+
+    /*
+     * What every starter was at the previous run, to tell the time it spent in each status and the changes to it.
+     */
+    private final Map<Attributes, Starter> starters = new HashMap<>();
 
-    private final Map<String, Long> metrics = new HashMap<String, Long>();
+    private volatile int flowControlled = 0;
+    private volatile int surging = 0;
+    private volatile long runs = 0;
+    private volatile Map<String, Long> running = Collections.emptyMap();
 
-    public GetProcessStartersWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName) {
+    public GetProcessStartersWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, RegistryConfig registryConfig) {
+        this(sdk, mbsc, objectName, registryConfig, Attributes.empty());
+    }
+
+    public GetProcessStartersWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, RegistryConfig registryConfig, Attributes engine) {
         this.mbsc = mbsc;
         this.objectName = objectName;
-        this.meter = sdk.getMeter("com.tibco.bw.hawkmethod.getprocessstarters");
+        Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getprocessstarters");
+        this.registry = new SeriesRegistry(meter, registryConfig).withAttributes(engine);
+        this.metrics = new CollectorMetrics(meter, "getprocessstarters", this.registry, engine);
     }
 
-    private void trackMetric(String metricName, String processDefinitionName, String starterName, long value) {
-        String uniqueId = processDefinitionName + "/" + starterName + "/" + metricName;
-
-        if (metrics.containsKey(uniqueId)) {
-            metrics.replace(uniqueId, value);
-        } else {
-            metrics.put(uniqueId, value);
-            this.meter
-                    .gaugeBuilder(metricName)
-                    .ofLongs()
-                    .buildWithCallback(
-                            result -> result.record(
-                                    this.metrics.get(uniqueId),
-                                    Attributes.builder()
-                                            .put("process", processDefinitionName)
-                                            .put("activity", starterName)
-                                            .build()
-                            )
-                    );
-        }
+    private void trackMetric(String metricName, Attributes starter, long value) {
+        this.registry.gauge(metricName).series(starter).set(value);
+    }
+
+    /*
+     * The starters' counts are ints, so they may wrap around on long-running engines.
+     */
+    private void countMetric(String metricName, Attributes starter, long value) {
+        this.registry.counter(metricName, 32).series(starter).set(value);
+    }
+
+    /**
+     * Has the worker tell the starters whose creation rate jumped: rose to at least 'factor' times the one of the
+     * previous run, and to at least 'min' processes per hour.
+     */
+    public GetProcessStartersWorker withSurge(double factor, long min) {
+        this.surge = factor;
+        this.surgeMin = min;
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return the number of starters that were FLOW-CONTROLLED at the last successful run.
+     */
+    public int flowControlled() {
+        return this.flowControlled;
+    }
+
+    /**
+     * @return the number of starters whose creation rate jumped at the last successful run (see
+     * {@link #withSurge(double, long)}).
+     */
+    public int surging() {
+        return this.surging;
+    }
+
+    /**
+     * @return the number of running processes per process definition, at the last successful run.
+     */
+    public Map<String, Long> running() {
+        return this.running;
+    }
+
+    /**
+     * @return the number of successful runs so far, polls not included.
+     */
+    public long runs() {
+        return this.runs;
     }
 
     @Override
     public void run() {
+        scrape(false);
+    }
+
+    /**
+     * A poll in between the pipeline's runs (see {@link org.jaybaws.metrics.bw.pipeline.StarterBurst}): it updates
+     * the gauges and the time spent in each status, but leaves the counters, their deltas and rates, and the aging of
+     * the series to the pipeline's runs, so that those keep being measured in pipeline cycles.
+     */
+    public void poll() {
+        scrape(true);
+    }
+
+    private void scrape(boolean poll) {
         Logger.entering(this.getClass().getCanonicalName(), "run");
 
+        long started = this.metrics.scrapeStarted();
+
         try {
+            long call = System.nanoTime();
             TabularDataSupport result =
                     (TabularDataSupport) mbsc.invoke(
                             objectName,
@@ -59,8 +140,15 @@ public class GetProcessStartersWorker implements Runnable {
                             null,
                             null
                     );
+            this.metrics.callCompleted("GetProcessStarters", call);
 
             if (result != null) {
+                this.metrics.rows(result.size());
+                int flowControlled = 0;
+                int surging = 0;
+                Map<String, Long> running = new HashMap<>();
+                long now = System.nanoTime();
+
                 for (Object value : result.values()) {
                     CompositeDataSupport resultItem = (CompositeDataSupport) value;
 
@@ -69,20 +157,24 @@ public class GetProcessStartersWorker implements Runnable {
                     String starterName = (String) resultItem.get("Name");
                     String status = (String) resultItem.get("Status");
 
-                    long valCompleted = (Integer) resultItem.get("Completed");
-                    trackMetric("bwengine.starters.completed", processDefinition, starterName, valCompleted);
+                    Attributes starter = Attributes.of(PROCESS, processDefinition, ACTIVITY, starterName);
 
+                    long valCompleted = (Integer) resultItem.get("Completed");
                     long valCreated = (Integer) resultItem.get("Created");
-                    trackMetric("bwengine.starters.created", processDefinition, starterName, valCreated);
+                    if (!poll) {
+                        countMetric("bwengine.starters.completed", starter, valCompleted);
+                        countMetric("bwengine.starters.created", starter, valCreated);
+                    }
 
                     long valCreationRate = (Integer) resultItem.get("CreationRate");
-                    trackMetric("bwengine.starters.creationrate", processDefinition, starterName, valCreationRate);
+                    trackMetric("bwengine.starters.creationrate", starter, valCreationRate);
 
                     long valDuration = (Long) resultItem.get("Duration");
-                    trackMetric("bwengine.starters.duration", processDefinition, starterName, valDuration);
+                    trackMetric("bwengine.starters.duration", starter, valDuration);
 
                     long valRunning = (Integer) resultItem.get("Running");
-                    trackMetric("bwengine.starters.running", processDefinition, starterName, valRunning);
+                    trackMetric("bwengine.starters.running", starter, valRunning);
+                    running.merge(processDefinition, valRunning, Long::sum);
 
                     long valStatus;
                     switch (status) {
@@ -91,6 +183,7 @@ public class GetProcessStartersWorker implements Runnable {
                             break;
                         case "FLOW-CONTROLLED":
                             valStatus = 1;
+                            flowControlled++;
                             break;
                         case "ACTIVE":
                             valStatus = 2;
@@ -99,7 +192,11 @@ public class GetProcessStartersWorker implements Runnable {
                             valStatus = -1;
                             break;
                     }
-                    trackMetric("bwengine.starters.status", processDefinition, starterName, valStatus);
+                    trackMetric("bwengine.starters.status", starter, valStatus);
+
+                    if (observe(starter, (int) valStatus, valCreationRate, now, !poll)) {
+                        surging++;
+                    }
 
                     Logger.fine(
                             String.format(
@@ -114,13 +211,106 @@ public class GetProcessStartersWorker implements Runnable {
                             )
                     );
                 }
+
+                /*
+                 * Forget the starters that are gone, the registry evicts their series.
+                 */
+                if (!poll) {
+                    Iterator<Starter> it = this.starters.values().iterator();
+                    while (it.hasNext()) {
+                        if (it.next().seen != now) {
+                            it.remove();
+                        }
+                    }
+
+                    this.registry.completeCycle();
+                    this.runs++;
+                }
+                this.flowControlled = flowControlled;
+                this.surging = surging;
+                this.running = Collections.unmodifiableMap(running);
             }
+
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             Logger.warning("Exception invoking 'GetProcessStarters'...", t);
         }
 
         Logger.exiting(this.getClass().getCanonicalName(), "run");
     }
+
+    /*
+     * Credits the time since the previous run to the status the starter had then, and counts the change of status;
+     * those are published to the registry when 'publish'. Returns whether the starter's creation rate jumped.
+     */
+    private boolean observe(Attributes starter, int status, long creationRate, long now, boolean publish) {
+        Starter previous = this.starters.get(starter);
+        if (previous == null) {
+            previous = new Starter(starter);
+            this.starters.put(starter, previous);
+            previous.update(status, creationRate, now);
+            return false;
+        }
+
+        if (previous.status >= 0) {
+            previous.time[previous.status] += now - previous.seen;
+        }
+        if (status != previous.status && status >= 0) {
+            previous.transitions[status]++;
+            Logger.info(
+                    String.format(
+                            "[GetProcessStarters] '%s/%s' went from %s to %s.",
+                            starter.get(PROCESS),
+                            starter.get(ACTIVITY),
+                            (previous.status >= 0) ? c_statuses[previous.status] : "UNKNOWN",
+                            c_statuses[status]
+                    )
+            );
+        }
+
+        for (int i = 0; publish && i < c_statuses.length; i++) {
+            if (previous.time[i] > 0) {
+                this.registry.counter("bwengine.starters.status.time", "Time the starter spent in each status.", "ms", 64)
+                        .series(previous.byStatus[i])
+                        .set(TimeUnit.NANOSECONDS.toMillis(previous.time[i]));
+            }
+            if (previous.transitions[i] > 0) {
+                this.registry.counter("bwengine.starters.transitions", "Number of times the starter went into each status.", null, 64)
+                        .series(previous.byStatus[i])
+                        .set(previous.transitions[i]);
+            }
+        }
+
+        boolean surged = this.surge > 0
+                && creationRate >= this.surgeMin
+                && creationRate >= previous.creationRate * this.surge;
+        previous.update(status, creationRate, now);
+        return surged;
+    }
+
+    private static final class Starter {
+
+        private final Attributes[] byStatus = new Attributes[c_statuses.length];
+        private final long[] time = new long[c_statuses.length];
+        private final long[] transitions = new long[c_statuses.length];
+
+        private int status;
+        private long creationRate;
+        private long seen;
+
+        private Starter(Attributes starter) {
+            for (int i = 0; i < c_statuses.length; i++) {
+                this.byStatus[i] = starter.toBuilder().put(STATUS, c_statuses[i]).build();
+            }
+        }
+
+        private void update(int status, long creationRate, long seen) {
+            this.status = status;
+            this.creationRate = creationRate;
+            this.seen = seen;
+        }
+    }
 }
 
 /*
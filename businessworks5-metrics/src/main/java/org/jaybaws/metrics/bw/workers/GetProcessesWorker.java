@@ -0,0 +1,316 @@
+package org.jaybaws.metrics.bw.workers;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.OperationsException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import org.jaybaws.metrics.bw.util.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
+
+/**
+ * Finds the jobs that have been running for long, e.g. stuck on a call that never returns, before they show as
+ * exhausted engine threads.
+ *
+ * Listing all running jobs of a busy engine every cycle would cost more than the monitoring is worth. Instead, every
+ * cycle lists the jobs of at most 'sample' process definitions, taking turns among the definitions whose starters
+ * report running jobs (see {@link GetProcessStartersWorker#running()}). Of every listing, only the 'top' oldest jobs
+ * are kept, in an index per definition. Between two listings of a definition, its indexed jobs keep the age they had
+ * when it was last listed: a job may have completed since, so its age is not extrapolated, and a job only crosses the
+ * threshold in a listing that saw it. A definition without running jobs drops out of the index.
+ *
+ * Reports {@code bwengine.process.age} (ms) per indexed job ({@code process} and {@code id} attributes),
+ * {@code bwengine.process.oldest} (ms) per definition, and {@code bwengine.process.long_running}: the number of
+ * indexed jobs older than 'threshold'. A job crossing that threshold is logged, with the activity it is in.
+ *
+ * The arguments of the GetProcesses method are looked up in the MBean's info: the one named like
+ * {@code MainProcessName} gets the definition, the others are left empty.
+ */
+public class GetProcessesWorker implements Scraper {
+
+    private static final AttributeKey<String> PROCESS = AttributeKey.stringKey("process");
+    private static final AttributeKey<String> ID = AttributeKey.stringKey("id");
+
+    private static final String c_method = "GetProcesses";
+
+    private final MBeanServerConnection mbsc;
+    private final ObjectName objectName;
+    private final Supplier<Map<String, Long>> running;
+
+    private int sample = 4;
+    private int top = 5;
+    private long threshold = TimeUnit.MINUTES.toMillis(5);
+
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
+
+    /*
+     * Scrape thread only.
+     */
+    private String[] signature;
+    private int definitionArgument = -1;
+    private String cursor = "";
+    private final Map<String, List<Job>> index = new HashMap<>();
+
+    /**
+     * @param running the number of running jobs per process definition.
+     */
+    public GetProcessesWorker(OpenTelemetry sdk, MBeanServerConnection mbsc, ObjectName objectName, Supplier<Map<String, Long>> running, RegistryConfig registryConfig, Attributes engine) {
+        this.mbsc = mbsc;
+        this.objectName = objectName;
+        this.running = running;
+
+        Meter meter = sdk.getMeter("com.tibco.bw.hawkmethod.getprocesses");
+        this.registry = new SeriesRegistry(meter, registryConfig).withAttributes(engine);
+        this.metrics = new CollectorMetrics(meter, "getprocesses", this.registry, engine);
+    }
+
+    /**
+     * @param sample the number of process definitions to list per cycle (default 4).
+     * @param top the number of oldest jobs to keep per definition (default 5).
+     * @param threshold the age from which a job counts as long running (default 5 minutes), {@code 0} for never.
+     */
+    public GetProcessesWorker withSample(int sample, int top, long threshold, TimeUnit unit) {
+        this.sample = Math.max(1, sample);
+        this.top = Math.max(1, top);
+        this.threshold = unit.toMillis(Math.max(0, threshold));
+        return this;
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void run() {
+        Logger.entering(this.getClass().getCanonicalName(), "run");
+
+        long started = this.metrics.scrapeStarted();
+
+        try {
+            if (this.signature == null) {
+                lookup();
+            }
+
+            Map<String, Long> running = this.running.get();
+            this.index.keySet().removeIf(definition -> running.getOrDefault(definition, 0L) <= 0);
+
+            int rows = 0;
+            for (String definition : next(running)) {
+                rows += list(definition);
+            }
+            this.metrics.rows(rows);
+
+            report();
+            this.registry.completeCycle();
+            this.metrics.scrapeSucceeded(started);
+        } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
+            Logger.warning("Exception invoking '" + c_method + "'...", t);
+        }
+
+        Logger.exiting(this.getClass().getCanonicalName(), "run");
+    }
+
+    /*
+     * The next 'sample' definitions with running jobs, in turn.
+     */
+    private List<String> next(Map<String, Long> running) {
+        TreeSet<String> busy = new TreeSet<>();
+        for (Map.Entry<String, Long> entry : running.entrySet()) {
+            if (entry.getValue() > 0) {
+                busy.add(entry.getKey());
+            }
+        }
+
+        List<String> next = new ArrayList<>();
+        Iterator<String> it = busy.tailSet(this.cursor, false).iterator();
+        while (next.size() < this.sample && next.size() < busy.size()) {
+            if (!it.hasNext()) {
+                it = busy.iterator();
+            }
+            next.add(it.next());
+        }
+        if (!next.isEmpty()) {
+            this.cursor = next.get(next.size() - 1);
+        }
+        return next;
+    }
+
+    /*
+     * Lists the running jobs of one definition, and keeps the oldest in the index.
+     */
+    private int list(String definition) throws Exception {
+        Object[] arguments = new Object[this.signature.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = empty(this.signature[i]);
+        }
+        arguments[this.definitionArgument] = definition;
+
+        long call = System.nanoTime();
+        TabularData result = (TabularData) this.mbsc.invoke(this.objectName, c_method, arguments, this.signature);
+        this.metrics.callCompleted(c_method, call);
+
+        long now = System.currentTimeMillis();
+        PriorityQueue<Job> oldest = new PriorityQueue<>(Comparator.comparingLong(job -> -job.started));
+        Map<String, Job> known = new HashMap<>();
+        for (Job job : this.index.getOrDefault(definition, Collections.emptyList())) {
+            known.put(job.id, job);
+        }
+
+        int rows = 0;
+        if (result != null) {
+            for (Object value : result.values()) {
+                CompositeData row = (CompositeData) value;
+                rows++;
+
+                Object id = get(row, "Id");
+                Object duration = get(row, "Duration");
+                if (id == null || !(duration instanceof Number)) {
+                    continue;
+                }
+
+                Job job = known.get(id.toString());
+                if (job == null) {
+                    job = new Job(id.toString(), definition, now - ((Number) duration).longValue());
+                }
+                job.age = now - job.started;
+                Object activity = get(row, "CurrentActivityName");
+                job.activity = (activity == null) ? null : activity.toString();
+
+                /*
+                 * Keeps the 'top' oldest: the queue's head is the youngest of them.
+                 */
+                oldest.add(job);
+                if (oldest.size() > this.top) {
+                    oldest.poll();
+                }
+            }
+        }
+
+        List<Job> jobs = new ArrayList<>(oldest);
+        jobs.sort(Comparator.comparingLong(job -> job.started));
+        this.index.put(definition, jobs);
+        return rows;
+    }
+
+    private void report() {
+        for (Map.Entry<String, List<Job>> entry : this.index.entrySet()) {
+            long oldest = 0;
+            int longRunning = 0;
+
+            for (Job job : entry.getValue()) {
+                long age = job.age;
+                oldest = Math.max(oldest, age);
+                this.registry.gauge("bwengine.process.age", "Age of one of the oldest running jobs of the process definition.", "ms")
+                        .series(job.attributes)
+                        .set(age);
+
+                if (this.threshold > 0 && age >= this.threshold) {
+                    longRunning++;
+                    if (!job.reported) {
+                        job.reported = true;
+                        Logger.info(
+                                String.format(
+                                        "Job %s of '%s' has been running for %d second(s), in activity '%s'.",
+                                        job.id,
+                                        job.definition,
+                                        TimeUnit.MILLISECONDS.toSeconds(age),
+                                        job.activity
+                                )
+                        );
+                    }
+                }
+            }
+
+            this.registry.gauge("bwengine.process.oldest", "Age of the oldest running job of the process definition.", "ms")
+                    .series(PROCESS, entry.getKey())
+                    .set(oldest);
+            this.registry.gauge("bwengine.process.long_running", "Number of the oldest running jobs that are over the threshold.", null)
+                    .series(PROCESS, entry.getKey())
+                    .set(longRunning);
+        }
+    }
+
+    /*
+     * Finds the method's signature, and the argument that takes the process definition.
+     */
+    private void lookup() throws Exception {
+        for (MBeanOperationInfo operation : this.mbsc.getMBeanInfo(this.objectName).getOperations()) {
+            if (!operation.getName().equals(c_method)) {
+                continue;
+            }
+            MBeanParameterInfo[] parameters = operation.getSignature();
+            String[] signature = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                signature[i] = parameters[i].getType();
+                if (parameters[i].getName().toLowerCase().contains("mainprocess") && String.class.getName().equals(signature[i])) {
+                    this.definitionArgument = i;
+                }
+            }
+            if (this.definitionArgument >= 0) {
+                this.signature = signature;
+                return;
+            }
+        }
+        throw new OperationsException(String.format("No %s(..., MainProcessName, ...) on [%s].", c_method, this.objectName));
+    }
+
+    private static Object empty(String type) {
+        switch (type) {
+            case "long":
+            case "java.lang.Long":
+                return 0L;
+            case "int":
+            case "java.lang.Integer":
+                return 0;
+            case "boolean":
+            case "java.lang.Boolean":
+                return false;
+            default:
+                return null;
+        }
+    }
+
+    private static Object get(CompositeData row, String item) {
+        return row.containsKey(item) ? row.get(item) : null;
+    }
+
+    private static final class Job {
+
+        private final String id;
+        private final String definition;
+        private final long started;
+        private final Attributes attributes;
+        private long age;
+        private String activity;
+        private boolean reported = false;
+
+        private Job(String id, String definition, long started) {
+            this.id = id;
+            this.definition = definition;
+            this.started = started;
+            this.attributes = Attributes.of(PROCESS, definition, ID, id);
+        }
+    }
+}
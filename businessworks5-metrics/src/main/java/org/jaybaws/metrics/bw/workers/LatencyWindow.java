@@ -0,0 +1,135 @@
+package org.jaybaws.metrics.bw.workers;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of one process definition over the last 'size' cycles, derived from the cumulative {@code Completed},
+ * {@code TotalExecution} and {@code TotalElapsed} Hawk reports, rather than from the engine-lifetime averages.
+ *
+ * Every cycle gives one interval: the mean execution and elapsed time of the jobs completed in it (the increase of
+ * the total over the increase of the completions), weighted by their number. The window's quantiles are taken over
+ * those interval means, weighted, so they follow the current latency within a cycle. Hawk does not report single
+ * jobs, so a quantile is that of the interval means: a slow minute shows, a single slow job among many does not.
+ *
+ * A total that goes down means the engine restarted (or its statistics were reset): the window starts over.
+ */
+final class LatencyWindow {
+
+    static final int EXECUTION = 0;
+    static final int ELAPSED = 1;
+
+    private static final long c_nanos_per_hour = TimeUnit.HOURS.toNanos(1);
+
+    /*
+     * Per interval, in a ring: the completions, the total execution and elapsed time, and the duration (nanos).
+     */
+    private final long[] completed;
+    private final long[][] totals;
+    private final long[] durations;
+    private int next = 0;
+    private int filled = 0;
+
+    private long lastCompleted = -1;
+    private final long[] lastTotals = new long[2];
+    private long lastSeen;
+
+    LatencyWindow(int size) {
+        this.completed = new long[Math.max(1, size)];
+        this.totals = new long[2][this.completed.length];
+        this.durations = new long[this.completed.length];
+    }
+
+    /**
+     * Closes an interval.
+     *
+     * @return false when there is no interval to close yet: at the first observation, and after a restart.
+     */
+    boolean observe(long completed, long execution, long elapsed, long now) {
+        boolean restarted = completed < this.lastCompleted || execution < this.lastTotals[EXECUTION] || elapsed < this.lastTotals[ELAPSED];
+        boolean first = this.lastCompleted < 0;
+
+        if (!first && !restarted) {
+            this.completed[this.next] = completed - this.lastCompleted;
+            this.totals[EXECUTION][this.next] = execution - this.lastTotals[EXECUTION];
+            this.totals[ELAPSED][this.next] = elapsed - this.lastTotals[ELAPSED];
+            this.durations[this.next] = now - this.lastSeen;
+            this.next = (this.next + 1) % this.completed.length;
+            this.filled = Math.min(this.completed.length, this.filled + 1);
+        } else if (restarted) {
+            this.next = 0;
+            this.filled = 0;
+        }
+
+        this.lastCompleted = completed;
+        this.lastTotals[EXECUTION] = execution;
+        this.lastTotals[ELAPSED] = elapsed;
+        this.lastSeen = now;
+        return !first && !restarted;
+    }
+
+    /**
+     * @return the mean time (milliseconds) of the jobs completed in the last interval, {@code -1} if none did.
+     */
+    long last(int which) {
+        if (this.filled == 0) {
+            return -1;
+        }
+        int last = (this.next + this.completed.length - 1) % this.completed.length;
+        return (this.completed[last] == 0) ? -1 : this.totals[which][last] / this.completed[last];
+    }
+
+    /**
+     * @return the interval mean (milliseconds) below which fraction 'q' of the window's completions fall, {@code -1}
+     * if no job completed within the window.
+     */
+    long quantile(int which, double q) {
+        long[] means = new long[this.filled];
+        long[] weights = new long[this.filled];
+        int n = 0;
+        long count = 0;
+
+        for (int i = 0; i < this.filled; i++) {
+            if (this.completed[i] > 0) {
+                means[n] = this.totals[which][i] / this.completed[i];
+                weights[n] = this.completed[i];
+                count += weights[n];
+                n++;
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+
+        /*
+         * A handful of intervals: sort them by mean, weights along.
+         */
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(means[a], means[b]));
+
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (Integer i : order) {
+            seen += weights[i];
+            if (seen >= rank) {
+                return means[i];
+            }
+        }
+        return means[order[n - 1]];
+    }
+
+    /**
+     * @return the completions per hour over the window, {@code -1} before the first interval.
+     */
+    long throughput() {
+        long count = 0;
+        long duration = 0;
+        for (int i = 0; i < this.filled; i++) {
+            count += this.completed[i];
+            duration += this.durations[i];
+        }
+        return (duration <= 0) ? -1 : (long) ((double) count * c_nanos_per_hour / duration);
+    }
+}
@@ -0,0 +1,182 @@
+package org.jaybaws.metrics.bw.instrument;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import org.junit.After;
+import org.junit.Test;
+
+public class TimingsTest {
+
+    @After
+    public void tearDown() {
+        Timings.install(null);
+    }
+
+    @Test
+    public void timesWovenActivitiesPerActivityClass() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(reader).build();
+        Timings.install(new Timings(provider.get("test"), 2, 2, "getName"));
+
+        Object mapper = weave(MapperActivity.class).getDeclaredConstructor().newInstance();
+        Object failing = weave(FailingActivity.class).getDeclaredConstructor().newInstance();
+        Object other = weave(OtherActivity.class).getDeclaredConstructor().newInstance();
+
+        for (int i = 0; i < 10; i++) {
+            eval(mapper);
+        }
+        try {
+            eval(failing);
+        } catch (InvocationTargetException e) {
+            /* still timed */
+        }
+        eval(other);
+
+        Map<String, Long> counts = new HashMap<>();
+        double median = -1;
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("bwengine.activity.latency.count")) {
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    counts.put(point.getAttributes().get(AttributeKey.stringKey("activityClass")), point.getValue());
+                }
+            } else if (metric.getName().equals("bwengine.activity.latency")) {
+                Attributes attributes = Attributes.of(
+                        AttributeKey.stringKey("activityClass"), MapperActivity.class.getName(),
+                        AttributeKey.doubleKey("quantile"), 0.5
+                );
+                median = metric.getDoubleGaugeData().getPoints().stream()
+                        .filter(p -> p.getAttributes().equals(attributes))
+                        .findFirst()
+                        .get()
+                        .getValue();
+            }
+        }
+
+        assertEquals(Long.valueOf(10), counts.get(MapperActivity.class.getName()));
+        assertEquals(Long.valueOf(1), counts.get(FailingActivity.class.getName()));
+        assertEquals(Long.valueOf(1), counts.get("__overflow__"));
+        assertTrue(median > 0);
+    }
+
+    @Test
+    public void reportsTheIntervalToEveryReader() throws Exception {
+        InMemoryMetricReader first = InMemoryMetricReader.create();
+        InMemoryMetricReader second = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(first).registerMetricReader(second).build();
+        Timings.install(new Timings(provider.get("test"), 2, 2, "getName", 60_000));
+
+        Object mapper = weave(MapperActivity.class).getDeclaredConstructor().newInstance();
+        for (int i = 0; i < 5; i++) {
+            eval(mapper);
+        }
+
+        double median = median(first.collectAllMetrics());
+        assertTrue(median > 0);
+        assertEquals(median, median(second.collectAllMetrics()), 0);
+    }
+
+    @Test
+    public void timesAnOverrideThatCallsSuperOnce() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(reader).build();
+        Timings.install(new Timings(provider.get("test"), 2, 2, "getName"));
+
+        Class<?> derived = new ByteBuddy()
+                .redefine(MapperActivity.class)
+                .visit(Advice.to(ActivityAdvice.class).on(named("eval")))
+                .make()
+                .include(new ByteBuddy()
+                        .redefine(DerivedActivity.class)
+                        .visit(Advice.to(ActivityAdvice.class).on(named("eval")))
+                        .make())
+                .load(DerivedActivity.class.getClassLoader(), ClassLoadingStrategy.Default.CHILD_FIRST)
+                .getLoadedAuxiliaryTypes()
+                .get(new TypeDescription.ForLoadedType(DerivedActivity.class));
+        Object activity = derived.getDeclaredConstructor().newInstance();
+
+        for (int i = 0; i < 3; i++) {
+            eval(activity);
+        }
+
+        long count = -1;
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("bwengine.activity.latency.count")) {
+                count = metric.getLongSumData().getPoints().iterator().next().getValue();
+            }
+        }
+        assertEquals(3, count);
+    }
+
+    private static double median(Collection<MetricData> metrics) {
+        Attributes attributes = Attributes.of(
+                AttributeKey.stringKey("activityClass"), MapperActivity.class.getName(),
+                AttributeKey.doubleKey("quantile"), 0.5
+        );
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals("bwengine.activity.latency")) {
+                for (DoublePointData point : metric.getDoubleGaugeData().getPoints()) {
+                    if (point.getAttributes().equals(attributes)) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static Class<?> weave(Class<?> activity) {
+        return new ByteBuddy()
+                .redefine(activity)
+                .visit(Advice.to(ActivityAdvice.class).on(named("eval")))
+                .make()
+                .load(activity.getClassLoader(), ClassLoadingStrategy.Default.CHILD_FIRST)
+                .getLoaded();
+    }
+
+    private static void eval(Object activity) throws Exception {
+        Method eval = activity.getClass().getMethod("eval", Object.class, Object.class);
+        eval.invoke(activity, null, null);
+    }
+
+    public static class MapperActivity {
+        public Object eval(Object context, Object input) throws InterruptedException {
+            Thread.sleep(1);
+            return input;
+        }
+    }
+
+    public static class DerivedActivity extends MapperActivity {
+        @Override
+        public Object eval(Object context, Object input) throws InterruptedException {
+            return super.eval(context, input);
+        }
+    }
+
+    public static class FailingActivity {
+        public Object eval(Object context, Object input) {
+            throw new IllegalStateException("failed");
+        }
+    }
+
+    public static class OtherActivity {
+        public Object eval(Object context, Object input) {
+            return input;
+        }
+    }
+}
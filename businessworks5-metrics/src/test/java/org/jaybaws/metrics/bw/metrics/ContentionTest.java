@@ -0,0 +1,145 @@
+package org.jaybaws.metrics.bw.metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Test;
+
+public class ContentionTest {
+
+    private static final AttributeKey<String> GROUP = AttributeKey.stringKey("group");
+    private static final AttributeKey<String> THREAD_NAME = AttributeKey.stringKey("thread.name");
+
+    @Test
+    public void reportsTheBlockedThreadsAndTheirLockOwner() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Contention contention = new Contention(sdk).withGroups("waiters=contention-test-waiter-\\d+").withDeadlockCheck(0, 50, TimeUnit.MILLISECONDS);
+        contention.run();
+
+        Object monitor = new Object();
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            synchronized (monitor) {
+                holding.countDown();
+                await(release);
+            }
+        }, "contention-test-owner");
+        owner.start();
+        holding.await();
+
+        Thread[] waiters = new Thread[2];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new Thread(() -> {
+                synchronized (monitor) {
+                    monitor.hashCode();
+                }
+            }, "contention-test-waiter-" + i);
+            waiters[i].start();
+        }
+        Thread.sleep(200);
+
+        contention.run();
+        Collection<MetricData> metrics = reader.collectAllMetrics();
+
+        release.countDown();
+        owner.join();
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+
+        assertEquals(2, value(metrics, "jvm.threads.lock.owner.waiters", THREAD_NAME, "contention-test-owner"));
+        assertTrue(value(metrics, "jvm.threads.lock.owner.time", THREAD_NAME, "contention-test-owner") >= 0);
+        assertTrue(value(metrics, "jvm.threads.blocked.count", GROUP, "waiters") >= 2);
+
+        /*
+         * Released since: the owner no longer reports.
+         */
+        contention.run();
+        metrics = reader.collectAllMetrics();
+        assertEquals(-1, value(metrics, "jvm.threads.lock.owner.waiters", THREAD_NAME, "contention-test-owner"));
+        assertFalse(contention.metrics().failing());
+    }
+
+    @Test
+    public void findsDeadlocks() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Contention contention = new Contention(sdk).withDeadlockCheck(1, 1, TimeUnit.SECONDS);
+
+        ReentrantLock first = new ReentrantLock();
+        ReentrantLock second = new ReentrantLock();
+        CountDownLatch locked = new CountDownLatch(2);
+        Thread a = new Thread(() -> deadlock(first, second, locked), "contention-test-a");
+        Thread b = new Thread(() -> deadlock(second, first, locked), "contention-test-b");
+        a.start();
+        b.start();
+        Thread.sleep(200);
+
+        contention.run();
+        assertEquals(2, value(reader.collectAllMetrics(), "jvm.threads.deadlocked", null, null));
+
+        a.interrupt();
+        b.interrupt();
+        a.join();
+        b.join();
+
+        contention.run();
+        assertEquals(0, value(reader.collectAllMetrics(), "jvm.threads.deadlocked", null, null));
+    }
+
+    private static void deadlock(ReentrantLock mine, ReentrantLock theirs, CountDownLatch locked) {
+        mine.lock();
+        try {
+            locked.countDown();
+            await(locked);
+            theirs.lockInterruptibly();
+            theirs.unlock();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mine.unlock();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long value(Collection<MetricData> metrics, String name, AttributeKey<String> key, String value) {
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals(name)) {
+                Collection<LongPointData> points = (metric.getType() == MetricDataType.LONG_SUM)
+                        ? metric.getLongSumData().getPoints()
+                        : metric.getLongGaugeData().getPoints();
+                for (LongPointData point : points) {
+                    if (key == null || value.equals(point.getAttributes().get(key))) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package org.jaybaws.metrics.bw.metrics;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.Test;
+
+public class GCTest {
+
+    @Test
+    public void recordsEveryCollectionFromItsNotification() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        GC.instrument(sdk);
+        System.gc();
+
+        /*
+         * The notification arrives on the JVM's own thread, shortly after the collection.
+         */
+        long pauses = 0;
+        boolean heapAfter = false;
+        for (int i = 0; i < 50 && (pauses == 0 || !heapAfter); i++) {
+            Thread.sleep(100);
+            for (MetricData metric : reader.collectAllMetrics()) {
+                if (metric.getName().equals("jvm.gc.pause")) {
+                    for (HistogramPointData point : metric.getHistogramData().getPoints()) {
+                        pauses += point.getCount();
+                    }
+                } else if (metric.getName().equals("jvm.gc.heap.after")) {
+                    heapAfter = true;
+                }
+            }
+        }
+
+        assertTrue(pauses > 0);
+        assertTrue(heapAfter);
+    }
+}
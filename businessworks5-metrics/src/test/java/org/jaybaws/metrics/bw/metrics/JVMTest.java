@@ -0,0 +1,37 @@
+package org.jaybaws.metrics.bw.metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class JVMTest {
+
+    @Test
+    public void observesEveryMXBeanInOneBatch() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        JVM.instrument(sdk);
+
+        Map<String, MetricData> metrics = new HashMap<>();
+        for (MetricData metric : reader.collectAllMetrics()) {
+            metrics.put(metric.getName(), metric);
+        }
+
+        assertEquals(
+                ManagementFactory.getMemoryPoolMXBeans().size(),
+                metrics.get("jvm.memory.used").getLongSumData().getPoints().size()
+        );
+        long nonHeap = metrics.get("jvm.memory.non_heap.used").getLongSumData().getPoints().iterator().next().getValue();
+        assertTrue(nonHeap > 0 && nonHeap <= ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getCommitted() * 2);
+        assertTrue(metrics.containsKey("process.cpu.time"));
+    }
+}
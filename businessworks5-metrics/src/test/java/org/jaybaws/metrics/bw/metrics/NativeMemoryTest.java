@@ -0,0 +1,105 @@
+package org.jaybaws.metrics.bw.metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeMemoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheProcessMemoryFromProcfs() throws Exception {
+        File status = this.folder.newFile("status");
+        File smapsRollup = this.folder.newFile("smaps_rollup");
+        Files.write(
+                status.toPath(),
+                Arrays.asList(
+                        "Name:\tjava",
+                        "VmHWM:\t  204800 kB",
+                        "VmRSS:\t  102400 kB",
+                        "RssAnon:\t   81920 kB",
+                        "RssFile:\t   20480 kB",
+                        "VmSwap:\t       0 kB",
+                        "Threads:\t42"
+                ),
+                StandardCharsets.US_ASCII
+        );
+        Files.write(
+                smapsRollup.toPath(),
+                Arrays.asList(
+                        "55d1c0a00000-7ffd3b7fe000 ---p 00000000 00:00 0                          [rollup]",
+                        "Rss:              102400 kB",
+                        "Pss:               98304 kB",
+                        "Pss_Anon:          81920 kB",
+                        "Anonymous:         81920 kB"
+                ),
+                StandardCharsets.US_ASCII
+        );
+
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        NativeMemory.instrument(sdk, status.getPath(), smapsRollup.getPath());
+
+        Collection<MetricData> metrics = reader.collectAllMetrics();
+        assertEquals(102400L * 1024, value(metrics, "process.memory.rss", null));
+        assertEquals(204800L * 1024, value(metrics, "process.memory.rss.peak", null));
+        assertEquals(81920L * 1024, value(metrics, "process.memory.rss.anonymous", null));
+        assertEquals(0, value(metrics, "process.memory.swap", null));
+        assertEquals(98304L * 1024, value(metrics, "process.memory.pss", null));
+        assertEquals(81920L * 1024, value(metrics, "process.memory.anonymous", null));
+        assertTrue(value(metrics, "jvm.buffer.memory.used", "direct") >= 0);
+
+        /*
+         * The files are read again on every collection.
+         */
+        Files.write(status.toPath(), Arrays.asList("VmRSS:\t  51200 kB"), StandardCharsets.US_ASCII);
+        metrics = reader.collectAllMetrics();
+        assertEquals(51200L * 1024, value(metrics, "process.memory.rss", null));
+        assertEquals(-1, value(metrics, "process.memory.rss.peak", null));
+    }
+
+    @Test
+    public void reportsTheBufferPoolsWithoutProcfs() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        NativeMemory.instrument(sdk, new File(this.folder.getRoot(), "none").getPath(), new File(this.folder.getRoot(), "none").getPath());
+
+        Collection<MetricData> metrics = reader.collectAllMetrics();
+        assertEquals(-1, value(metrics, "process.memory.rss", null));
+        assertFalse(value(metrics, "jvm.buffer.count", "direct") < 0);
+    }
+
+    private static long value(Collection<MetricData> metrics, String name, String pool) {
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals(name)) {
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    if (pool == null || pool.equals(point.getAttributes().get(AttributeKey.stringKey("pool")))) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
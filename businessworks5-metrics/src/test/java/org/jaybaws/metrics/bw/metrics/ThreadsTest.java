@@ -0,0 +1,104 @@
+package org.jaybaws.metrics.bw.metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ThreadsTest {
+
+    private static final AttributeKey<String> GROUP = AttributeKey.stringKey("group");
+    private static final AttributeKey<String> THREAD_NAME = AttributeKey.stringKey("thread.name");
+
+    private static volatile byte[] c_sink;
+
+    @Test
+    public void attributesTheCpuTimeOfTheThreadsToTheirGroup() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Threads threads = new Threads(sdk).withGroups("busy=threads-test-busy-\\d+ ; idle=threads-test-idle").withTop(1, 500);
+        threads.run();
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread busy = new Thread(() -> {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+            while (System.nanoTime() < until) {
+                c_sink = new byte[1024];
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "threads-test-busy-1");
+        busy.start();
+        Thread.sleep(400);
+
+        threads.run();
+        Collection<MetricData> metrics = reader.collectAllMetrics();
+        done.countDown();
+        busy.join();
+
+        assertTrue(value(metrics, "jvm.threads.cpu.time", GROUP, "busy") >= 100);
+        assertTrue(value(metrics, "jvm.threads.allocated", GROUP, "busy") > 0);
+        assertEquals(1, value(metrics, "jvm.threads.count", GROUP, "busy"));
+        assertEquals(0, value(metrics, "jvm.threads.count", GROUP, "idle"));
+        assertTrue(value(metrics, "jvm.threads.count", GROUP, "other") > 0);
+
+        List<String> hot = values(metrics, "jvm.threads.hot.cpu.time", THREAD_NAME);
+        assertEquals(1, hot.size());
+        assertEquals("threads-test-busy-1", hot.get(0));
+        assertFalse(threads.metrics().failing());
+
+        /*
+         * Ended since: it drops out of the top and the count, its group keeps its CPU time.
+         */
+        threads.run();
+        metrics = reader.collectAllMetrics();
+        assertFalse(values(metrics, "jvm.threads.hot.cpu.time", THREAD_NAME).contains("threads-test-busy-1"));
+        assertTrue(value(metrics, "jvm.threads.cpu.time", GROUP, "busy") >= 100);
+        assertEquals(0, value(metrics, "jvm.threads.count", GROUP, "busy"));
+    }
+
+    private static long value(Collection<MetricData> metrics, String name, AttributeKey<String> key, String value) {
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals(name)) {
+                Collection<LongPointData> points = metric.getType() == MetricDataType.LONG_SUM
+                        ? metric.getLongSumData().getPoints()
+                        : metric.getLongGaugeData().getPoints();
+                for (LongPointData point : points) {
+                    if (value.equals(point.getAttributes().get(key))) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> values(Collection<MetricData> metrics, String name, AttributeKey<String> key) {
+        List<String> values = new ArrayList<>();
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals(name)) {
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    values.add(point.getAttributes().get(key));
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,97 @@
+package org.jaybaws.metrics.bw.pipeline;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
+import org.junit.Test;
+
+public class LoadGovernorTest {
+
+    @Test
+    public void defersTheGovernedStagesWhileStartersAreFlowControlled() {
+        AtomicInteger flowControlled = new AtomicInteger(1);
+        AtomicInteger status = new AtomicInteger();
+        AtomicInteger activities = new AtomicInteger();
+
+        LoadGovernor governor = governor(0, 2).withFlowControl(flowControlled::get);
+        Pipeline pipeline = new Pipeline(
+                OpenTelemetry.noop(),
+                Arrays.asList(
+                        new Stage("getexecinfo", new Counter(status), false, 1),
+                        new Stage("getactivities", new Counter(activities), true, 1)
+                ),
+                5_000,
+                0,
+                Attributes.empty()
+        ).withGovernor(governor);
+
+        /*
+         * Deferred twice, then run anyway, then deferred again.
+         */
+        for (int i = 0; i < 4; i++) {
+            pipeline.run();
+        }
+        assertEquals(4, status.get());
+        assertEquals(1, activities.get());
+        assertFalse(pipeline.metrics().failing());
+
+        flowControlled.set(0);
+        pipeline.run();
+        assertEquals(2, activities.get());
+    }
+
+    @Test
+    public void takesBusyThreadsAndSlowCheapStagesForLoad() {
+        AtomicInteger active = new AtomicInteger(8);
+        LoadGovernor governor = governor(1_000, 0).withThreads(() -> 8, active::get);
+        Stage cheap = new Stage("getexecinfo", new Counter(new AtomicInteger()), false, 1);
+
+        assertEquals(LoadGovernor.THREADS, governor.pressure());
+
+        active.set(2);
+        governor.observe(cheap, TimeUnit.SECONDS.toNanos(2));
+        assertEquals(LoadGovernor.LATENCY, governor.pressure());
+
+        governor.observe(cheap, TimeUnit.MILLISECONDS.toNanos(5));
+        assertNull(governor.pressure());
+    }
+
+    private static LoadGovernor governor(long latency, int maxDefer) {
+        return new LoadGovernor(
+                OpenTelemetry.noop(),
+                Attributes.empty(),
+                Collections.singleton("getactivities"),
+                0.9,
+                latency,
+                TimeUnit.MILLISECONDS,
+                maxDefer
+        );
+    }
+
+    private static final class Counter implements Scraper {
+
+        private final CollectorMetrics metrics = new CollectorMetrics(OpenTelemetry.noop().getMeter("test"), "test");
+        private final AtomicInteger runs;
+
+        private Counter(AtomicInteger runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public CollectorMetrics metrics() {
+            return this.metrics;
+        }
+
+        @Override
+        public void run() {
+            this.runs.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.jaybaws.metrics.bw.pipeline;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import org.jaybaws.metrics.bw.workers.GetExecInfoWorker;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Scraper;
+import org.junit.Test;
+
+public class PipelineTest {
+
+    @Test
+    public void heavyStagesNeverOverlap() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+
+        Pipeline pipeline = new Pipeline(
+                OpenTelemetry.noop(),
+                Arrays.asList(
+                        new Stage("a", new Sleeper(running, overlaps, 50), true, 1),
+                        new Stage("b", new Sleeper(running, overlaps, 50), true, 1),
+                        new Stage("c", new Sleeper(running, overlaps, 50), true, 1)
+                ),
+                5_000,
+                3
+        );
+        pipeline.run();
+        pipeline.shutdown();
+
+        assertEquals(0, overlaps.get());
+        assertFalse(pipeline.metrics().failing());
+    }
+
+    @Test
+    public void runsStagesOnlyWhenDue() {
+        AtomicInteger every = new AtomicInteger();
+        AtomicInteger third = new AtomicInteger();
+
+        Pipeline pipeline = new Pipeline(
+                OpenTelemetry.noop(),
+                Arrays.asList(
+                        new Stage("every", new Counter(every), false, 1),
+                        new Stage("third", new Counter(third), false, 3)
+                ),
+                5_000,
+                2
+        );
+        for (int i = 0; i < 6; i++) {
+            pipeline.run();
+        }
+        pipeline.shutdown();
+
+        assertEquals(6, every.get());
+        assertEquals(2, third.get());
+    }
+
+    @Test
+    public void failsTheCycleWhenAStageOutlivesTheDeadline() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+
+        Pipeline pipeline = new Pipeline(
+                OpenTelemetry.noop(),
+                Arrays.asList(new Stage("stuck", new Blocker(release), true, 1)),
+                50,
+                1
+        );
+        pipeline.run();
+        assertTrue(pipeline.metrics().failing());
+
+        /*
+         * The stuck stage is still running, so the next cycle skips it rather than piling up.
+         */
+        pipeline.run();
+        assertTrue(pipeline.metrics().failing());
+
+        release.countDown();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void runsStagesOnTheCallingThreadWithoutConcurrency() {
+        Thread caller = Thread.currentThread();
+        AtomicInteger elsewhere = new AtomicInteger();
+        Scraper worker = new TestWorker() {
+            @Override
+            public void run() {
+                if (Thread.currentThread() != caller) {
+                    elsewhere.incrementAndGet();
+                }
+            }
+        };
+
+        Pipeline pipeline = new Pipeline(
+                OpenTelemetry.noop(),
+                Arrays.asList(new Stage("a", worker, true, 1), new Stage("b", worker, false, 1)),
+                5_000,
+                0,
+                Attributes.empty()
+        );
+        pipeline.run();
+        pipeline.shutdown();
+
+        assertEquals(0, elsewhere.get());
+        assertFalse(pipeline.metrics().failing());
+    }
+
+    @Test
+    public void reportsTheCpuTimeOfTheStagesOnThePool() {
+        Scraper spinner = new TestWorker() {
+            @Override
+            public void run() {
+                long until = CollectorMetrics.threadCpuTime() + 50_000_000L;
+                while (CollectorMetrics.threadCpuTime() < until) {
+                    Thread.onSpinWait();
+                }
+                /*
+                 * And some more on a thread of its own.
+                 */
+                metrics().cpuUsed(20_000_000L);
+            }
+        };
+
+        Pipeline pipeline = new Pipeline(OpenTelemetry.noop(), Arrays.asList(new Stage("spin", spinner, false, 1)), 5_000, 1);
+        pipeline.run();
+        pipeline.shutdown();
+
+        assertTrue(pipeline.metrics().cpuTime() >= 70_000_000L);
+    }
+
+    @Test
+    public void stopsReportingTheStagesOnceShutDown() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName engine = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new StandardMBean(new Engine(), EngineMBean.class), engine);
+
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Pipeline pipeline = new Pipeline(sdk, Arrays.asList(new Stage("GetExecInfo", new GetExecInfoWorker(sdk, server, engine), false, 1)), 5_000, 0);
+        pipeline.run();
+        assertEquals(Arrays.asList(4L), statuses(reader));
+
+        pipeline.shutdown();
+        assertEquals(Collections.emptyList(), statuses(reader));
+        for (MetricData metric : reader.collectAllMetrics()) {
+            assertFalse(metric.getName(), metric.getName().startsWith("bwengine.") || metric.getName().equals("otel_metrics.collector.last_success.age"));
+        }
+
+        /*
+         * The engine's MBean came back: the new pipeline reports alone.
+         */
+        pipeline = new Pipeline(sdk, Arrays.asList(new Stage("GetExecInfo", new GetExecInfoWorker(sdk, server, engine), false, 1)), 5_000, 0);
+        pipeline.run();
+        assertEquals(Arrays.asList(4L), statuses(reader));
+        pipeline.shutdown();
+    }
+
+    private static List<Long> statuses(InMemoryMetricReader reader) {
+        List<Long> statuses = new ArrayList<>();
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("bwengine.status")) {
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    statuses.add(point.getValue());
+                }
+            }
+        }
+        return statuses;
+    }
+
+    public interface EngineMBean {
+        CompositeDataSupport GetExecInfo() throws OpenDataException;
+    }
+
+    public static class Engine implements EngineMBean {
+
+        @Override
+        public CompositeDataSupport GetExecInfo() throws OpenDataException {
+            String[] names = { "Status", "Uptime", "Threads" };
+            CompositeType type = new CompositeType(
+                    "GetExecInfo",
+                    "GetExecInfo",
+                    names,
+                    names,
+                    new OpenType<?>[] { SimpleType.STRING, SimpleType.LONG, SimpleType.INTEGER }
+            );
+            return new CompositeDataSupport(type, names, new Object[] { "ACTIVE", 1000L, 8 });
+        }
+    }
+
+    private abstract static class TestWorker implements Scraper {
+
+        private final CollectorMetrics metrics = new CollectorMetrics(OpenTelemetry.noop().getMeter("test"), "test");
+
+        @Override
+        public CollectorMetrics metrics() {
+            return this.metrics;
+        }
+    }
+
+    private static final class Sleeper extends TestWorker {
+
+        private final AtomicInteger running;
+        private final AtomicInteger overlaps;
+        private final long millis;
+
+        private Sleeper(AtomicInteger running, AtomicInteger overlaps, long millis) {
+            this.running = running;
+            this.overlaps = overlaps;
+            this.millis = millis;
+        }
+
+        @Override
+        public void run() {
+            if (this.running.incrementAndGet() > 1) {
+                this.overlaps.incrementAndGet();
+            }
+            try {
+                Thread.sleep(this.millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.running.decrementAndGet();
+        }
+    }
+
+    private static final class Counter extends TestWorker {
+
+        private final AtomicInteger runs;
+
+        private Counter(AtomicInteger runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public void run() {
+            this.runs.incrementAndGet();
+        }
+    }
+
+    private static final class Blocker extends TestWorker {
+
+        private final CountDownLatch release;
+
+        private Blocker(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.jaybaws.metrics.bw.pipeline;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.jaybaws.metrics.bw.workers.GetProcessStartersWorker;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.junit.Test;
+
+public class StarterBurstTest {
+
+    @Test
+    public void pollsTheStartersWhileFlowControlledAndOncePerCycle() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Engine engine = new Engine();
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new StandardMBean(engine, EngineMBean.class), name);
+
+        GetProcessStartersWorker starters = new GetProcessStartersWorker(sdk, server, name, RegistryConfig.DEFAULT);
+        Stage stage = new Stage("getprocessstarters", starters, true, 1);
+        StarterBurst burst = new StarterBurst(sdk, Attributes.empty(), stage, starters, 1, 100, TimeUnit.MILLISECONDS);
+
+        starters.run();
+        burst.run();
+        assertEquals(1, engine.calls);
+        assertFalse(burst.covers(stage));
+
+        engine.status = "FLOW-CONTROLLED";
+        starters.run();
+        burst.run();
+        burst.run();
+        assertEquals(4, engine.calls);
+        assertTrue(burst.covers(stage));
+        assertEquals(1, transitions(reader, "FLOW-CONTROLLED"));
+
+        /*
+         * A poll sees the starter recover, but leaves publishing the transition to the pipeline's runs.
+         */
+        engine.status = "ACTIVE";
+        burst.run();
+        assertEquals(5, engine.calls);
+        assertEquals(-1, transitions(reader, "ACTIVE"));
+        engine.status = "FLOW-CONTROLLED";
+        burst.run();
+        assertEquals(6, engine.calls);
+
+        /*
+         * Still throttled as the burst ends: the next one waits for the pipeline's next run.
+         */
+        Thread.sleep(150);
+        burst.run();
+        burst.run();
+        assertEquals(6, engine.calls);
+        assertFalse(burst.covers(stage));
+
+        starters.run();
+        burst.run();
+        assertEquals(8, engine.calls);
+        assertTrue(burst.covers(stage));
+        assertEquals(1, transitions(reader, "ACTIVE"));
+        assertEquals(2, transitions(reader, "FLOW-CONTROLLED"));
+        assertFalse(starters.metrics().failing());
+    }
+
+    @Test
+    public void pollsWhileASlowStageHoldsUpTheCycle() throws Exception {
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build())
+                .build();
+
+        Engine engine = new Engine();
+        engine.status = "FLOW-CONTROLLED";
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new StandardMBean(engine, EngineMBean.class), name);
+
+        GetProcessStartersWorker starters = new GetProcessStartersWorker(sdk, server, name, RegistryConfig.DEFAULT);
+        Stage stage = new Stage("getprocessstarters", starters, true, 1);
+        Pipeline pipeline = new Pipeline(
+                sdk,
+                Arrays.asList(stage, new Stage("slow", new Slow(sdk, 1_000), false, 1)),
+                5_000,
+                2
+        ).withBurst(new StarterBurst(sdk, Attributes.empty(), stage, starters, 20, 10_000, TimeUnit.MILLISECONDS));
+
+        /*
+         * Like the agent: the pipeline on a scheduler with one thread, the burst next to it.
+         */
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(Executors.newScheduledThreadPool(1), false, 0, 1, 1);
+        scheduler.schedule("pipeline", pipeline, 0, 60, TimeUnit.SECONDS);
+        AdaptiveScheduler burstScheduler = EnginePipeline.scheduleBurst(pipeline, 0, 20, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(800);
+        int calls = engine.calls;
+        scheduler.shutdown();
+        burstScheduler.shutdown();
+        pipeline.shutdown();
+
+        assertTrue(calls + " call(s)", calls >= 5);
+    }
+
+    private static long transitions(InMemoryMetricReader reader, String status) {
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("bwengine.starters.transitions")) {
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    if (status.equals(point.getAttributes().get(AttributeKey.stringKey("status")))) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    public interface EngineMBean {
+        TabularDataSupport GetProcessStarters() throws OpenDataException;
+    }
+
+    public static class Engine implements EngineMBean {
+
+        private volatile String status = "ACTIVE";
+        private volatile int calls = 0;
+
+        @Override
+        public TabularDataSupport GetProcessStarters() throws OpenDataException {
+            this.calls++;
+
+            String[] names = { "ProcessDef", "Name", "Status", "Created", "CreationRate", "Running", "Completed", "Duration" };
+            CompositeType rowType = new CompositeType(
+                    "GetProcessStarters",
+                    "GetProcessStarters",
+                    names,
+                    names,
+                    new OpenType<?>[] {
+                            SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER,
+                            SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG
+                    }
+            );
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("GetProcessStarters", "GetProcessStarters", rowType, new String[] { "ProcessDef" })
+            );
+            table.put(
+                    new CompositeDataSupport(
+                            rowType,
+                            names,
+                            new Object[] { "Orders.process", "JMS Queue Receiver", this.status, 10, 60, 1, 9, 1000L }
+                    )
+            );
+            return table;
+        }
+    }
+
+    private static final class Slow implements Scraper {
+
+        private final CollectorMetrics metrics;
+        private final long millis;
+
+        private Slow(OpenTelemetrySdk sdk, long millis) {
+            this.metrics = new CollectorMetrics(sdk.getMeter("test"), "slow");
+            this.millis = millis;
+        }
+
+        @Override
+        public CollectorMetrics metrics() {
+            return this.metrics;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(this.millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.jaybaws.metrics.bw.remote;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import javax.management.remote.JMXServiceURL;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BW5CollectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheEnginesThatEnableRemoteJmxInTraFiles() throws Exception {
+        File application = this.folder.newFolder("domain", "Dev", "application", "Orders");
+        Files.write(
+                new File(application, "Orders-Process_Archive.tra").toPath(),
+                Arrays.asList(
+                        "Hawk.AMI.DisplayName=COM.TIBCO.ADAPTER.bwengine.Dev.Orders.Process_Archive",
+                        "java.property.com.sun.management.jmxremote.port=9010"
+                ),
+                StandardCharsets.ISO_8859_1
+        );
+        Files.write(
+                new File(application, "hawkagent.tra").toPath(),
+                Arrays.asList("Hawk.AMI.DisplayName=hawkagent"),
+                StandardCharsets.ISO_8859_1
+        );
+
+        Map<String, JMXServiceURL> engines = BW5Collector.fromTra(this.folder.getRoot().getPath(), "bwhost");
+
+        assertEquals(1, engines.size());
+        assertEquals(
+                "service:jmx:rmi:///jndi/rmi://bwhost:9010/jmxrmi",
+                engines.get("COM.TIBCO.ADAPTER.bwengine.Dev.Orders.Process_Archive").toString()
+        );
+    }
+
+    @Test
+    public void parsesTheEngineList() {
+        Map<String, JMXServiceURL> engines = BW5Collector.fromList(
+                "Dev.Orders.PA@bwhost:9010, Dev.Billing.PA@service:jmx:rmi:///jndi/rmi://other:9011/jmxrmi, nonsense"
+        );
+
+        assertEquals(2, engines.size());
+        assertEquals("service:jmx:rmi:///jndi/rmi://bwhost:9010/jmxrmi", engines.get("Dev.Orders.PA").toString());
+        assertEquals("service:jmx:rmi:///jndi/rmi://other:9011/jmxrmi", engines.get("Dev.Billing.PA").toString());
+    }
+}
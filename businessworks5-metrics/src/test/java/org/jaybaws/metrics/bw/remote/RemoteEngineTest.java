@@ -0,0 +1,128 @@
+package org.jaybaws.metrics.bw.remote;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import org.junit.Test;
+
+public class RemoteEngineTest {
+
+    @Test
+    public void tagsTheEngineFromItsDisplayName() {
+        assertEquals(
+                Attributes.of(RemoteEngine.DOMAIN, "Dev", RemoteEngine.APPLICATION, "Orders", RemoteEngine.INSTANCE, "PA"),
+                RemoteEngine.attributes("COM.TIBCO.ADAPTER.bwengine.Dev.Orders.PA")
+        );
+        assertEquals(
+                Attributes.of(RemoteEngine.DOMAIN, "Dev", RemoteEngine.APPLICATION, "Orders", RemoteEngine.INSTANCE, "PA"),
+                RemoteEngine.attributes("Dev.Orders.PA")
+        );
+        assertEquals(Attributes.of(RemoteEngine.INSTANCE, "orders"), RemoteEngine.attributes("orders"));
+    }
+
+    @Test
+    public void reconnectsWhenTheEngineComesBack() throws Exception {
+        System.setProperty("java.rmi.server.hostname", "localhost");
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Registry registry = LocateRegistry.createRegistry(port);
+        JMXServiceURL url = BW5Collector.url("localhost:" + port);
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        server.registerMBean(new StandardMBean(new Engine(), EngineMBean.class), new ObjectName("com.tibco.bw:key=engine,name=test"));
+
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+        RemoteEngine engine = new RemoteEngine(sdk, "Dev.Orders.PA", url, BW5Collector.environment(null, null, 5_000), 0, 0, TimeUnit.SECONDS);
+
+        try {
+            JMXConnectorServer connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, null, server);
+            connectorServer.start();
+            engine.run();
+            assertFalse(engine.metrics().failing());
+            assertEquals(4, status(reader));
+
+            /*
+             * An unreachable engine reports no values rather than its last ones.
+             */
+            connectorServer.stop();
+            engine.run();
+            assertTrue(engine.metrics().failing());
+            assertEquals(-1, status(reader));
+
+            connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, null, server);
+            connectorServer.start();
+            engine.run();
+            assertFalse(engine.metrics().failing());
+            assertEquals(4, status(reader));
+
+            engine.retire();
+            engine.run();
+            assertEquals(-1, status(reader));
+            connectorServer.stop();
+        } finally {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    private static long status(InMemoryMetricReader reader) {
+        Attributes engine = RemoteEngine.attributes("Dev.Orders.PA");
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("bwengine.status")) {
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    if (point.getAttributes().equals(engine)) {
+                        return point.getValue();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    public interface EngineMBean {
+        CompositeDataSupport GetExecInfo() throws OpenDataException;
+    }
+
+    public static class Engine implements EngineMBean {
+
+        @Override
+        public CompositeDataSupport GetExecInfo() throws OpenDataException {
+            String[] names = { "Status", "Uptime", "Threads" };
+            CompositeType type = new CompositeType(
+                    "GetExecInfo",
+                    "GetExecInfo",
+                    names,
+                    names,
+                    new OpenType<?>[] { SimpleType.STRING, SimpleType.LONG, SimpleType.INTEGER }
+            );
+            return new CompositeDataSupport(type, names, new Object[] { "ACTIVE", 1000L, 8 });
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.jaybaws.metrics.bw.workers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.Test;
+
+public class ActivityClassFilterTest {
+
+    @Test
+    public void includesMatchingClassesUnlessExcluded() {
+        ActivityClassFilter filter = new ActivityClassFilter(
+                OpenTelemetry.noop().getMeter("test"),
+                "test",
+                ".*JDBC.*, glob:com.tibco.plugin.soap.*",
+                "glob:*JDBCCallActivity, regex:.*Debug.*"
+        );
+
+        assertTrue(filter.matches("com.tibco.plugin.jdbc.JDBCQueryActivity"));
+        assertTrue(filter.matches("com.tibco.plugin.soap.SOAPSendReplyActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.jdbc.JDBCCallActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.jdbc.JDBCDebugActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.mapper.MapperActivity"));
+
+        /*
+         * Cached decisions stay the same.
+         */
+        assertTrue(filter.matches("com.tibco.plugin.jdbc.JDBCQueryActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.jdbc.JDBCCallActivity"));
+    }
+
+    @Test
+    public void keepsCommasInsideARegularExpression() {
+        ActivityClassFilter filter = new ActivityClassFilter(
+                OpenTelemetry.noop().getMeter("test"),
+                "test",
+                ".*\\.(?:jdbc|soap){1,}\\..*, .*[,(]Mapper.*",
+                "glob:*Call*"
+        );
+
+        assertEquals(2, ActivityClassFilter.patterns(".*\\.(?:jdbc|soap){1,}\\..*, .*[,(]Mapper.*").size());
+        assertTrue(filter.matches("com.tibco.plugin.jdbc.JDBCQueryActivity"));
+        assertTrue(filter.matches("com.tibco.plugin.soap.SOAPSendReplyActivity"));
+        assertTrue(filter.matches("x(MapperActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.jdbc.JDBCCallActivity"));
+        assertFalse(filter.matches("com.tibco.plugin.mapper.MapperActivity"));
+    }
+
+    @Test
+    public void includesEverythingWithoutIncludes() {
+        ActivityClassFilter filter = new ActivityClassFilter(OpenTelemetry.noop().getMeter("test"), "test", "", null);
+
+        assertTrue(filter.matches("com.tibco.plugin.mapper.MapperActivity"));
+        assertTrue(filter.matches("glob.looking.Class*"));
+    }
+
+    @Test
+    public void reportsTheHitsAndMissesWhenCollected() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+        ActivityClassFilter filter = new ActivityClassFilter(sdk.getMeter("test"), "test", "", null);
+
+        for (int i = 0; i < 3; i++) {
+            filter.matches("com.tibco.plugin.mapper.MapperActivity");
+        }
+
+        long hits = -1;
+        long misses = -1;
+        for (MetricData metric : reader.collectAllMetrics()) {
+            long value = metric.getLongSumData().getPoints().iterator().next().getValue();
+            if (metric.getName().equals("otel_metrics.collector.filter.hits")) {
+                hits = value;
+            } else if (metric.getName().equals("otel_metrics.collector.filter.misses")) {
+                misses = value;
+            }
+        }
+        assertEquals(2, hits);
+        assertEquals(1, misses);
+    }
+}
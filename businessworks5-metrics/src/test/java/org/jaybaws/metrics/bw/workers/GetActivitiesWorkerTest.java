@@ -0,0 +1,217 @@
+package org.jaybaws.metrics.bw.workers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.junit.Test;
+
+public class GetActivitiesWorkerTest {
+
+    private static final String[] c_long_items = {
+            "ExecutionCount", "ErrorCount", "ElapsedTime", "MinElapsedTime", "MaxElapsedTime", "ExecutionTime",
+            "MinExecutionTime", "MaxExecutionTime", "MostRecentElapsedTime", "MostRecentExecutionTime"
+    };
+
+    @Test
+    public void callsRotatingSlicesAndTheBusyProcesses() throws Exception {
+        Engine engine = new Engine("P1", "P2", "P3", "P4");
+        GetActivitiesWorker worker = worker(engine).withSlices(2, 1, 1);
+
+        worker.run();
+        assertEquals(Arrays.asList("P1", "P2"), engine.calls);
+
+        engine.calls.clear();
+        engine.created[2] += 10;
+        worker.run();
+        assertEquals(Arrays.asList("P3", "P4"), engine.calls);
+
+        engine.calls.clear();
+        engine.created[3] += 10;
+        worker.run();
+        assertEquals(Arrays.asList("P4", "P1", "P2"), engine.calls);
+
+        assertFalse(worker.metrics().failing());
+    }
+
+    @Test
+    public void takesTheListingFromTheProcessDefinitions() throws Exception {
+        Engine engine = new Engine("P1", "P2", "P3", "P4");
+        TabularDataSupport[] listing = { null };
+        GetActivitiesWorker worker = worker(engine).withSlices(2, 1, 1).withDefinitions(() -> listing[0]);
+
+        worker.run();
+        assertEquals(1, engine.listings.get());
+
+        listing[0] = engine.GetProcessDefinitions();
+        engine.listings.set(0);
+        engine.calls.clear();
+        worker.run();
+        assertEquals(0, engine.listings.get());
+        assertEquals(Arrays.asList("P3", "P4"), engine.calls);
+
+        /*
+         * The busy processes are those of the listing's last change, also while it is not listed again.
+         */
+        engine.created[0] += 10;
+        listing[0] = engine.GetProcessDefinitions();
+        engine.calls.clear();
+        worker.run();
+        assertEquals(Arrays.asList("P1", "P2"), engine.calls);
+
+        engine.calls.clear();
+        worker.run();
+        assertEquals(Arrays.asList("P1", "P3", "P4"), engine.calls);
+        assertFalse(worker.metrics().failing());
+    }
+
+    @Test
+    public void takesAPermitForEveryCall() throws Exception {
+        Engine engine = new Engine("P1", "P2", "P3", "P4");
+        Semaphore permits = new Semaphore(2);
+        GetActivitiesWorker worker = worker(engine).withSlices(1, 4, 0).withPermits(permits, () -> System.nanoTime() + 5_000_000_000L);
+
+        worker.run();
+        worker.close();
+
+        assertEquals(4, engine.calls.size());
+        assertTrue(engine.concurrent.get() <= 2);
+        assertEquals(2, permits.availablePermits());
+        assertFalse(worker.metrics().failing());
+    }
+
+    @Test
+    public void skipsTheCallsThatGetNoPermitByTheDeadline() throws Exception {
+        Engine engine = new Engine("P1", "P2");
+        TabularDataSupport definitions = engine.GetProcessDefinitions();
+        long deadline = System.nanoTime() + 100_000_000L;
+        GetActivitiesWorker worker = worker(engine)
+                .withSlices(1, 2, 0)
+                .withDefinitions(() -> definitions)
+                .withPermits(new Semaphore(0), () -> deadline);
+
+        worker.run();
+        worker.close();
+
+        assertTrue(System.nanoTime() - deadline < 1_000_000_000L);
+        assertEquals(0, engine.calls.size());
+    }
+
+    @Test
+    public void callsAllProcessesAtOnceByDefault() throws Exception {
+        Engine engine = new Engine("P1", "P2");
+        GetActivitiesWorker worker = worker(engine);
+
+        worker.run();
+        assertEquals(Arrays.asList((String) null), engine.calls);
+        assertFalse(worker.metrics().failing());
+    }
+
+    private static GetActivitiesWorker worker(Engine engine) throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new StandardMBean(engine, EngineMBean.class), name);
+        return new GetActivitiesWorker(OpenTelemetry.noop(), server, name, ".*", RegistryConfig.DEFAULT);
+    }
+
+    public interface EngineMBean {
+        TabularDataSupport GetProcessDefinitions() throws OpenDataException;
+
+        TabularDataSupport GetActivities(String processDefinition) throws OpenDataException;
+    }
+
+    public static class Engine implements EngineMBean {
+
+        private final String[] processes;
+        private final long[] created;
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger listings = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+
+        Engine(String... processes) {
+            this.processes = processes;
+            this.created = new long[processes.length];
+        }
+
+        @Override
+        public TabularDataSupport GetProcessDefinitions() throws OpenDataException {
+            this.listings.incrementAndGet();
+            String[] names = { "Name", "Created" };
+            CompositeType rowType = new CompositeType(
+                    "GetProcessDefinitions",
+                    "GetProcessDefinitions",
+                    names,
+                    names,
+                    new OpenType<?>[] { SimpleType.STRING, SimpleType.LONG }
+            );
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("GetProcessDefinitions", "GetProcessDefinitions", rowType, new String[] { "Name" })
+            );
+            for (int i = 0; i < this.processes.length; i++) {
+                table.put(new CompositeDataSupport(rowType, names, new Object[] { this.processes[i], this.created[i] }));
+            }
+            return table;
+        }
+
+        @Override
+        public TabularDataSupport GetActivities(String processDefinition) throws OpenDataException {
+            this.calls.add(processDefinition);
+            this.concurrent.accumulateAndGet(this.running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.running.decrementAndGet();
+
+            String[] names = new String[3 + c_long_items.length];
+            OpenType<?>[] types = new OpenType<?>[names.length];
+            names[0] = "ProcessDefName";
+            names[1] = "Name";
+            names[2] = "ActivityClass";
+            for (int i = 0; i < 3; i++) {
+                types[i] = SimpleType.STRING;
+            }
+            for (int i = 0; i < c_long_items.length; i++) {
+                names[3 + i] = c_long_items[i];
+                types[3 + i] = SimpleType.LONG;
+            }
+
+            CompositeType rowType = new CompositeType("GetActivities", "GetActivities", names, names, types);
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("GetActivities", "GetActivities", rowType, new String[] { "ProcessDefName", "Name" })
+            );
+            for (String process : this.processes) {
+                if (processDefinition == null || processDefinition.equals(process)) {
+                    Object[] values = new Object[names.length];
+                    values[0] = process;
+                    values[1] = "Activity";
+                    values[2] = "com.tibco.plugin.mapper.MapperActivity";
+                    for (int i = 0; i < c_long_items.length; i++) {
+                        values[3 + i] = 0L;
+                    }
+                    table.put(new CompositeDataSupport(rowType, names, values));
+                }
+            }
+            return table;
+        }
+    }
+}
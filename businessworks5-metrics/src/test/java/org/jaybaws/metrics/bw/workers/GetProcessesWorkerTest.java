@@ -0,0 +1,188 @@
+package org.jaybaws.metrics.bw.workers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.junit.Test;
+
+public class GetProcessesWorkerTest {
+
+    @Test
+    public void listsAFewDefinitionsPerCycleAndKeepsTheOldestJobs() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Engine engine = new Engine();
+        engine.jobs.put("A", new long[] { 1_000, 600_000, 5_000 });
+        engine.jobs.put("B", new long[] { 2_000 });
+        engine.jobs.put("C", new long[] { 3_000 });
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new Named(engine), name);
+
+        Map<String, Long> running = new HashMap<>();
+        running.put("A", 3L);
+        running.put("B", 1L);
+        running.put("C", 1L);
+        running.put("D", 0L);
+
+        GetProcessesWorker worker = new GetProcessesWorker(sdk, server, name, () -> running, RegistryConfig.DEFAULT, Attributes.empty())
+                .withSample(2, 2, 300, TimeUnit.SECONDS);
+
+        worker.run();
+        assertEquals(Arrays.asList("A", "B"), engine.calls);
+        worker.run();
+        assertEquals(Arrays.asList("A", "B", "C", "A"), engine.calls);
+        assertFalse(worker.metrics().failing());
+
+        assertEquals(2, points(reader, "bwengine.process.age", "A"));
+        assertEquals(1, value(reader, "bwengine.process.long_running", "A"));
+        assertEquals(0, value(reader, "bwengine.process.long_running", "B"));
+    }
+
+    @Test
+    public void doesNotAgeAJobThatMayHaveCompletedSinceItsListing() throws Exception {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(reader).build())
+                .build();
+
+        Engine engine = new Engine();
+        engine.jobs.put("A", new long[] { 900 });
+        engine.jobs.put("B", new long[] { 100 });
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.tibco.bw:key=engine,name=test");
+        server.registerMBean(new Named(engine), name);
+
+        Map<String, Long> running = new HashMap<>();
+        running.put("A", 1L);
+        running.put("B", 1L);
+
+        GetProcessesWorker worker = new GetProcessesWorker(sdk, server, name, () -> running, RegistryConfig.DEFAULT, Attributes.empty())
+                .withSample(1, 5, 1, TimeUnit.SECONDS);
+
+        worker.run();
+        assertEquals(Arrays.asList("A"), engine.calls);
+
+        /*
+         * A's job completes while B takes its turn.
+         */
+        engine.jobs.put("A", new long[0]);
+        Thread.sleep(300);
+
+        worker.run();
+        assertEquals(Arrays.asList("A", "B"), engine.calls);
+        assertEquals(0, value(reader, "bwengine.process.long_running", "A"));
+        assertEquals(900, value(reader, "bwengine.process.oldest", "A"));
+
+        worker.run();
+        assertEquals(Arrays.asList("A", "B", "A"), engine.calls);
+        assertEquals(0, value(reader, "bwengine.process.long_running", "A"));
+        assertEquals(0, value(reader, "bwengine.process.oldest", "A"));
+    }
+
+    private static int points(InMemoryMetricReader reader, String metric, String process) {
+        int points = 0;
+        for (LongPointData point : find(reader, metric)) {
+            if (process.equals(point.getAttributes().get(AttributeKey.stringKey("process")))) {
+                points++;
+            }
+        }
+        return points;
+    }
+
+    private static long value(InMemoryMetricReader reader, String metric, String process) {
+        for (LongPointData point : find(reader, metric)) {
+            if (process.equals(point.getAttributes().get(AttributeKey.stringKey("process")))) {
+                return point.getValue();
+            }
+        }
+        return -1;
+    }
+
+    private static List<LongPointData> find(InMemoryMetricReader reader, String metric) {
+        for (MetricData data : reader.collectAllMetrics()) {
+            if (data.getName().equals(metric)) {
+                return new ArrayList<>(data.getLongGaugeData().getPoints());
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    public interface EngineMBean {
+        TabularDataSupport GetProcesses(Long processId, String mainProcessName) throws OpenDataException;
+    }
+
+    public static class Engine implements EngineMBean {
+
+        private final Map<String, long[]> jobs = new HashMap<>();
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public TabularDataSupport GetProcesses(Long processId, String mainProcessName) throws OpenDataException {
+            this.calls.add(mainProcessName);
+
+            String[] names = { "Id", "MainProcessName", "Duration", "CurrentActivityName" };
+            CompositeType rowType = new CompositeType(
+                    "GetProcesses",
+                    "GetProcesses",
+                    names,
+                    names,
+                    new OpenType<?>[] { SimpleType.LONG, SimpleType.STRING, SimpleType.LONG, SimpleType.STRING }
+            );
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("GetProcesses", "GetProcesses", rowType, new String[] { "Id" })
+            );
+            long[] durations = this.jobs.get(mainProcessName);
+            for (int i = 0; i < durations.length; i++) {
+                table.put(new CompositeDataSupport(rowType, names, new Object[] { 100L * mainProcessName.charAt(0) + i, mainProcessName, durations[i], "Wait" }));
+            }
+            return table;
+        }
+    }
+
+    /*
+     * Like the engine's Hawk MBean, which names its arguments.
+     */
+    private static final class Named extends StandardMBean {
+
+        private Named(Engine engine) throws NotCompliantMBeanException {
+            super(engine, EngineMBean.class);
+        }
+
+        @Override
+        protected String getParameterName(MBeanOperationInfo operation, MBeanParameterInfo parameter, int sequence) {
+            return (sequence == 0) ? "ProcessId" : "MainProcessName";
+        }
+    }
+}
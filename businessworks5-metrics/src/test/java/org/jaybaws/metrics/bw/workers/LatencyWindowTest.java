@@ -0,0 +1,47 @@
+package org.jaybaws.metrics.bw.workers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+    private static final long c_minute = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void followsTheLatencyOfTheLastCyclesRatherThanTheLifetimeAverage() {
+        LatencyWindow window = new LatencyWindow(3);
+
+        /*
+         * A long history of 100 ms jobs, then three minutes of 10, 10 and 1000 ms.
+         */
+        assertFalse(window.observe(1_000_000, 100_000_000, 120_000_000, 0));
+        assertTrue(window.observe(1_000_100, 100_010_000, 120_011_000, c_minute));
+        assertTrue(window.observe(1_000_200, 100_011_000, 120_013_000, 2 * c_minute));
+        assertTrue(window.observe(1_000_300, 100_012_000, 120_015_000, 3 * c_minute));
+        assertTrue(window.observe(1_000_400, 100_112_000, 120_117_000, 4 * c_minute));
+
+        assertEquals(1000, window.last(LatencyWindow.EXECUTION));
+        assertEquals(1020, window.last(LatencyWindow.ELAPSED));
+        assertEquals(10, window.quantile(LatencyWindow.EXECUTION, 0.5));
+        assertEquals(1000, window.quantile(LatencyWindow.EXECUTION, 0.9));
+        assertEquals(6000, window.throughput());
+    }
+
+    @Test
+    public void startsOverWhenTheEngineRestarts() {
+        LatencyWindow window = new LatencyWindow(3);
+
+        window.observe(1000, 50_000, 60_000, 0);
+        window.observe(1100, 55_000, 66_000, c_minute);
+        assertEquals(50, window.quantile(LatencyWindow.EXECUTION, 0.5));
+
+        assertFalse(window.observe(10, 200, 300, 2 * c_minute));
+        assertEquals(-1, window.quantile(LatencyWindow.EXECUTION, 0.5));
+        assertEquals(-1, window.throughput());
+
+        assertTrue(window.observe(20, 400, 600, 3 * c_minute));
+        assertEquals(20, window.quantile(LatencyWindow.EXECUTION, 0.5));
+    }
+}
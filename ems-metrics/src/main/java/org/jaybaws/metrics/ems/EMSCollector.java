@@ -0,0 +1,71 @@
+package org.jaybaws.metrics.ems;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+import org.jaybaws.metrics.core.RegistryConfig;
+
+public class EMSCollector implements Collector {
+
+    static final String c_jvm_arg_prefix = EMSCollector.class.getPackage().getName();
+
+    static final String c_jvm_arg_ems_url  = c_jvm_arg_prefix + ".url";
+    static final String c_jvm_arg_ems_user = c_jvm_arg_prefix + ".user";
+    static final String c_jvm_arg_ems_pass = c_jvm_arg_prefix + ".password";
+
+    static final String c_jvm_arg_ems_feature_serverinfo  = c_jvm_arg_prefix + ".serverinfo";
+    static final String c_jvm_arg_ems_feature_queueinfo   = c_jvm_arg_prefix + ".queueinfo";
+    static final String c_jvm_arg_ems_feature_topicinfo   = c_jvm_arg_prefix + ".topicinfo";
+    static final String c_jvm_arg_ems_feature_durableinfo = c_jvm_arg_prefix + ".durableinfo";
+
+    static final String c_jvm_arg_ems_ttl = c_jvm_arg_prefix + ".ttl";
+    static final String c_jvm_arg_ems_maxseries = c_jvm_arg_prefix + ".maxseries";
+    static final String c_jvm_arg_ems_maxseries_per_metric = c_jvm_arg_prefix + ".maxseries.per_metric";
+    static final String c_jvm_arg_ems_rates = c_jvm_arg_prefix + ".rates";
+
+    private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
+
+    @Override
+    public String name() {
+        return "ems";
+    }
+
+    @Override
+    public void start(OpenTelemetry sdk, AdaptiveScheduler scheduler) {
+        String url = System.getProperty(c_jvm_arg_ems_url, "tcp://localhost:7222");
+        String user = System.getProperty(c_jvm_arg_ems_user, "admin");
+        String pass = System.getProperty(c_jvm_arg_ems_pass, "");
+
+        boolean getServerInfo = Boolean.parseBoolean(System.getProperty(c_jvm_arg_ems_feature_serverinfo, "true"));
+        boolean getQueueInfo = Boolean.parseBoolean(System.getProperty(c_jvm_arg_ems_feature_queueinfo, "true"));
+        boolean getTopicInfo = Boolean.parseBoolean(System.getProperty(c_jvm_arg_ems_feature_topicinfo, "false"));
+        boolean getDurableInfo = Boolean.parseBoolean(System.getProperty(c_jvm_arg_ems_feature_durableinfo, "false"));
+
+        RegistryConfig registryConfig = RegistryConfig.fromSystemProperties(c_jvm_arg_prefix);
+
+        LOGGER.info(
+                String.format(
+                        "Using url='%s', user='%s' password='%s'. serverinfo(%b) queues(%b) topics(%b) durables(%b) %s",
+                        url,
+                        user,
+                        pass,
+                        getServerInfo,
+                        getQueueInfo,
+                        getTopicInfo,
+                        getDurableInfo,
+                        registryConfig
+                )
+        );
+
+        scheduler.schedule(
+                name(),
+                new Worker(sdk, url, user, pass, getServerInfo, getQueueInfo, getTopicInfo, getDurableInfo, registryConfig),
+                0,
+                60,
+                TimeUnit.SECONDS
+        );
+
+        LOGGER.info("Worker scheduled!");
+    }
+}
@@ -2,16 +2,16 @@ package org.jaybaws.metrics.ems;
 import com.tibco.tibjms.admin.*;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import io.opentelemetry.api.OpenTelemetry;
-import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
-import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
 
-public class Worker implements Runnable {
+public class Worker implements Scraper {
 
     private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
 
@@ -24,17 +24,17 @@ public class Worker implements Runnable {
     private final boolean getTopicsInfo;
     private final boolean getDurablesInfo;
 
-    private final Meter meter;
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
 
-    private final Map<String, Long> metrics = new HashMap<String, Long>();
-
-    public Worker(String url, String user, String pass, boolean getServerInfo, boolean getQueuesInfo, boolean getTopicsInfo, boolean getDurablesInfo) {
+    public Worker(OpenTelemetry sdk, String url, String user, String pass, boolean getServerInfo, boolean getQueuesInfo, boolean getTopicsInfo, boolean getDurablesInfo, RegistryConfig registryConfig) {
         this.url = url;
         this.user = user;
         this.pass = pass;
 
-        OpenTelemetry sdk = AutoConfiguredOpenTelemetrySdk.initialize().getOpenTelemetrySdk();
-        this.meter = sdk.getMeter("com.tibco.ems");
+        Meter meter = sdk.getMeter("com.tibco.ems");
+        this.registry = new SeriesRegistry(meter, registryConfig);
+        this.metrics = new CollectorMetrics(meter, "ems", this.registry);
 
         this.getServerInfo = getServerInfo;
         this.getQueuesInfo = getQueuesInfo;
@@ -43,32 +43,35 @@ public class Worker implements Runnable {
     }
 
     private void trackMetric(String category, String metric, String detail, long value) {
-        String uniqueId = category + "/" + metric + "/" + detail;
-
-        if (metrics.containsKey(uniqueId)) {
-            metrics.replace(uniqueId, value);
-        } else {
-            metrics.put(uniqueId, value);
-            this.meter
-                    .gaugeBuilder(String.format("ems.%s.%s", category, metric))
-                    .ofLongs()
-                    .buildWithCallback(
-                            result -> result.record(
-                                    this.metrics.get(uniqueId),
-                                    Attributes.builder()
-                                            .put("item", detail)
-                                            .build()
-                            )
-                    );
-        }
+        this.registry.track(String.format("ems.%s.%s", category, metric), detail, value);
+    }
+
+    /*
+     * For the server's cumulative counters: reported as monotonic counters, so a server restart does not show up as
+     * a drop in the totals.
+     */
+    private void countMetric(String category, String metric, String detail, long value) {
+        this.registry.count(String.format("ems.%s.%s", category, metric), detail, value);
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
     }
 
     @Override
     public void run() {
+        long started = this.metrics.scrapeStarted();
+        TibjmsAdmin admin = null;
+
         try {
-            TibjmsAdmin admin = new TibjmsAdmin(url, user, pass);
+            long call = System.nanoTime();
+            admin = new TibjmsAdmin(url, user, pass);
+            this.metrics.callCompleted("connect", call);
 
+            call = System.nanoTime();
             ServerInfo si = admin.getInfo();
+            this.metrics.callCompleted("getInfo", call);
             String serverName = si.getServerName();
 
             if (this.getServerInfo) {
@@ -88,8 +91,8 @@ public class Worker implements Runnable {
                 trackMetric("server", "route_recover_count", "", si.getRouteRecoverCount());
 
                 trackMetric("server", "pending_message_count", "", si.getPendingMessageCount());
-                trackMetric("server", "inbound_message_count", "", si.getInboundMessageCount());
-                trackMetric("server", "outbound_message_count", "", si.getOutboundMessageCount());
+                countMetric("server", "inbound_message_count", "", si.getInboundMessageCount());
+                countMetric("server", "outbound_message_count", "", si.getOutboundMessageCount());
 
                 trackMetric("server", "disk_read_rate", "", si.getDiskReadRate());
                 trackMetric("server", "disk_write_rate", "", si.getDiskWriteRate());
@@ -107,7 +110,11 @@ public class Worker implements Runnable {
             }
 
             if (this.getQueuesInfo) {
+                call = System.nanoTime();
                 QueueInfo[] queueInfo = admin.getQueues();
+                this.metrics.callCompleted("getQueues", call);
+                this.metrics.rows(queueInfo.length);
+
                 for (QueueInfo qi : queueInfo) {
 
                     if (!qi.isTemporary()) {
@@ -133,23 +140,27 @@ public class Worker implements Runnable {
                         if (in_stats != null) {
                             trackMetric("queue", "inbound_message_rate", queueName, in_stats.getMessageRate());
                             trackMetric("queue", "inbound_bytes_rate", queueName, in_stats.getByteRate());
-                            trackMetric("queue", "inbound_total_messages", queueName, in_stats.getTotalMessages());
-                            trackMetric("queue", "inbound_total_bytes", queueName, in_stats.getTotalBytes());
+                            countMetric("queue", "inbound_total_messages", queueName, in_stats.getTotalMessages());
+                            countMetric("queue", "inbound_total_bytes", queueName, in_stats.getTotalBytes());
                         }
 
                         StatData out_stats = qi.getOutboundStatistics();
                         if (out_stats != null) {
                             trackMetric("queue", "outbound_message_rate", queueName, out_stats.getMessageRate());
                             trackMetric("queue", "outbound_bytes_rate", queueName, out_stats.getByteRate());
-                            trackMetric("queue", "outbound_total_messages", queueName, out_stats.getTotalMessages());
-                            trackMetric("queue", "outbound_total_bytes", queueName, out_stats.getTotalBytes());
+                            countMetric("queue", "outbound_total_messages", queueName, out_stats.getTotalMessages());
+                            countMetric("queue", "outbound_total_bytes", queueName, out_stats.getTotalBytes());
                         }
                     }
                 }
             }
 
             if (this.getTopicsInfo) {
+                call = System.nanoTime();
                 TopicInfo[] topicInfo = admin.getTopics();
+                this.metrics.callCompleted("getTopics", call);
+                this.metrics.rows(topicInfo.length);
+
                 for (TopicInfo ti : topicInfo) {
                     if (!ti.isTemporary()) {
                         String topicName = ti.getName();
@@ -172,23 +183,27 @@ public class Worker implements Runnable {
                         if (in_stats != null) {
                             trackMetric("topic", "inbound_message_rate", topicName, in_stats.getMessageRate());
                             trackMetric("topic", "inbound_bytes_rate", topicName, in_stats.getByteRate());
-                            trackMetric("topic", "inbound_total_messages", topicName, in_stats.getTotalMessages());
-                            trackMetric("topic", "inbound_total_bytes", topicName, in_stats.getTotalBytes());
+                            countMetric("topic", "inbound_total_messages", topicName, in_stats.getTotalMessages());
+                            countMetric("topic", "inbound_total_bytes", topicName, in_stats.getTotalBytes());
                         }
 
                         StatData out_stats = ti.getOutboundStatistics();
                         if (out_stats != null) {
                             trackMetric("topic", "outbound_message_rate", topicName, out_stats.getMessageRate());
                             trackMetric("topic", "outbound_bytes_rate", topicName, out_stats.getByteRate());
-                            trackMetric("topic", "outbound_total_messages", topicName, out_stats.getTotalMessages());
-                            trackMetric("topic", "outbound_total_bytes", topicName, out_stats.getTotalBytes());
+                            countMetric("topic", "outbound_total_messages", topicName, out_stats.getTotalMessages());
+                            countMetric("topic", "outbound_total_bytes", topicName, out_stats.getTotalBytes());
                         }
                     }
                 }
             }
 
             if (this.getDurablesInfo) {
+                call = System.nanoTime();
                 DurableInfo[] durableInfo = admin.getDurables();
+                this.metrics.callCompleted("getDurables", call);
+                this.metrics.rows(durableInfo.length);
+
                 for (DurableInfo di : durableInfo) {
                     String durableName = di.getDurableName();
 
@@ -198,9 +213,19 @@ public class Worker implements Runnable {
                 }
             }
 
-            admin.close();
-        } catch (TibjmsAdminException e) {
-            LOGGER.log(Level.SEVERE, "Exception occurred while trying to gather metrics.", e);
+            this.registry.completeCycle();
+            this.metrics.scrapeSucceeded(started);
+        } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
+            LOGGER.log(Level.SEVERE, "Exception occurred while trying to gather metrics.", t);
+        } finally {
+            if (admin != null) {
+                try {
+                    admin.close();
+                } catch (Throwable t) {
+                    LOGGER.log(Level.WARNING, "Unable to close the admin connection.", t);
+                }
+            }
         }
     }
 
@@ -0,0 +1,58 @@
+package org.jaybaws.metrics.ibmmq;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+import org.jaybaws.metrics.core.RegistryConfig;
+
+public class IBMMQCollector implements Collector {
+
+    static final String c_jvm_arg_prefix = IBMMQCollector.class.getPackage().getName();
+
+    static final String c_jvm_arg_ibmmq_qmgr = c_jvm_arg_prefix + ".qmgr";
+    static final String c_jvm_arg_ibmmq_host = c_jvm_arg_prefix + ".host";
+    static final String c_jvm_arg_ibmmq_port = c_jvm_arg_prefix + ".port";
+    static final String c_jvm_arg_ibmmq_chan = c_jvm_arg_prefix + ".chan";
+    static final String c_jvm_arg_ibmmq_user = c_jvm_arg_prefix + ".user";
+    static final String c_jvm_arg_ibmmq_pass = c_jvm_arg_prefix + ".pass";
+    static final String c_jvm_arg_ibmmq_ciph = c_jvm_arg_prefix + ".ciph";
+    static final String c_jvm_arg_ibmmq_csp = c_jvm_arg_prefix + ".csp";
+
+    private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
+
+    @Override
+    public String name() {
+        return "ibmmq";
+    }
+
+    @Override
+    public void start(OpenTelemetry sdk, AdaptiveScheduler scheduler) {
+        String qmgr = System.getProperty(c_jvm_arg_ibmmq_qmgr, "QMGR");
+        String host = System.getProperty(c_jvm_arg_ibmmq_host, "localhost");
+        int port = Integer.parseInt(System.getProperty(c_jvm_arg_ibmmq_port, "14140"));
+        String chan = System.getProperty(c_jvm_arg_ibmmq_chan, "DEV.ADMIN.SVRCONN");
+        String user = System.getProperty(c_jvm_arg_ibmmq_user, "admin");
+        String pass = System.getProperty(c_jvm_arg_ibmmq_pass, "passw0rd");
+        String ciph = System.getProperty(c_jvm_arg_ibmmq_ciph, null);
+
+        boolean csp = Boolean.parseBoolean(System.getProperty(c_jvm_arg_ibmmq_csp, "false"));
+
+        /*
+         * Series time-to-live and cardinality budget: <prefix>.ttl, <prefix>.maxseries and <prefix>.maxseries.per_metric
+         */
+        RegistryConfig registryConfig = RegistryConfig.fromSystemProperties(c_jvm_arg_prefix);
+
+        Worker worker = new Worker(sdk, qmgr, host, port, chan, user, pass, ciph, csp, registryConfig);
+
+        scheduler.schedule(
+                name(),
+                worker,
+                0,
+                60,
+                TimeUnit.SECONDS
+        );
+
+        LOGGER.info("Worker scheduled!");
+    }
+}
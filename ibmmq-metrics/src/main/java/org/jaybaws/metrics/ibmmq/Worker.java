@@ -11,24 +11,27 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import io.opentelemetry.api.OpenTelemetry;
-import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
-import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.RegistryConfig;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.SeriesRegistry;
 
-public class Worker implements Runnable {
+public class Worker implements Scraper {
 
     private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
 
     private final Hashtable<String, Object> connectionProperties = new Hashtable<String, Object>();
 
-    private final Map<String, Long> metrics = new HashMap<String, Long>();
     private final String qmgrName;
 
-    private final Meter meter;
+    private final SeriesRegistry registry;
+    private final CollectorMetrics metrics;
 
-    public Worker(String qmgr, String host, int port, String chan, String user, String pass, String sslCiph, boolean useMQCSP) {
-        OpenTelemetry sdk = AutoConfiguredOpenTelemetrySdk.initialize().getOpenTelemetrySdk();
-        this.meter = sdk.getMeter("com.ibm.mq");
+    public Worker(OpenTelemetry sdk, String qmgr, String host, int port, String chan, String user, String pass, String sslCiph, boolean useMQCSP, RegistryConfig registryConfig) {
+        Meter meter = sdk.getMeter("com.ibm.mq");
+        this.registry = new SeriesRegistry(meter, registryConfig);
+        this.metrics = new CollectorMetrics(meter, "ibmmq", this.registry);
 
         qmgrName = qmgr;
 
@@ -51,33 +54,31 @@ public class Worker implements Runnable {
     }
 
     private void trackMetric(String category, String metric, String detail, long value) {
-        String uniqueId = category + "/" + metric + "/" + detail;
-
-        if (metrics.containsKey(uniqueId)) {
-            metrics.replace(uniqueId, value);
-        } else {
-            metrics.put(uniqueId, value);
-            this.meter
-                    .gaugeBuilder(String.format("ibmmq.%s.%s", category, metric))
-                    .ofLongs()
-                    .buildWithCallback(
-                            result -> result.record(
-                                    this.metrics.get(uniqueId),
-                                    Attributes.builder()
-                                            .put("item", detail)
-                                            .build()
-                            )
-                    );
-        }
+        this.registry.track(String.format("ibmmq.%s.%s", category, metric), detail, value);
+    }
+
+    /*
+     * For the cumulative counters. PCF returns them as (32-bit) ints, which wrap around on busy queues and channels.
+     */
+    private void countMetric(String category, String metric, String detail, int value) {
+        this.registry.counter(String.format("ibmmq.%s.%s", category, metric), 32).series(SeriesRegistry.ITEM, detail).set(value);
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.metrics;
     }
 
     @Override
     public void run() {
 
         boolean succeeded = false;
+        long started = this.metrics.scrapeStarted();
 
         try {
+            long call = System.nanoTime();
             MQQueueManager qMgr = new MQQueueManager(qmgrName, connectionProperties);
+            this.metrics.callCompleted("connect", call);
             PCFMessageAgent agent = new PCFMessageAgent(qMgr);
 
             doServer(qMgr, agent);
@@ -92,20 +93,33 @@ public class Worker implements Runnable {
             qMgr.disconnect();
 
             succeeded = true;
+            this.metrics.scrapeSucceeded(started);
         } catch (Throwable t) {
+            this.metrics.scrapeFailed(started, t);
             LOGGER.log(Level.SEVERE, "Something went wrong during the worker-run!", t);
         } finally {
             trackMetric("qmgr", "available", "", (succeeded) ? 1 : 0 );
         }
+
+        /*
+         * Only age the series when we actually got to see the queue manager, and every PCF command answered: an
+         * outage, even of a single command, must not evict the series of objects that still exist.
+         */
+        if (succeeded && !this.metrics.failing()) {
+            this.registry.completeCycle();
+        }
     }
 
     private void doServer(MQQueueManager qmgr, PCFMessageAgent agent) {
         trackMetric("qmgr", "is_connected", "", (qmgr.isConnected()) ? 1 : 0 );
 
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_MGR_STATUS);
             request.addParameter(CMQCFC.MQIACF_Q_MGR_STATUS_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_Q_MGR_STATUS", call);
 
             for (PCFMessage response : responses) {
                 if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQC.MQCA_Q_MGR_NAME) != null) ) {
@@ -127,14 +141,19 @@ public class Worker implements Runnable {
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_Q_MGR_STATUS", call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ queue manager metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_Q_MGR_STATUS", call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ queue manager metrics.", e);
         }
     }
 
     private void doQueues(PCFMessageAgent agent) {
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
             request.addParameter(CMQC.MQCA_Q_NAME, "*");
@@ -142,50 +161,66 @@ public class Worker implements Runnable {
             request.addParameter(CMQCFC.MQIACF_Q_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
 
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_Q", call);
+            this.metrics.rows(responses.length);
 
-            for (PCFMessage response : responses) {
-                if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQC.MQCA_Q_NAME) != null)) {
-                    String name = response.getStringParameterValue(CMQC.MQCA_Q_NAME);
-                    if (name != null)
-                        name = name.trim();
-
-                    int q_depth = response.getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH);
-                    int q_open_input_count = response.getIntParameterValue(CMQC.MQIA_OPEN_INPUT_COUNT);
-                    int q_open_output_count = response.getIntParameterValue(CMQC.MQIA_OPEN_OUTPUT_COUNT);
-
-                    int type = response.getIntParameterValue(CMQC.MQIA_DEFINITION_TYPE);
-
-                    if (type == 1) { // This filters out all the AMQ.* crap that will blow up your registry!
-                        trackMetric("qlocal", "depth", name, q_depth);
-                        trackMetric("qlocal", "open_input_count", name, q_open_input_count);
-                        trackMetric("qlocal", "open_output_count", name, q_open_output_count);
+            trackQueues(responses);
+        } catch (PCFException e) {
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_Q", call, e);
+                LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ queue metrics.", e);
+            }
+        } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_Q", call, e);
+            LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ queue metrics.", e);
+        }
+    }
 
-                        if (response.getParameterValue(CMQC.MQIA_MSG_DEQ_COUNT) != null) {
-                            int q_dequeue_count = response.getIntParameterValue(CMQC.MQIA_MSG_DEQ_COUNT);
-                            trackMetric("qlocal", "dequeued_messages", name, q_dequeue_count);
-                        }
+    /*
+     * Split from doQueues() so the parse loop can be exercised without a queue manager (see the benchmarks module).
+     */
+    void trackQueues(PCFMessage[] responses) throws PCFException {
+        for (PCFMessage response : responses) {
+            if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQC.MQCA_Q_NAME) != null)) {
+                String name = response.getStringParameterValue(CMQC.MQCA_Q_NAME);
+                if (name != null)
+                    name = name.trim();
+
+                int q_depth = response.getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH);
+                int q_open_input_count = response.getIntParameterValue(CMQC.MQIA_OPEN_INPUT_COUNT);
+                int q_open_output_count = response.getIntParameterValue(CMQC.MQIA_OPEN_OUTPUT_COUNT);
+
+                int type = response.getIntParameterValue(CMQC.MQIA_DEFINITION_TYPE);
+
+                if (type == 1) { // This filters out all the AMQ.* crap that will blow up your registry!
+                    trackMetric("qlocal", "depth", name, q_depth);
+                    trackMetric("qlocal", "open_input_count", name, q_open_input_count);
+                    trackMetric("qlocal", "open_output_count", name, q_open_output_count);
+
+                    if (response.getParameterValue(CMQC.MQIA_MSG_DEQ_COUNT) != null) {
+                        int q_dequeue_count = response.getIntParameterValue(CMQC.MQIA_MSG_DEQ_COUNT);
+                        countMetric("qlocal", "dequeued_messages", name, q_dequeue_count);
+                    }
 
-                        if (response.getParameterValue(CMQC.MQIA_MSG_ENQ_COUNT) != null) {
-                            int q_enqueue_count = response.getIntParameterValue(CMQC.MQIA_MSG_ENQ_COUNT);
-                            trackMetric("qlocal", "enqueued_messages", name, q_enqueue_count);
-                        }
+                    if (response.getParameterValue(CMQC.MQIA_MSG_ENQ_COUNT) != null) {
+                        int q_enqueue_count = response.getIntParameterValue(CMQC.MQIA_MSG_ENQ_COUNT);
+                        countMetric("qlocal", "enqueued_messages", name, q_enqueue_count);
                     }
                 }
             }
-        } catch (PCFException e) {
-            if (e.reasonCode != 2085)
-                LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ queue metrics.", e);
-        } catch (IOException | MQDataException e) {
-            LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ queue metrics.", e);
         }
     }
 
     private void doChannels(PCFMessageAgent agent) {
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_CHANNEL_STATUS);
             request.addParameter(CMQCFC.MQCACH_CHANNEL_NAME, "*");
             request.addParameter(CMQCFC.MQIACH_CHANNEL_INSTANCE_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_CHANNEL_STATUS", call);
+            this.metrics.rows(responses.length);
 
             for (PCFMessage response : responses) {
                 if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQCFC.MQCACH_CHANNEL_NAME) != null)) {
@@ -202,30 +237,37 @@ public class Worker implements Runnable {
                     int channel_status = response.getIntParameterValue(CMQCFC.MQIACH_CHANNEL_STATUS);
                     int channel_substate = response.getIntParameterValue(CMQCFC.MQIACH_CHANNEL_SUBSTATE);
 
-                    trackMetric("channels", "bytes_sent", name, channel_bytes_sent);
-                    trackMetric("channels", "bytes_received", name, channel_bytes_received);
-                    trackMetric("channels", "buffers_sent", name, channel_buffers_sent);
-                    trackMetric("channels", "buffers_received", name, channel_buffers_received);
-                    trackMetric("channels", "messages", name, channel_messages);
+                    countMetric("channels", "bytes_sent", name, channel_bytes_sent);
+                    countMetric("channels", "bytes_received", name, channel_bytes_received);
+                    countMetric("channels", "buffers_sent", name, channel_buffers_sent);
+                    countMetric("channels", "buffers_received", name, channel_buffers_received);
+                    countMetric("channels", "messages", name, channel_messages);
                     trackMetric("channels", "mca_status", name, channel_mca_status);
                     trackMetric("channels", "status", name, channel_status);
                     trackMetric("channels", "substate", name, channel_substate);
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_CHANNEL_STATUS", call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ channel metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_CHANNEL_STATUS", call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ channel metrics.", e);
         }
     }
 
     private void doSubscriptions(PCFMessageAgent agent) {
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_SUB_STATUS);
             request.addParameter(CMQCFC.MQCACF_SUB_NAME, "*");
             request.addParameter(CMQCFC.MQIACF_SUB_STATUS_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_SUB_STATUS", call);
+            this.metrics.rows(responses.length);
 
             for (PCFMessage response : responses) {
                 if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQCFC.MQCACF_SUB_NAME) != null)) {
@@ -239,27 +281,42 @@ public class Worker implements Runnable {
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_SUB_STATUS", call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ subscriptionm metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_SUB_STATUS", call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ subscription metrics.", e);
         }
     }
 
     public void doTopics(PCFMessageAgent agent) {
+        /*
+         * One INQUIRE_TOPIC, then an INQUIRE_TOPIC_STATUS per topic; a failure is attributed to the call in flight.
+         */
+        String command = "INQUIRE_TOPIC";
+        long call = System.nanoTime();
+
         try {
 
             PCFMessage topicsRequest = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC);
             topicsRequest.addParameter(CMQC.MQCA_TOPIC_NAME, "*");
             PCFMessage[] topicsResponses = agent.send(topicsRequest);
+            this.metrics.callCompleted(command, call);
+            this.metrics.rows(topicsResponses.length);
 
             for (PCFMessage topicResponse : topicsResponses) {
                 String topicName = topicResponse.getStringParameterValue(CMQC.MQCA_TOPIC_NAME);
                 String topicString = topicResponse.getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
 
+                command = "INQUIRE_TOPIC_STATUS";
+                call = System.nanoTime();
+
                 PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
                 request.addParameter(CMQC.MQCA_TOPIC_STRING, topicString);
                 PCFMessage[] responses = agent.send(request);
+                this.metrics.callCompleted(command, call);
 
                 for (PCFMessage response : responses) {
                     if ((response.getCompCode() == CMQC.MQCC_OK) ) {
@@ -272,19 +329,26 @@ public class Worker implements Runnable {
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed(command, call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ topic metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed(command, call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ topic metrics.", e);
         }
     }
 
     public void doListeners(PCFMessageAgent agent) {
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_LISTENER_STATUS);
             request.addParameter(CMQCFC.MQCACH_LISTENER_NAME, "*");
             request.addParameter(CMQCFC.MQIACF_LISTENER_STATUS_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_LISTENER_STATUS", call);
+            this.metrics.rows(responses.length);
 
             for (PCFMessage response : responses) {
                 if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQCFC.MQCACH_LISTENER_NAME) != null)) {
@@ -300,19 +364,26 @@ public class Worker implements Runnable {
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_LISTENER_STATUS", call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ listener metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_LISTENER_STATUS", call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ listener metrics.", e);
         }
     }
 
     public void doServices(PCFMessageAgent agent) {
+        long call = System.nanoTime();
+
         try {
             PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_SERVICE_STATUS);
             request.addParameter(CMQC.MQCA_SERVICE_NAME, "*");
             request.addParameter(CMQCFC.MQIACF_SERVICE_STATUS_ATTRS, new int[]{CMQCFC.MQIACF_ALL});
             PCFMessage[] responses = agent.send(request);
+            this.metrics.callCompleted("INQUIRE_SERVICE_STATUS", call);
+            this.metrics.rows(responses.length);
 
             for (PCFMessage response : responses) {
                 if ((response.getCompCode() == CMQC.MQCC_OK) && (response.getParameterValue(CMQC.MQCA_SERVICE_NAME) != null)) {
@@ -326,9 +397,12 @@ public class Worker implements Runnable {
                 }
             }
         } catch (PCFException e) {
-            if (e.reasonCode != 2085)
+            if (e.reasonCode != 2085) {
+                this.metrics.callFailed("INQUIRE_SERVICE_STATUS", call, e);
                 LOGGER.log(Level.WARNING, "PCF Error occurred while tracking IBM MQ service metrics.", e);
+            }
         } catch (IOException | MQDataException e) {
+            this.metrics.callFailed("INQUIRE_SERVICE_STATUS", call, e);
             LOGGER.log(Level.WARNING, "IO or Data error occurred while tracking IBM MQ service metrics.", e);
         }
     }
@@ -0,0 +1,244 @@
+package org.jaybaws.metrics.core;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs scrape tasks with an interval that follows their cost, instead of a fixed delay.
+ *
+ * After every run, a task's next interval is chosen as follows (the configured interval being the base):
+ *
+ * <ul>
+ *     <li>a failed run (see {@link Scraper}) doubles the interval: a struggling target gets less load, not more;</li>
+ *     <li>a run that took more than {@value #c_max_duty_cycle_pct}% of the interval stretches it, so that scraping never
+ *     takes more than that share of the time;</li>
+ *     <li>a cheap run over series that mostly changed halves the interval, to follow the values more closely;</li>
+ *     <li>otherwise the interval moves back towards the base.</li>
+ * </ul>
+ *
+ * The interval stays within [base / max_speedup, base * max_backoff]. On top of that, the CPU time of all tasks
+ * together is kept within the CPU budget (a fraction of one core): when the tasks' combined share exceeds it, every
+ * task stretches its interval by the overshoot. A task's CPU time is that of the thread running it, plus what a
+ * {@link Scraper} reports to have used on threads of its own (see {@link CollectorMetrics#cpuUsed(long)}).
+ *
+ * Unlike {@code scheduleWithFixedDelay}, a task that throws is logged and rescheduled rather than silently cancelled.
+ *
+ * In pull mode, a {@link Scraper} is not scheduled at all: it scrapes when the OpenTelemetry reader collects its
+ * metrics, at most once per 'freshness' (see {@link OnDemandScrape}). Other tasks are scheduled as usual.
+ */
+public final class AdaptiveScheduler {
+
+    /**
+     * The prefix of the scheduler's properties in the standalone apps and the collector host.
+     */
+    public static final String PREFIX = "org.jaybaws.metrics.scheduler";
+
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveScheduler.class.getName());
+
+    private static final int c_max_duty_cycle_pct = 10;
+    private static final double c_max_duty_cycle = c_max_duty_cycle_pct / 100d;
+    private static final double c_cheap_duty_cycle = 0.02;
+    private static final double c_fast_change_ratio = 0.5;
+
+    private final ScheduledExecutorService executor;
+
+    private final boolean adaptive;
+    private final double cpuBudget;
+    private final int maxBackoff;
+    private final int maxSpeedup;
+
+    private boolean pull = false;
+    private long freshness = 0;
+
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param adaptive {@code false} to run every task at its base interval, like a fixed delay.
+     * @param cpuBudget the share of one core all tasks may use together, {@code 0} for no budget.
+     * @param maxBackoff the factor by which an interval may grow beyond its base.
+     * @param maxSpeedup the factor by which an interval may shrink below its base.
+     */
+    public AdaptiveScheduler(ScheduledExecutorService executor, boolean adaptive, double cpuBudget, int maxBackoff, int maxSpeedup) {
+        this.executor = executor;
+        this.adaptive = adaptive;
+        this.cpuBudget = Math.max(0, cpuBudget);
+        this.maxBackoff = Math.max(1, maxBackoff);
+        this.maxSpeedup = Math.max(1, maxSpeedup);
+    }
+
+    /**
+     * Reads {@code <prefix>.adaptive} (default {@code true}), {@code <prefix>.cpu_budget} (default {@code 0.02}),
+     * {@code <prefix>.max_backoff} (default {@code 8}), {@code <prefix>.max_speedup} (default {@code 2}),
+     * {@code <prefix>.pull} (default {@code false}) and {@code <prefix>.pull.freshness} (seconds, default {@code 10}).
+     */
+    public static AdaptiveScheduler fromSystemProperties(String prefix, ScheduledExecutorService executor) {
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(
+                executor,
+                Boolean.parseBoolean(System.getProperty(prefix + ".adaptive", "true")),
+                Double.parseDouble(System.getProperty(prefix + ".cpu_budget", "0.02")),
+                Integer.parseInt(System.getProperty(prefix + ".max_backoff", "8")),
+                Integer.parseInt(System.getProperty(prefix + ".max_speedup", "2"))
+        );
+
+        if (Boolean.parseBoolean(System.getProperty(prefix + ".pull", "false"))) {
+            scheduler.withPull(Long.parseLong(System.getProperty(prefix + ".pull.freshness", "10")), TimeUnit.SECONDS);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Switches to pull mode.
+     *
+     * @param freshness for how long the result of a scrape is reported without scraping again.
+     */
+    public AdaptiveScheduler withPull(long freshness, TimeUnit unit) {
+        this.pull = true;
+        this.freshness = unit.toNanos(freshness);
+        return this;
+    }
+
+    public void schedule(String name, Runnable task, long initialDelay, long interval, TimeUnit unit) {
+        if (this.pull && task instanceof Scraper) {
+            ((Scraper) task).collectOnDemand(new OnDemandScrape(task, this.freshness));
+            LOGGER.info(String.format("Task '%s' scrapes on collection.", name));
+            return;
+        }
+
+        Task scheduled = new Task(name, task, unit.toNanos(interval));
+        this.tasks.add(scheduled);
+        this.executor.schedule(scheduled, initialDelay, unit);
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+        this.tasks.clear();
+    }
+
+    /*
+     * The combined CPU share of all tasks, each estimated as its CPU time per run over its interval.
+     */
+    private double cpuShare() {
+        double share = 0;
+        for (Task task : this.tasks) {
+            share += task.cpuShare;
+        }
+        return share;
+    }
+
+    /*
+     * The interval that follows a run of 'wall' nanos, before the CPU budget is applied.
+     */
+    static long nextInterval(long interval, long base, long min, long max, long wall, boolean failed, double changeRatio) {
+        long next;
+        if (failed) {
+            next = interval * 2;
+        } else if (wall > interval * c_max_duty_cycle) {
+            next = Math.max(interval, (long) (wall / c_max_duty_cycle));
+        } else if (wall < interval * c_cheap_duty_cycle && changeRatio >= c_fast_change_ratio) {
+            next = interval / 2;
+        } else if (interval > base) {
+            next = Math.max(base, interval / 2);
+        } else {
+            next = Math.min(base, interval * 2);
+        }
+        return Math.max(min, Math.min(max, next));
+    }
+
+    private final class Task implements Runnable {
+
+        private final String name;
+        private final Runnable task;
+        private final CollectorMetrics metrics;
+
+        private final long base;
+        private final long min;
+        private final long max;
+
+        private long interval;
+        private long offThread;
+        private volatile double cpuShare;
+
+        private Task(String name, Runnable task, long base) {
+            this.name = name;
+            this.task = task;
+            this.metrics = (task instanceof Scraper) ? ((Scraper) task).metrics() : null;
+            this.base = base;
+            this.min = base / maxSpeedup;
+            this.max = base * maxBackoff;
+            this.interval = base;
+            this.offThread = (this.metrics == null) ? 0 : this.metrics.cpuTime();
+            report();
+        }
+
+        @Override
+        public void run() {
+            boolean failed = false;
+            long started = System.nanoTime();
+            long cpuStarted = CollectorMetrics.threadCpuTime();
+
+            try {
+                this.task.run();
+            } catch (Throwable t) {
+                failed = true;
+                LOGGER.log(Level.SEVERE, String.format("Task '%s' failed!", this.name), t);
+            }
+
+            long wall = System.nanoTime() - started;
+            long cpu = CollectorMetrics.threadCpuTime() - cpuStarted;
+
+            if (this.metrics != null) {
+                failed |= this.metrics.failing();
+
+                /*
+                 * Includes what a stage that outlived the previous run reported since.
+                 */
+                long offThread = this.metrics.cpuTime();
+                cpu += offThread - this.offThread;
+                this.offThread = offThread;
+            }
+
+            long next = next(wall, cpu, failed);
+            if (next != this.interval) {
+                LOGGER.fine(String.format("Task '%s' rescheduled every %d ms (was %d ms).", this.name, next / 1_000_000, this.interval / 1_000_000));
+            }
+            this.interval = next;
+            report();
+
+            if (!executor.isShutdown()) {
+                executor.schedule(this, next, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private long next(long wall, long cpu, boolean failed) {
+            if (!adaptive) {
+                return this.base;
+            }
+
+            double changeRatio = (this.metrics == null) ? 0 : this.metrics.changeRatio();
+            long next = nextInterval(this.interval, this.base, this.min, this.max, wall, failed, changeRatio);
+
+            /*
+             * The CPU budget is not bounded by max_backoff: it is what keeps the monitor light under incident load.
+             */
+            this.cpuShare = (double) cpu / next;
+            if (cpuBudget > 0) {
+                double share = cpuShare();
+                if (share > cpuBudget) {
+                    next = (long) (next * (share / cpuBudget));
+                    this.cpuShare = (double) cpu / next;
+                }
+            }
+
+            return next;
+        }
+
+        private void report() {
+            if (this.metrics != null) {
+                this.metrics.interval(TimeUnit.NANOSECONDS.toMillis(this.interval));
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.jaybaws.metrics.core;
+import io.opentelemetry.api.OpenTelemetry;
+
+/**
+ * A source of metrics (EMS, IBM MQ, sockets, ...) that can share a JVM with other collectors.
+ *
+ * Implementations are discovered through {@link java.util.ServiceLoader}, so a module registers its collector in
+ * {@code META-INF/services/org.jaybaws.metrics.core.Collector}. The host hands every collector the same SDK and the
+ * same {@link AdaptiveScheduler}; a collector must therefore not initialize an SDK nor create threads of its own.
+ */
+public interface Collector {
+
+    /**
+     * @return a short, unique name to select this collector by, e.g. {@code ems}.
+     */
+    String name();
+
+    /**
+     * Reads the collector's configuration (its JVM arguments) and schedules its workers.
+     */
+    void start(OpenTelemetry sdk, AdaptiveScheduler scheduler);
+}
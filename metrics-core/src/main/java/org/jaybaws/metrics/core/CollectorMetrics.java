@@ -0,0 +1,281 @@
+package org.jaybaws.metrics.core;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleGauge;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Self-metrics of one worker, reported under {@code otel_metrics.collector.*} with a {@code worker} attribute:
+ *
+ * <ul>
+ *     <li>{@code scrape.duration}: duration of every run, in milliseconds;</li>
+ *     <li>{@code call.duration}: duration of the remote calls a run makes (MBean invokes, admin or PCF requests),
+ *     with a {@code call} attribute;</li>
+ *     <li>{@code failures}: failed runs and calls, by {@code exception.type};</li>
+ *     <li>{@code rows}: the number of rows (destinations, table entries, ...) parsed by the last successful run;</li>
+ *     <li>{@code series.live}: the number of series held by the worker's registry;</li>
+ *     <li>{@code last_success.age}: seconds since the last successful run (or since start, if there was none);</li>
+ *     <li>{@code scrape.interval}: the current interval between runs, as chosen by the {@link AdaptiveScheduler}.</li>
+ * </ul>
+ *
+ * A worker calls {@link #scrapeStarted()} at the beginning of its run and either {@link #scrapeSucceeded(long)} or
+ * {@link #scrapeFailed(long, Throwable)} at the end. Only the scraping thread writes; the reader only reads volatiles.
+ *
+ * The same figures are the feedback the {@link AdaptiveScheduler} uses to pick a worker's next interval, along with
+ * the CPU time a worker used on threads other than the one running it (see {@link #cpuUsed(long)}).
+ *
+ * In pull mode (see {@link OnDemandScrape}), {@code scrape.interval} stays {@code 0}: the readers set the pace.
+ */
+public final class CollectorMetrics {
+
+    public static final AttributeKey<String> WORKER = AttributeKey.stringKey("worker");
+    public static final AttributeKey<String> CALL = AttributeKey.stringKey("call");
+    public static final AttributeKey<String> EXCEPTION_TYPE = AttributeKey.stringKey("exception.type");
+
+    private static final double c_nanos_per_milli = 1_000_000d;
+    private static final double c_nanos_per_second = 1_000_000_000d;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Attributes attributes;
+    private final SeriesRegistry registry;
+
+    private final DoubleHistogram scrapeDuration;
+    private final DoubleHistogram callDuration;
+    private final LongCounter failures;
+
+    private final ObservableLongGauge rowsGauge;
+    private final ObservableDoubleGauge ageGauge;
+    private final ObservableLongGauge intervalGauge;
+    private final ObservableLongGauge seriesGauge;
+
+    /*
+     * Attributes per call and per failure, built once: the set of calls and exception types of a worker is small.
+     */
+    private final ConcurrentMap<String, Attributes> calls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Attributes> failureTypes = new ConcurrentHashMap<>();
+
+    private volatile long lastSuccess = System.nanoTime();
+    private volatile long lastRows = 0;
+    private volatile long interval = 0;
+    private volatile boolean failing = false;
+    private volatile OnDemandScrape onDemand;
+
+    private long rows = 0;
+
+    /*
+     * Written by any of the worker's threads.
+     */
+    private final LongAdder cpu = new LongAdder();
+
+    public CollectorMetrics(Meter meter, String worker) {
+        this(meter, worker, null);
+    }
+
+    /**
+     * @param registry the registry to report {@code series.live} for, or {@code null} if the worker has none.
+     */
+    public CollectorMetrics(Meter meter, String worker, SeriesRegistry registry) {
+        this(meter, worker, registry, Attributes.empty());
+    }
+
+    /**
+     * @param base attributes added to all self-metrics, e.g. to tell apart the workers of several remote servers
+     *             reporting through one meter.
+     */
+    public CollectorMetrics(Meter meter, String worker, SeriesRegistry registry, Attributes base) {
+        this.attributes = base.toBuilder().put(WORKER, worker).build();
+        this.registry = registry;
+
+        this.scrapeDuration = meter
+                .histogramBuilder("otel_metrics.collector.scrape.duration")
+                .setDescription("Duration of a worker's scrape.")
+                .setUnit("ms")
+                .build();
+
+        this.callDuration = meter
+                .histogramBuilder("otel_metrics.collector.call.duration")
+                .setDescription("Duration of a remote call made during a scrape.")
+                .setUnit("ms")
+                .build();
+
+        this.failures = meter
+                .counterBuilder("otel_metrics.collector.failures")
+                .setDescription("Number of failed scrapes and remote calls, by exception type.")
+                .build();
+
+        this.rowsGauge = meter
+                .gaugeBuilder("otel_metrics.collector.rows")
+                .ofLongs()
+                .setDescription("Number of rows parsed by the last successful scrape.")
+                .buildWithCallback(result -> {
+                    refresh();
+                    result.record(this.lastRows, this.attributes);
+                });
+
+        this.ageGauge = meter
+                .gaugeBuilder("otel_metrics.collector.last_success.age")
+                .setDescription("Time since the last successful scrape.")
+                .setUnit("s")
+                .buildWithCallback(result -> {
+                    refresh();
+                    result.record((System.nanoTime() - this.lastSuccess) / c_nanos_per_second, this.attributes);
+                });
+
+        this.intervalGauge = meter
+                .gaugeBuilder("otel_metrics.collector.scrape.interval")
+                .ofLongs()
+                .setDescription("Current interval between two scrapes.")
+                .setUnit("ms")
+                .buildWithCallback(result -> result.record(this.interval, this.attributes));
+
+        this.seriesGauge = (registry == null)
+                ? null
+                : meter
+                        .gaugeBuilder("otel_metrics.collector.series.live")
+                        .ofLongs()
+                        .setDescription("Number of series currently reported by the worker.")
+                        .buildWithCallback(result -> result.record(registry.size(), this.attributes));
+    }
+
+    /**
+     * Stops reporting the worker's self-metrics and series (see {@link SeriesRegistry#close()}), for a worker that is
+     * dropped while its meter lives on. The counters and histograms have no callbacks; they just stop moving.
+     */
+    public void close() {
+        this.rowsGauge.close();
+        this.ageGauge.close();
+        this.intervalGauge.close();
+        if (this.seriesGauge != null) {
+            this.seriesGauge.close();
+            this.registry.close();
+        }
+    }
+
+    /**
+     * @return the start timestamp to hand to {@link #scrapeSucceeded(long)} or {@link #scrapeFailed(long, Throwable)}.
+     */
+    public long scrapeStarted() {
+        this.rows = 0;
+        this.failing = false;
+        return System.nanoTime();
+    }
+
+    public void scrapeSucceeded(long started) {
+        long now = System.nanoTime();
+        this.scrapeDuration.record((now - started) / c_nanos_per_milli, this.attributes);
+        this.lastRows = this.rows;
+        this.lastSuccess = now;
+    }
+
+    public void scrapeFailed(long started, Throwable t) {
+        this.scrapeDuration.record((System.nanoTime() - started) / c_nanos_per_milli, this.attributes);
+        this.failures.add(1, failure(null, t));
+        this.failing = true;
+    }
+
+    /**
+     * Records the duration of a remote call that started at {@code started} (a {@link System#nanoTime()} value).
+     */
+    public void callCompleted(String call, long started) {
+        this.callDuration.record((System.nanoTime() - started) / c_nanos_per_milli, call(call));
+    }
+
+    public void callFailed(String call, long started, Throwable t) {
+        callCompleted(call, started);
+        this.failures.add(1, failure(call, t));
+        this.failing = true;
+    }
+
+    /**
+     * Adds to the number of rows parsed by the current scrape.
+     */
+    public void rows(int count) {
+        this.rows += count;
+    }
+
+    /**
+     * @return whether the last scrape, or one of its calls, failed.
+     */
+    public boolean failing() {
+        return this.failing;
+    }
+
+    /**
+     * @return the share of series (0..1) that changed during the last cycle, {@code 0} when there is no registry.
+     */
+    public double changeRatio() {
+        return (this.registry == null) ? 0 : this.registry.changeRatio();
+    }
+
+    /**
+     * Adds CPU time (in nanoseconds) the worker used on a thread other than the one running it, e.g. a pool it hands
+     * its calls to. The {@link AdaptiveScheduler} only measures the thread it runs the worker on, and adds this.
+     */
+    public void cpuUsed(long nanos) {
+        this.cpu.add(nanos);
+    }
+
+    /**
+     * @return the CPU time (in nanoseconds) reported through {@link #cpuUsed(long)} so far.
+     */
+    public long cpuTime() {
+        return this.cpu.sum();
+    }
+
+    /**
+     * @return the CPU time (in nanoseconds) the current thread used so far, {@code 0} where the JVM does not tell.
+     */
+    public static long threadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    void interval(long millis) {
+        this.interval = millis;
+    }
+
+    /**
+     * Pull mode: the worker scrapes when its metrics are collected. The self-metrics' callbacks trigger it as well,
+     * since they exist before the first scrape created any of the worker's own instruments.
+     */
+    public void collectOnDemand(OnDemandScrape onDemand) {
+        this.onDemand = onDemand;
+        if (this.registry != null) {
+            this.registry.collectOnDemand(onDemand);
+        }
+    }
+
+    private void refresh() {
+        OnDemandScrape onDemand = this.onDemand;
+        if (onDemand != null) {
+            onDemand.refresh();
+        }
+    }
+
+    private Attributes call(String call) {
+        Attributes attributes = this.calls.get(call);
+        if (attributes == null) {
+            attributes = this.calls.computeIfAbsent(call, c -> this.attributes.toBuilder().put(CALL, c).build());
+        }
+        return attributes;
+    }
+
+    private Attributes failure(String call, Throwable t) {
+        String type = t.getClass().getName();
+        String key = (call == null) ? type : call + '/' + type;
+        return this.failureTypes.computeIfAbsent(
+                key,
+                k -> (call == null)
+                        ? this.attributes.toBuilder().put(EXCEPTION_TYPE, type).build()
+                        : this.attributes.toBuilder().put(CALL, call).put(EXCEPTION_TYPE, type).build()
+        );
+    }
+}
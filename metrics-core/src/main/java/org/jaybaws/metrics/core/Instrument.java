@@ -0,0 +1,325 @@
+package org.jaybaws.metrics.core;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounterBuilder;
+import io.opentelemetry.api.metrics.LongGaugeBuilder;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleGauge;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * All series of one metric name, observed through a single OpenTelemetry callback.
+ *
+ * Lookups go through a concurrent map; the callback walks a plain array of slots, so its cost grows with the
+ * number of series but it never allocates nor takes a lock.
+ *
+ * Once the registry's cardinality budget is spent, new series are folded into one {@code item="__overflow__"}
+ * series that reports their sum. A folded series is not remembered as such: once eviction frees budget, its next
+ * write gets it a series of its own again. Each folded series is counted as dropped once, as long as it stays folded,
+ * for at most {@value #c_max_dropped} series per instrument; beyond that, the count is a lower bound.
+ *
+ * A counter instrument reports its series as a monotonic counter (see {@link Series} for resets and wraps). When the
+ * registry has rates enabled, it also reports the increase of the last interval as {@code <name>.delta} and its rate
+ * per second as {@code <name>.rate}; the overflow series of a counter is approximate, as the series it sums come
+ * and go.
+ */
+public final class Instrument {
+
+    private static final int c_initial_capacity = 16;
+    private static final int c_max_dropped = 1024;
+
+    public static final String OVERFLOW = "__overflow__";
+
+    private static final Attributes c_overflow_attributes = Attributes.of(SeriesRegistry.ITEM, OVERFLOW);
+
+    private final SeriesRegistry registry;
+    private final String name;
+    private final int bits;
+
+    private final ConcurrentMap<Object, Series> index = new ConcurrentHashMap<>();
+
+    /*
+     * Published (immutable) view on the slots array. Slots are only ever appended beyond 'size', so a reader holding
+     * an older view keeps seeing a consistent prefix of the array.
+     */
+    private volatile Slots slots = new Slots(new Series[c_initial_capacity], 0);
+
+    private final ObservableLongGauge gauge;
+    private final ObservableLongCounter counter;
+    private final ObservableLongGauge deltas;
+    private final ObservableDoubleGauge rates;
+
+    private volatile Series overflow;
+
+    /*
+     * The keys folded into the overflow series, so that each counts as dropped once.
+     */
+    private final Set<Object> dropped = ConcurrentHashMap.newKeySet();
+
+    Instrument(SeriesRegistry registry, Meter meter, String name, String description, String unit) {
+        this(registry, meter, name, description, unit, 0, false);
+    }
+
+    /**
+     * @param bits {@code 0} for a gauge, or the width (32 or 64) of the source counters.
+     * @param rates whether a counter also reports its deltas and rates.
+     */
+    Instrument(SeriesRegistry registry, Meter meter, String name, String description, String unit, int bits, boolean rates) {
+        this.registry = registry;
+        this.name = name;
+        this.bits = bits;
+
+        if (bits == 0) {
+            LongGaugeBuilder builder = meter.gaugeBuilder(name).ofLongs();
+            if (description != null) {
+                builder.setDescription(description);
+            }
+            if (unit != null) {
+                builder.setUnit(unit);
+            }
+            this.gauge = builder.buildWithCallback(this::observe);
+            this.counter = null;
+        } else {
+            LongCounterBuilder builder = meter.counterBuilder(name);
+            if (description != null) {
+                builder.setDescription(description);
+            }
+            if (unit != null) {
+                builder.setUnit(unit);
+            }
+            this.counter = builder.buildWithCallback(this::observe);
+            this.gauge = null;
+        }
+
+        if (bits != 0 && rates) {
+            this.deltas = meter
+                    .gaugeBuilder(name + ".delta")
+                    .ofLongs()
+                    .setDescription("Increase of " + name + " during the last scrape interval.")
+                    .buildWithCallback(this::observeDeltas);
+            this.rates = meter
+                    .gaugeBuilder(name + ".rate")
+                    .setDescription("Increase of " + name + " per second, over the last scrape interval.")
+                    .setUnit((unit == null) ? "1/s" : unit + "/s")
+                    .buildWithCallback(this::observeRates);
+        } else {
+            this.deltas = null;
+            this.rates = null;
+        }
+    }
+
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * Resolves the series identified by a single string attribute. The value is used as lookup key, so an
+     * instrument should consistently use the same attribute key.
+     */
+    public Series series(AttributeKey<String> key, String value) {
+        Series series = this.index.get(value);
+        if (series == null) {
+            series = (this.registry.admits(this)) ? add(value, Attributes.of(key, value)) : overflow(value);
+        }
+        return series;
+    }
+
+    /**
+     * Resolves the series identified by the given attribute set.
+     */
+    public Series series(Attributes attributes) {
+        Series series = this.index.get(attributes);
+        if (series == null) {
+            series = (this.registry.admits(this)) ? add(attributes, attributes) : overflow(attributes);
+        }
+        return series;
+    }
+
+    /**
+     * @return the number of series, not counting the overflow series.
+     */
+    public int size() {
+        return (this.overflow == null) ? this.slots.size : this.slots.size - 1;
+    }
+
+    boolean isEmpty() {
+        return this.slots.size == 0;
+    }
+
+    private synchronized Series add(Object key, Attributes attributes) {
+        Series series = this.index.get(key);
+        if (series != null) {
+            return series;
+        }
+
+        series = new Series(this.registry, key, this.registry.attributes(attributes), false, this.bits);
+        append(series);
+        this.index.put(key, series);
+        this.registry.added(1);
+        this.dropped.remove(key);
+
+        return series;
+    }
+
+    /*
+     * Series over budget are not indexed, so they come back here on every scrape, and are admitted once there is budget.
+     */
+    private Series overflow(Object key) {
+        if (this.dropped.size() < c_max_dropped && this.dropped.add(key)) {
+            this.registry.dropped();
+        }
+
+        Series series = this.overflow;
+        if (series == null) {
+            synchronized (this) {
+                series = this.overflow;
+                if (series == null) {
+                    series = new Series(this.registry, OVERFLOW, this.registry.attributes(c_overflow_attributes), true, this.bits);
+                    append(series);
+                    this.overflow = series;
+                }
+            }
+        }
+        return series;
+    }
+
+    private void append(Series series) {
+        Slots current = this.slots;
+        Series[] array = current.series;
+        if (current.size == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[current.size] = series;
+
+        this.slots = new Slots(array, current.size + 1);
+    }
+
+    /*
+     * Counts the series whose value changed since the previous cycle. Runs on the scraping thread, before evict().
+     */
+    int changed() {
+        Slots current = this.slots;
+        Series[] array = current.series;
+
+        Series overflow = this.overflow;
+        if (overflow != null) {
+            overflow.publish();
+        }
+
+        int changed = 0;
+        for (int i = 0; i < current.size; i++) {
+            if (array[i].changed()) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * Drops the series that were not written during the last 'ttl' cycles. Runs on the scraping thread; readers that
+     * still hold the previous view keep reporting it until their collection completes.
+     */
+    synchronized int evict(long cycle, int ttl) {
+        if (ttl == 0) {
+            return 0;
+        }
+
+        Slots current = this.slots;
+        Series[] array = current.series;
+        Series overflow = this.overflow;
+
+        int stale = 0;
+        for (int i = 0; i < current.size; i++) {
+            if (cycle - array[i].seen() >= ttl) {
+                stale++;
+            }
+        }
+
+        if (stale > 0) {
+            Series[] kept = new Series[Math.max(c_initial_capacity, array.length)];
+            int size = 0;
+            for (int i = 0; i < current.size; i++) {
+                Series series = array[i];
+                if (cycle - series.seen() >= ttl) {
+                    if (series == overflow) {
+                        this.overflow = null;
+                        this.dropped.clear();
+                    } else {
+                        this.index.remove(series.key());
+                        this.registry.added(-1);
+                    }
+                } else {
+                    kept[size++] = series;
+                }
+            }
+            this.slots = new Slots(kept, size);
+        }
+
+        return (overflow != null && cycle - overflow.seen() >= ttl) ? stale - 1 : stale;
+    }
+
+    /*
+     * Unregisters the callbacks, after which this instrument is no longer reported.
+     */
+    void close() {
+        if (this.gauge != null) {
+            this.gauge.close();
+        }
+        if (this.counter != null) {
+            this.counter.close();
+        }
+        if (this.deltas != null) {
+            this.deltas.close();
+            this.rates.close();
+        }
+    }
+
+    /*
+     * The collection path: must stay free of allocations (see InstrumentAllocationTest).
+     */
+    void observe(ObservableLongMeasurement measurement) {
+        this.registry.refresh();
+
+        Slots current = this.slots;
+        Series[] array = current.series;
+        for (int i = 0; i < current.size; i++) {
+            Series series = array[i];
+            measurement.record(series.get(), series.attributes());
+        }
+    }
+
+    void observeDeltas(ObservableLongMeasurement measurement) {
+        Slots current = this.slots;
+        Series[] array = current.series;
+        for (int i = 0; i < current.size; i++) {
+            Series series = array[i];
+            measurement.record(series.delta(), series.attributes());
+        }
+    }
+
+    void observeRates(ObservableDoubleMeasurement measurement) {
+        Slots current = this.slots;
+        Series[] array = current.series;
+        for (int i = 0; i < current.size; i++) {
+            Series series = array[i];
+            measurement.record(series.rate(), series.attributes());
+        }
+    }
+
+    private static final class Slots {
+        private final Series[] series;
+        private final int size;
+
+        private Slots(Series[] series, int size) {
+            this.series = series;
+            this.size = size;
+        }
+    }
+}
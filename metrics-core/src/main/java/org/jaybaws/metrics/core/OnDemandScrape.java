@@ -0,0 +1,60 @@
+package org.jaybaws.metrics.core;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a worker's scrape from the OpenTelemetry reader's collection, instead of on a schedule of its own.
+ *
+ * A scrape is only run when the last one completed more than 'freshness' ago. Calls are single-flight: a reader that
+ * comes in while another one's scrape is in flight waits for it and reports its result, rather than making the same
+ * remote calls again. This way, a pull endpoint and an OTLP exporter collecting at the same time share one scrape.
+ *
+ * See {@link AdaptiveScheduler}, which attaches one to every {@link Scraper} when pull mode is enabled.
+ */
+public final class OnDemandScrape {
+
+    private static final Logger LOGGER = Logger.getLogger(OnDemandScrape.class.getName());
+
+    private final Runnable scrape;
+    private final long freshness;
+
+    private volatile long completed;
+
+    /**
+     * @param freshness for how long (in nanoseconds) the result of a scrape is reported without scraping again.
+     */
+    public OnDemandScrape(Runnable scrape, long freshness) {
+        this.scrape = scrape;
+        this.freshness = Math.max(0, freshness);
+        this.completed = System.nanoTime() - this.freshness - 1;
+    }
+
+    /**
+     * Scrapes, unless the last scrape is still fresh. Called on the reader's thread, from the instruments' callbacks;
+     * when the result is fresh, this neither blocks nor allocates.
+     */
+    public void refresh() {
+        long arrived = System.nanoTime();
+        if (arrived - this.completed < this.freshness) {
+            return;
+        }
+
+        synchronized (this) {
+            /*
+             * A scrape that completed while we were waiting for the lock was in flight when we arrived: share it.
+             */
+            long completed = this.completed;
+            if (completed - arrived > 0 || System.nanoTime() - completed < this.freshness) {
+                return;
+            }
+
+            try {
+                this.scrape.run();
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "On-demand scrape failed!", t);
+            } finally {
+                this.completed = System.nanoTime();
+            }
+        }
+    }
+}
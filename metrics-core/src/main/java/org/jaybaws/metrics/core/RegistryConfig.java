@@ -0,0 +1,65 @@
+package org.jaybaws.metrics.core;
+
+/**
+ * Time-to-live, cardinality budget and counter rates of a {@link SeriesRegistry}.
+ */
+public final class RegistryConfig {
+
+    public static final RegistryConfig DEFAULT = new RegistryConfig(5, 0, 0, false);
+
+    private final int ttl;
+    private final int maxSeries;
+    private final int maxSeriesPerInstrument;
+    private final boolean rates;
+
+    public RegistryConfig(int ttl, int maxSeries, int maxSeriesPerInstrument) {
+        this(ttl, maxSeries, maxSeriesPerInstrument, false);
+    }
+
+    public RegistryConfig(int ttl, int maxSeries, int maxSeriesPerInstrument, boolean rates) {
+        this.ttl = ttl;
+        this.maxSeries = maxSeries;
+        this.maxSeriesPerInstrument = maxSeriesPerInstrument;
+        this.rates = rates;
+    }
+
+    /**
+     * Reads {@code <prefix>.ttl}, {@code <prefix>.maxseries}, {@code <prefix>.maxseries.per_metric} and
+     * {@code <prefix>.rates} from the JVM arguments, falling back to {@link #DEFAULT}.
+     */
+    public static RegistryConfig fromSystemProperties(String prefix) {
+        return new RegistryConfig(
+                Integer.parseInt(System.getProperty(prefix + ".ttl", String.valueOf(DEFAULT.ttl))),
+                Integer.parseInt(System.getProperty(prefix + ".maxseries", String.valueOf(DEFAULT.maxSeries))),
+                Integer.parseInt(System.getProperty(prefix + ".maxseries.per_metric", String.valueOf(DEFAULT.maxSeriesPerInstrument))),
+                Boolean.parseBoolean(System.getProperty(prefix + ".rates", String.valueOf(DEFAULT.rates)))
+        );
+    }
+
+    public int ttl() {
+        return this.ttl;
+    }
+
+    public int maxSeries() {
+        return this.maxSeries;
+    }
+
+    public int maxSeriesPerInstrument() {
+        return this.maxSeriesPerInstrument;
+    }
+
+    public boolean rates() {
+        return this.rates;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ttl=%d, maxseries=%d, maxseries.per_metric=%d, rates=%b",
+                this.ttl,
+                this.maxSeries,
+                this.maxSeriesPerInstrument,
+                this.rates
+        );
+    }
+}
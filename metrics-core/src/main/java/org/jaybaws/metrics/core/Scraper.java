@@ -0,0 +1,26 @@
+package org.jaybaws.metrics.core;
+
+/**
+ * A worker that reports on itself through {@link CollectorMetrics}, so the {@link AdaptiveScheduler} can take its
+ * failures and the rate of change of its series into account.
+ */
+public interface Scraper extends Runnable {
+
+    CollectorMetrics metrics();
+
+    /**
+     * Has the worker scrape when its metrics are collected (see {@link AdaptiveScheduler}'s pull mode). A worker that
+     * drives other workers should hand it to their metrics as well.
+     */
+    default void collectOnDemand(OnDemandScrape onDemand) {
+        metrics().collectOnDemand(onDemand);
+    }
+
+    /**
+     * Stops reporting the worker's metrics, for a worker that is dropped while the meter provider lives on; it may
+     * still be running. A worker with instruments outside of its {@link CollectorMetrics} closes those as well.
+     */
+    default void close() {
+        metrics().close();
+    }
+}
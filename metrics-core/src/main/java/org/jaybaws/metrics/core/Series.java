@@ -0,0 +1,176 @@
+package org.jaybaws.metrics.core;
+import io.opentelemetry.api.common.Attributes;
+
+/**
+ * A single time series: a pre-resolved slot holding the latest (primitive) value of one attribute set.
+ *
+ * Collectors resolve a series once and write to it on every scrape; the instrument's callback reads it on every
+ * collection. Writes come from a single scraping thread, reads from the reader thread, hence the volatile.
+ *
+ * Every write also stamps the registry's current cycle, which is what keeps the series from being evicted.
+ *
+ * The overflow series of an instrument sums all writes of a cycle instead, and publishes that sum when the cycle
+ * completes.
+ *
+ * A series of a counter instrument is written the source's cumulative value, but reports a total that only ever
+ * grows: a value below the previous one is taken as a wrap of a 32-bit source counter when it is near the top of
+ * its range, and as a reset (e.g. a restarted engine) otherwise. Either way, only the increase since then is added.
+ * The increase of the last interval and its rate per second are kept as well.
+ */
+public final class Series {
+
+    private static final long c_uint32_range = 1L << 32;
+    private static final long c_uint32_mask = c_uint32_range - 1;
+
+    /*
+     * A drop from the top quarter of the 32-bit range into the bottom quarter is a wrap; anything else is a reset.
+     */
+    private static final long c_uint32_wrap_from = c_uint32_range / 4 * 3;
+    private static final long c_uint32_wrap_to = c_uint32_range / 4;
+
+    private static final double c_nanos_per_second = 1_000_000_000d;
+
+    private final SeriesRegistry registry;
+    private final Object key;
+    private final Attributes attributes;
+    private final boolean overflow;
+    private final int bits;
+
+    private volatile long value;
+    private volatile long seen;
+
+    private long pending;
+    private long previous;
+
+    /*
+     * Counters only: the source's last value and when it was read, and the increase (and its rate) since the read
+     * before that.
+     */
+    private long raw;
+    private long stamp;
+    private boolean counting;
+    private volatile long delta;
+    private volatile double rate;
+
+    Series(SeriesRegistry registry, Object key, Attributes attributes, boolean overflow) {
+        this(registry, key, attributes, overflow, 0);
+    }
+
+    /**
+     * @param bits {@code 0} for a gauge, or the width (32 or 64) of the source counter.
+     */
+    Series(SeriesRegistry registry, Object key, Attributes attributes, boolean overflow, int bits) {
+        this.registry = registry;
+        this.key = key;
+        this.attributes = attributes;
+        this.overflow = overflow;
+        this.bits = bits;
+        this.seen = registry.cycle();
+    }
+
+    public void set(long value) {
+        if (this.overflow) {
+            this.pending += value;
+        } else if (this.bits != 0) {
+            count(value);
+        } else {
+            this.value = value;
+        }
+        this.seen = this.registry.cycle();
+    }
+
+    /**
+     * Keeps the series from being evicted without writing it, for a source row known not to have changed since the
+     * previous write. A counter's delta and rate drop to zero.
+     *
+     * @return false for the overflow series, which has to be written every cycle.
+     */
+    public boolean touch() {
+        if (this.overflow) {
+            return false;
+        }
+        if (this.counting) {
+            this.delta = 0;
+            this.rate = 0;
+            this.stamp = System.nanoTime();
+        }
+        this.seen = this.registry.cycle();
+        return true;
+    }
+
+    public long get() {
+        return this.value;
+    }
+
+    public Attributes attributes() {
+        return this.attributes;
+    }
+
+    /**
+     * @return the increase of this counter between its last two writes.
+     */
+    public long delta() {
+        return this.delta;
+    }
+
+    /**
+     * @return the increase of this counter between its last two writes, per second.
+     */
+    public double rate() {
+        return this.rate;
+    }
+
+    void publish() {
+        if (this.bits != 0) {
+            count(this.pending);
+        } else {
+            this.value = this.pending;
+        }
+        this.pending = 0;
+    }
+
+    private void count(long source) {
+        long now = System.nanoTime();
+        long raw = (this.bits == 32) ? source & c_uint32_mask : source;
+
+        if (!this.counting) {
+            this.counting = true;
+            this.value = raw;
+        } else {
+            long delta = raw - this.raw;
+            if (delta < 0) {
+                if (this.bits == 32 && this.raw >= c_uint32_wrap_from && raw < c_uint32_wrap_to) {
+                    delta += c_uint32_range;
+                } else {
+                    delta = raw;
+                    this.registry.reset();
+                }
+            }
+
+            this.value += delta;
+            this.delta = delta;
+            this.rate = (now > this.stamp) ? delta * c_nanos_per_second / (now - this.stamp) : 0;
+        }
+
+        this.raw = raw;
+        this.stamp = now;
+    }
+
+    /*
+     * Scrape thread only: whether the value differs from the one seen at the previous cycle's end.
+     */
+    boolean changed() {
+        long current = this.value;
+        boolean changed = current != this.previous;
+        this.previous = current;
+        return changed;
+    }
+
+    Object key() {
+        return this.key;
+    }
+
+    long seen() {
+        return this.seen;
+    }
+}
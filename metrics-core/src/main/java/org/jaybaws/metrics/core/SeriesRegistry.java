@@ -0,0 +1,271 @@
+package org.jaybaws.metrics.core;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe store of long-valued series, shared by a collector's scraping thread and the OpenTelemetry reader.
+ *
+ * Every metric name gets exactly one {@link Instrument}, backed by one callback that reports all of its series.
+ * Collection cost therefore scales with the number of instruments, not with the number of series.
+ *
+ * A collector calls {@link #completeCycle()} after every successful scrape. Series that have not been written for
+ * 'ttl' cycles are then evicted, and an instrument without series is unregistered altogether.
+ *
+ * The number of series can be capped, both in total and per instrument. Series beyond that budget are folded into
+ * the instrument's overflow series (see {@link Instrument}) and counted as dropped, once per series.
+ *
+ * Cumulative source counters go through {@link #counter(String, int)}, which reports them as monotonic counters
+ * that survive resets and wraps of the source, optionally along with their per-interval deltas and rates.
+ */
+public class SeriesRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(SeriesRegistry.class.getName());
+
+    public static final AttributeKey<String> ITEM = AttributeKey.stringKey("item");
+
+    private final Meter meter;
+
+    private final ConcurrentMap<String, Instrument> instruments = new ConcurrentHashMap<>();
+
+    private final LongCounter evictions;
+    private final LongCounter drops;
+    private final LongCounter resets;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile long cycle = 0;
+    private volatile double changeRatio = 0;
+    private volatile OnDemandScrape onDemand;
+    private boolean closed = false;
+    private int ttl = 0;
+    private int maxSeries = 0;
+    private int maxSeriesPerInstrument = 0;
+    private boolean rates = false;
+    private Attributes base = Attributes.empty();
+
+    public SeriesRegistry(Meter meter) {
+        this.meter = meter;
+        this.evictions = meter
+                .counterBuilder("otel_metrics.collector.series.evicted")
+                .setDescription("Number of series evicted because they were not refreshed within their time-to-live.")
+                .build();
+        this.drops = meter
+                .counterBuilder("otel_metrics.collector.series.dropped")
+                .setDescription("Number of series folded into an overflow series because the cardinality limit was reached.")
+                .build();
+        this.resets = meter
+                .counterBuilder("otel_metrics.collector.counter.resets")
+                .setDescription("Number of times a source counter went backwards, e.g. because its server restarted.")
+                .build();
+    }
+
+    public SeriesRegistry(Meter meter, RegistryConfig config) {
+        this(meter);
+        withTtl(config.ttl());
+        withLimits(config.maxSeries(), config.maxSeriesPerInstrument());
+        withRates(config.rates());
+    }
+
+    /**
+     * @param ttl the number of scrape cycles a series may go without being refreshed, {@code 0} to never evict.
+     */
+    public SeriesRegistry withTtl(int ttl) {
+        this.ttl = Math.max(0, ttl);
+        return this;
+    }
+
+    /**
+     * @param maxSeries the maximum number of series across all instruments, {@code 0} for no limit.
+     * @param maxSeriesPerInstrument the maximum number of series of a single instrument, {@code 0} for no limit.
+     */
+    public SeriesRegistry withLimits(int maxSeries, int maxSeriesPerInstrument) {
+        this.maxSeries = Math.max(0, maxSeries);
+        this.maxSeriesPerInstrument = Math.max(0, maxSeriesPerInstrument);
+        return this;
+    }
+
+    /**
+     * @param rates whether counters also report {@code <name>.delta} and {@code <name>.rate} gauges. Only affects
+     *              counters created afterwards.
+     */
+    public SeriesRegistry withRates(boolean rates) {
+        this.rates = rates;
+        return this;
+    }
+
+    /**
+     * @param base attributes added to every series (and to the registry's self-metrics), e.g. to tell apart the
+     *             registries of several remote servers reporting through one meter. Lookups keep using the series'
+     *             own attributes. Only affects series created afterwards.
+     */
+    public SeriesRegistry withAttributes(Attributes base) {
+        this.base = base;
+        return this;
+    }
+
+    public Instrument gauge(String name) {
+        return gauge(name, null, null);
+    }
+
+    public Instrument gauge(String name, String description, String unit) {
+        Instrument instrument = this.instruments.get(name);
+        if (instrument == null) {
+            instrument = register(name, n -> new Instrument(this, this.meter, n, description, unit));
+        }
+        return instrument;
+    }
+
+    /**
+     * @param bits the width of the source counter: {@code 32} when it wraps around as an (unsigned) int, else
+     *             {@code 64}.
+     */
+    public Instrument counter(String name, int bits) {
+        return counter(name, null, null, bits);
+    }
+
+    public Instrument counter(String name, String description, String unit, int bits) {
+        Instrument instrument = this.instruments.get(name);
+        if (instrument == null) {
+            instrument = register(name, n -> new Instrument(this, this.meter, n, description, unit, bits, this.rates));
+        }
+        return instrument;
+    }
+
+    /*
+     * Once closed, an instrument is still handed out (to a scrape that is still running), but no longer reported.
+     */
+    private synchronized Instrument register(String name, Function<String, Instrument> factory) {
+        if (this.closed) {
+            Instrument instrument = factory.apply(name);
+            instrument.close();
+            return instrument;
+        }
+        return this.instruments.computeIfAbsent(name, factory);
+    }
+
+    /**
+     * Unregisters all instruments, for a registry that is dropped while its meter lives on (e.g. along with an engine
+     * that went away). Its series are no longer reported, also when a scrape that is still running writes them.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        for (Instrument instrument : this.instruments.values()) {
+            instrument.close();
+        }
+        this.instruments.clear();
+        this.size.set(0);
+    }
+
+    /**
+     * Shorthand for the collectors that identify their series by a single {@code item} attribute.
+     */
+    public void track(String name, String item, long value) {
+        gauge(name).series(ITEM, item).set(value);
+    }
+
+    /**
+     * Like {@link #track(String, String, long)}, for a cumulative (64-bit) source counter.
+     */
+    public void count(String name, String item, long value) {
+        counter(name, 64).series(ITEM, item).set(value);
+    }
+
+    /**
+     * Marks the end of a scrape cycle, evicting the series that went stale.
+     *
+     * @return the number of evicted series.
+     */
+    public int completeCycle() {
+        int evicted = 0;
+        int changed = 0;
+        int total = 0;
+
+        Iterator<Instrument> it = this.instruments.values().iterator();
+        while (it.hasNext()) {
+            Instrument instrument = it.next();
+            changed += instrument.changed();
+            total += instrument.size();
+            evicted += instrument.evict(this.cycle, this.ttl);
+            if (this.ttl > 0 && instrument.isEmpty()) {
+                it.remove();
+                instrument.close();
+                LOGGER.fine(String.format("Unregistered instrument '%s', it has no series left.", instrument.name()));
+            }
+        }
+
+        if (evicted > 0) {
+            this.evictions.add(evicted, this.base);
+        }
+
+        this.changeRatio = (total == 0) ? 0 : Math.min(1d, (double) changed / total);
+        this.cycle++;
+        return evicted;
+    }
+
+    /**
+     * @return the share of series (0..1) whose value changed during the last completed cycle.
+     */
+    public double changeRatio() {
+        return this.changeRatio;
+    }
+
+    /*
+     * In pull mode, the instruments' callbacks have the worker scrape before they report (see OnDemandScrape).
+     */
+    void collectOnDemand(OnDemandScrape onDemand) {
+        this.onDemand = onDemand;
+    }
+
+    void refresh() {
+        OnDemandScrape onDemand = this.onDemand;
+        if (onDemand != null) {
+            onDemand.refresh();
+        }
+    }
+
+    /*
+     * The attributes a series gets reported with.
+     */
+    Attributes attributes(Attributes own) {
+        return this.base.isEmpty() ? own : this.base.toBuilder().putAll(own).build();
+    }
+
+    long cycle() {
+        return this.cycle;
+    }
+
+    /*
+     * The budget is checked before the (locked) insert, so concurrent scrapes may overshoot it by a few series.
+     */
+    boolean admits(Instrument instrument) {
+        return (this.maxSeries == 0 || this.size.get() < this.maxSeries)
+                && (this.maxSeriesPerInstrument == 0 || instrument.size() < this.maxSeriesPerInstrument);
+    }
+
+    void added(int delta) {
+        this.size.addAndGet(delta);
+    }
+
+    void dropped() {
+        this.drops.add(1, this.base);
+    }
+
+    void reset() {
+        this.resets.add(1, this.base);
+    }
+
+    /**
+     * @return the number of series currently held, across all instruments (overflow series not included).
+     */
+    public int size() {
+        return this.size.get();
+    }
+}
@@ -0,0 +1,137 @@
+package org.jaybaws.metrics.core;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency distribution that is cheap enough to record on every call of hot code: lock-free, allocation-free, and
+ * striped by thread so that threads on different cores rarely touch the same cache line.
+ *
+ * Values (nanoseconds) go into exponential buckets with 8 linear sub-buckets per power of two, so a value is known
+ * to within about 6% (values below 8 exactly). Values beyond 2^42 ns (about 73 minutes) go into the last bucket.
+ *
+ * The reader {@link #drain()}s the buckets of the interval since its previous drain, and derives quantiles from them
+ * with {@link #quantile(long[], double)}. The cumulative count and sum are available as well, for counters.
+ */
+public final class StripedHistogram {
+
+    private static final int c_sub_bits = 3;
+    private static final int c_sub = 1 << c_sub_bits;
+    private static final int c_max_exponent = 42;
+
+    /**
+     * The number of buckets; a drained interval has its count and sum at these two positions after the buckets.
+     */
+    public static final int BUCKETS = (c_max_exponent - c_sub_bits + 2) * c_sub;
+    public static final int COUNT = BUCKETS;
+    public static final int SUM = BUCKETS + 1;
+
+    /*
+     * Every stripe is a row of buckets, count and sum, padded to keep neighbouring rows off each other's cache lines.
+     */
+    private static final int c_stride = ((BUCKETS + 2 + 7) & ~7) + 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /*
+     * Reader only.
+     */
+    private final long[] previous = new long[BUCKETS + 2];
+    private final long[] interval = new long[BUCKETS + 2];
+
+    public StripedHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded down to a power of two between 1 and 16.
+     */
+    public StripedHistogram(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, Math.min(16, stripes)));
+        this.cells = new AtomicLongArray(n * c_stride);
+        this.mask = n - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int row = (int) (Thread.currentThread().getId() & this.mask) * c_stride;
+        this.cells.getAndIncrement(row + bucket(value));
+        this.cells.getAndIncrement(row + COUNT);
+        this.cells.getAndAdd(row + SUM, value);
+    }
+
+    /**
+     * @return the number of values recorded since creation.
+     */
+    public long count() {
+        return total(COUNT);
+    }
+
+    /**
+     * @return the sum (nanoseconds) of the values recorded since creation.
+     */
+    public long sum() {
+        return total(SUM);
+    }
+
+    /**
+     * Reader only: the bucket counts, count and sum of the values recorded since the previous drain. The returned
+     * array is reused by the next drain.
+     */
+    public synchronized long[] drain() {
+        for (int i = 0; i < BUCKETS + 2; i++) {
+            long current = total(i);
+            this.interval[i] = current - this.previous[i];
+            this.previous[i] = current;
+        }
+        return this.interval;
+    }
+
+    /**
+     * @return the value (nanoseconds, the middle of its bucket) below which fraction 'q' of a drained interval's values
+     * fall, or {@code 0} for an empty interval.
+     */
+    public static long quantile(long[] interval, double q) {
+        long count = interval[COUNT];
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += interval[i];
+            if (seen >= rank) {
+                return value(i);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+
+    private long total(int cell) {
+        long total = 0;
+        for (int row = 0; row <= this.mask; row++) {
+            total += this.cells.get(row * c_stride + cell);
+        }
+        return total;
+    }
+
+    static int bucket(long value) {
+        if (value < c_sub) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > c_max_exponent) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - c_sub_bits)) & (c_sub - 1);
+        return (exponent - c_sub_bits + 1) * c_sub + sub;
+    }
+
+    static long value(int bucket) {
+        if (bucket < c_sub) {
+            return bucket;
+        }
+        int shift = bucket / c_sub - 1;
+        long lower = (long) (c_sub + bucket % c_sub) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+}
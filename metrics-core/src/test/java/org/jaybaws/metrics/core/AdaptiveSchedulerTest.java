@@ -0,0 +1,114 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveSchedulerTest {
+
+    private static final long BASE = TimeUnit.SECONDS.toNanos(60);
+    private static final long MIN = BASE / 2;
+    private static final long MAX = BASE * 8;
+
+    private static final long CHEAP = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void backsOffOnFailureUpToTheLimit() {
+        long interval = BASE;
+        for (int i = 0; i < 10; i++) {
+            interval = AdaptiveScheduler.nextInterval(interval, BASE, MIN, MAX, CHEAP, true, 0);
+        }
+        assertEquals(MAX, interval);
+    }
+
+    @Test
+    public void stretchesExpensiveScrapes() {
+        long wall = TimeUnit.SECONDS.toNanos(12);
+        assertEquals(wall * 10, AdaptiveScheduler.nextInterval(BASE, BASE, MIN, MAX, wall, false, 0));
+    }
+
+    @Test
+    public void speedsUpCheapScrapesOfChangingSeries() {
+        assertEquals(MIN, AdaptiveScheduler.nextInterval(BASE, BASE, MIN, MAX, CHEAP, false, 0.9));
+        assertEquals(MIN, AdaptiveScheduler.nextInterval(MIN, BASE, MIN, MAX, CHEAP, false, 0.9));
+        assertEquals(BASE, AdaptiveScheduler.nextInterval(BASE, BASE, MIN, MAX, CHEAP, false, 0.1));
+    }
+
+    @Test
+    public void relaxesTowardsTheBase() {
+        assertEquals(BASE * 4, AdaptiveScheduler.nextInterval(MAX, BASE, MIN, MAX, CHEAP, false, 0));
+        assertEquals(BASE, AdaptiveScheduler.nextInterval(BASE * 2, BASE, MIN, MAX, CHEAP, false, 0));
+        assertEquals(BASE, AdaptiveScheduler.nextInterval(MIN, BASE, MIN, MAX, CHEAP, false, 0.1));
+    }
+
+    @Test
+    public void countsTheCpuTimeUsedOnOtherThreadsAgainstTheBudget() throws InterruptedException {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        CollectorMetrics metrics = new CollectorMetrics(
+                SdkMeterProvider.builder().registerMetricReader(reader).build().get("test"),
+                "test"
+        );
+        Scraper scraper = new Scraper() {
+            @Override
+            public CollectorMetrics metrics() {
+                return metrics;
+            }
+
+            @Override
+            public void run() {
+                metrics.cpuUsed(TimeUnit.MILLISECONDS.toNanos(500));
+            }
+        };
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(executor, true, 0.02, 8, 2);
+        scheduler.schedule("test", scraper, 0, 1, TimeUnit.SECONDS);
+
+        /*
+         * Half a second of CPU time per run is 25 times the budget at an interval of one second, plus what the
+         * scheduler's own thread used.
+         */
+        long interval = 1_000;
+        for (int i = 0; i < 100 && interval == 1_000; i++) {
+            Thread.sleep(10);
+            interval = interval(reader);
+        }
+        scheduler.shutdown();
+
+        assertTrue(String.valueOf(interval), interval >= 25_000 && interval < 26_000);
+    }
+
+    private static long interval(InMemoryMetricReader reader) {
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("otel_metrics.collector.scrape.interval")) {
+                return metric.getLongGaugeData().getPoints().iterator().next().getValue();
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void tracksTheShareOfChangedSeries() {
+        SeriesRegistry registry = new SeriesRegistry(OpenTelemetry.noop().getMeter("test"));
+        CollectorMetrics metrics = new CollectorMetrics(OpenTelemetry.noop().getMeter("test"), "test", registry);
+
+        for (int i = 0; i < 4; i++) {
+            registry.track("test.depth", "Q" + i, i);
+        }
+        registry.completeCycle();
+        assertEquals(0.75, metrics.changeRatio(), 0.001);
+
+        registry.track("test.depth", "Q0", 0);
+        registry.track("test.depth", "Q1", 1);
+        registry.track("test.depth", "Q2", 5);
+        registry.track("test.depth", "Q3", 3);
+        registry.completeCycle();
+        assertEquals(0.25, metrics.changeRatio(), 0.001);
+    }
+}
@@ -0,0 +1,49 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class CollectorMetricsTest {
+
+    @Test
+    public void reportsDurationsFailuresRowsAndSeries() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(reader).build();
+        SeriesRegistry registry = new SeriesRegistry(provider.get("test"));
+        CollectorMetrics metrics = new CollectorMetrics(provider.get("test"), "test", registry);
+
+        long started = metrics.scrapeStarted();
+        metrics.callCompleted("GetActivities", System.nanoTime());
+        metrics.rows(3);
+        registry.track("test.depth", "Q1", 1);
+        registry.track("test.depth", "Q2", 2);
+        metrics.scrapeSucceeded(started);
+
+        started = metrics.scrapeStarted();
+        metrics.callFailed("GetActivities", System.nanoTime(), new IllegalStateException());
+        metrics.scrapeFailed(started, new IllegalStateException());
+
+        Map<String, MetricData> byName = new HashMap<>();
+        for (MetricData metric : reader.collectAllMetrics()) {
+            byName.put(metric.getName(), metric);
+        }
+
+        assertEquals(2, byName.get("otel_metrics.collector.scrape.duration").getHistogramData().getPoints().iterator().next().getCount());
+        assertEquals(2, byName.get("otel_metrics.collector.call.duration").getHistogramData().getPoints().iterator().next().getCount());
+        assertEquals(2, byName.get("otel_metrics.collector.failures").getLongSumData().getPoints().size());
+        assertEquals(3, byName.get("otel_metrics.collector.rows").getLongGaugeData().getPoints().iterator().next().getValue());
+        assertEquals(2, byName.get("otel_metrics.collector.series.live").getLongGaugeData().getPoints().iterator().next().getValue());
+        assertTrue(byName.get("otel_metrics.collector.last_success.age").getDoubleGaugeData().getPoints().iterator().next().getValue() >= 0);
+
+        assertEquals(
+                Attributes.of(CollectorMetrics.WORKER, "test", CollectorMetrics.CALL, "GetActivities"),
+                byName.get("otel_metrics.collector.call.duration").getHistogramData().getPoints().iterator().next().getAttributes()
+        );
+    }
+}
@@ -0,0 +1,72 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.api.metrics.MeterProvider;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+/**
+ * Verifies that reporting the series of an instrument does not allocate, no matter how many series it holds.
+ */
+public class InstrumentAllocationTest {
+
+    private static final int c_series = 10_000;
+    private static final int c_collections = 200;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void collectionDoesNotAllocate() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        SeriesRegistry registry = new SeriesRegistry(MeterProvider.noop().get("test"));
+        Instrument instrument = registry.gauge("test.depth");
+        for (int i = 0; i < c_series; i++) {
+            instrument.series(SeriesRegistry.ITEM, "Q" + i).set(i);
+        }
+
+        Sink sink = new Sink();
+
+        /*
+         * Warm up, so we measure the JIT-compiled path.
+         */
+        for (int i = 0; i < c_collections; i++) {
+            instrument.observe(sink);
+        }
+
+        long overhead = allocatedBytes() - allocatedBytes();
+        long before = allocatedBytes();
+        for (int i = 0; i < c_collections; i++) {
+            instrument.observe(sink);
+        }
+        long allocated = allocatedBytes() - before - overhead;
+
+        assertTrue(sink.sum != 0);
+        assertTrue(
+                String.format("%d collections of %d series allocated %d bytes", c_collections, c_series, allocated),
+                allocated < 1024
+        );
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final class Sink implements ObservableLongMeasurement {
+        private long sum;
+
+        @Override
+        public void record(long value) {
+            this.sum += value;
+        }
+
+        @Override
+        public void record(long value, Attributes attributes) {
+            this.sum += value;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertEquals;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class OnDemandScrapeTest {
+
+    @Test
+    public void scrapesOnlyWhenStale() {
+        AtomicInteger scrapes = new AtomicInteger();
+        OnDemandScrape onDemand = new OnDemandScrape(scrapes::incrementAndGet, TimeUnit.MINUTES.toNanos(1));
+
+        onDemand.refresh();
+        onDemand.refresh();
+        assertEquals(1, scrapes.get());
+
+        OnDemandScrape always = new OnDemandScrape(scrapes::incrementAndGet, 0);
+        always.refresh();
+        always.refresh();
+        assertEquals(3, scrapes.get());
+    }
+
+    @Test
+    public void concurrentReadersShareOneScrape() throws InterruptedException {
+        AtomicInteger scrapes = new AtomicInteger();
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        OnDemandScrape onDemand = new OnDemandScrape(() -> {
+            scrapes.incrementAndGet();
+            inFlight.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0);
+
+        Thread first = new Thread(onDemand::refresh);
+        first.start();
+        inFlight.await();
+
+        Thread second = new Thread(onDemand::refresh);
+        second.start();
+        while (second.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        first.join();
+        second.join();
+        assertEquals(1, scrapes.get());
+    }
+
+    @Test
+    public void collectionTriggersTheScrape() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(reader).build();
+        SeriesRegistry registry = new SeriesRegistry(provider.get("test"));
+        CollectorMetrics metrics = new CollectorMetrics(provider.get("test"), "test", registry);
+
+        AtomicInteger scrapes = new AtomicInteger();
+        Scraper scraper = new Scraper() {
+            @Override
+            public CollectorMetrics metrics() {
+                return metrics;
+            }
+
+            @Override
+            public void run() {
+                registry.track("test.depth", "Q1", scrapes.incrementAndGet());
+                registry.completeCycle();
+            }
+        };
+
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(Executors.newSingleThreadScheduledExecutor(), true, 0, 8, 2)
+                .withPull(1, TimeUnit.MINUTES);
+        scheduler.schedule("test", scraper, 0, 60, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        assertEquals(0, scrapes.get());
+
+        reader.collectAllMetrics();
+        assertEquals(1, scrapes.get());
+
+        long reported = -1;
+        for (MetricData metric : reader.collectAllMetrics()) {
+            if (metric.getName().equals("test.depth")) {
+                reported = metric.getLongGaugeData().getPoints().iterator().next().getValue();
+            }
+        }
+        assertEquals(1, scrapes.get());
+        assertEquals(1, reported);
+    }
+}
@@ -0,0 +1,253 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.Collection;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeriesRegistryTest {
+
+    private InMemoryMetricReader reader;
+    private SeriesRegistry registry;
+
+    @Before
+    public void setUp() {
+        this.reader = InMemoryMetricReader.create();
+        SdkMeterProvider provider = SdkMeterProvider.builder().registerMetricReader(this.reader).build();
+        this.registry = new SeriesRegistry(provider.get("test"));
+    }
+
+    @Test
+    public void resolvesTheSameSlotForTheSameSeries() {
+        Series a = this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q1");
+        Series b = this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q1");
+
+        assertSame(a, b);
+        assertEquals(1, this.registry.size());
+    }
+
+    @Test
+    public void reportsSeriesWithTheRegistrysBaseAttributes() {
+        Attributes engine = Attributes.of(AttributeKey.stringKey("instance"), "PA");
+        this.registry.withAttributes(engine);
+
+        Series a = this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q1");
+        a.set(7);
+        assertSame(a, this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q1"));
+
+        LongPointData point = this.reader.collectAllMetrics().iterator().next().getLongGaugeData().getPoints().iterator().next();
+        assertEquals(engine.toBuilder().put(SeriesRegistry.ITEM, "Q1").build(), point.getAttributes());
+        assertEquals(7, point.getValue());
+    }
+
+    @Test
+    public void reportsAllSeriesThroughOneInstrument() {
+        for (int i = 0; i < 1000; i++) {
+            this.registry.track("test.depth", "Q" + i, i);
+        }
+        this.registry.track("test.depth", "Q7", 42);
+
+        Collection<MetricData> metrics = this.reader.collectAllMetrics();
+        assertEquals(1, metrics.size());
+
+        MetricData depth = metrics.iterator().next();
+        assertEquals(1000, depth.getLongGaugeData().getPoints().size());
+
+        long value = -1;
+        for (LongPointData point : depth.getLongGaugeData().getPoints()) {
+            if (point.getAttributes().equals(Attributes.of(SeriesRegistry.ITEM, "Q7"))) {
+                value = point.getValue();
+            }
+        }
+        assertEquals(42, value);
+    }
+
+    @Test
+    public void evictsSeriesThatWereNotRefreshedWithinTheirTtl() {
+        this.registry.withTtl(2);
+
+        this.registry.track("test.depth", "Q1", 1);
+        this.registry.track("test.depth", "Q2", 2);
+        this.registry.track("test.open", "Q2", 1);
+        assertEquals(0, this.registry.completeCycle());
+
+        this.registry.track("test.depth", "Q1", 1);
+        assertEquals(0, this.registry.completeCycle());
+
+        this.registry.track("test.depth", "Q1", 1);
+        assertEquals(2, this.registry.completeCycle());
+        assertEquals(1, this.registry.size());
+
+        Collection<MetricData> metrics = this.reader.collectAllMetrics();
+        long evicted = 0;
+        long depthPoints = 0;
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals("otel_metrics.collector.series.evicted")) {
+                evicted = metric.getLongSumData().getPoints().iterator().next().getValue();
+            } else if (metric.getName().equals("test.depth")) {
+                depthPoints = metric.getLongGaugeData().getPoints().size();
+            } else if (metric.getName().equals("test.open")) {
+                fail("test.open should have been unregistered");
+            }
+        }
+        assertEquals(2, evicted);
+        assertEquals(1, depthPoints);
+    }
+
+    @Test
+    public void foldsSeriesBeyondTheBudgetIntoTheOverflowSeries() {
+        this.registry.withLimits(0, 2);
+
+        this.registry.track("test.depth", "Q1", 1);
+        this.registry.track("test.depth", "Q2", 2);
+        this.registry.track("test.depth", "Q3", 3);
+        this.registry.track("test.depth", "Q4", 4);
+        this.registry.completeCycle();
+
+        assertEquals(2, this.registry.size());
+        assertSame(
+                this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q5"),
+                this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q6")
+        );
+
+        Collection<MetricData> metrics = this.reader.collectAllMetrics();
+        long dropped = 0;
+        long overflow = -1;
+        long depthPoints = 0;
+        for (MetricData metric : metrics) {
+            if (metric.getName().equals("otel_metrics.collector.series.dropped")) {
+                dropped = metric.getLongSumData().getPoints().iterator().next().getValue();
+            } else if (metric.getName().equals("test.depth")) {
+                depthPoints = metric.getLongGaugeData().getPoints().size();
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    if (point.getAttributes().equals(Attributes.of(SeriesRegistry.ITEM, Instrument.OVERFLOW))) {
+                        overflow = point.getValue();
+                    }
+                }
+            }
+        }
+        assertEquals(4, dropped);
+        assertEquals(7, overflow);
+        assertEquals(3, depthPoints);
+    }
+
+    @Test
+    public void countsADroppedSeriesOnceAndAdmitsItWhenThereIsBudget() {
+        this.registry.withTtl(2).withLimits(0, 2);
+
+        this.registry.track("test.depth", "Q1", 1);
+        for (int cycle = 0; cycle < 4; cycle++) {
+            this.registry.track("test.depth", "Q2", 2);
+            this.registry.track("test.depth", "Q3", 3);
+            this.registry.completeCycle();
+        }
+
+        /*
+         * Q1 is gone, so Q3 gets a series of its own.
+         */
+        this.registry.track("test.depth", "Q3", 3);
+        this.registry.completeCycle();
+
+        long dropped = 0;
+        long q3 = -1;
+        for (MetricData metric : this.reader.collectAllMetrics()) {
+            if (metric.getName().equals("otel_metrics.collector.series.dropped")) {
+                dropped = metric.getLongSumData().getPoints().iterator().next().getValue();
+            } else if (metric.getName().equals("test.depth")) {
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    if (point.getAttributes().equals(Attributes.of(SeriesRegistry.ITEM, "Q3"))) {
+                        q3 = point.getValue();
+                    }
+                }
+            }
+        }
+        assertEquals(1, dropped);
+        assertEquals(3, q3);
+        assertEquals(2, this.registry.size());
+    }
+
+    @Test
+    public void reportsSourceCountersAsMonotonicCountersAcrossResetsAndWraps() {
+        this.registry.withRates(true);
+        Series enqueued = this.registry.counter("test.enqueued", 32).series(SeriesRegistry.ITEM, "Q1");
+        Series created = this.registry.counter("test.created", 64).series(SeriesRegistry.ITEM, "P1");
+
+        enqueued.set(Integer.MAX_VALUE - 10);
+        enqueued.set(Integer.MIN_VALUE + 10);
+        assertEquals(21, enqueued.delta());
+        enqueued.set(-1);
+        enqueued.set(5);
+        assertEquals(6, enqueued.delta());
+        assertEquals(0xFFFFFFFFL + 6, enqueued.get());
+
+        created.set(1000);
+        created.set(1500);
+        created.set(20);
+        assertEquals(20, created.delta());
+        assertEquals(1520, created.get());
+
+        long total = -1;
+        long delta = -1;
+        for (MetricData metric : this.reader.collectAllMetrics()) {
+            if (metric.getName().equals("test.created")) {
+                assertEquals(true, metric.getLongSumData().isMonotonic());
+                total = metric.getLongSumData().getPoints().iterator().next().getValue();
+            } else if (metric.getName().equals("test.created.delta")) {
+                delta = metric.getLongGaugeData().getPoints().iterator().next().getValue();
+            } else if (metric.getName().equals("otel_metrics.collector.counter.resets")) {
+                assertEquals(1, metric.getLongSumData().getPoints().iterator().next().getValue());
+            }
+        }
+        assertEquals(1520, total);
+        assertEquals(20, delta);
+    }
+
+    @Test
+    public void touchedSeriesSurviveTheirTtlWithoutBeingWritten() {
+        this.registry.withTtl(1).withLimits(0, 1);
+        Series depth = this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q1");
+        Series created = this.registry.counter("test.created", 64).series(SeriesRegistry.ITEM, "P1");
+        depth.set(7);
+        created.set(100);
+        created.set(150);
+        assertEquals(0, this.registry.completeCycle());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(true, depth.touch());
+            assertEquals(true, created.touch());
+            assertEquals(0, this.registry.completeCycle());
+        }
+        assertEquals(7, depth.get());
+        assertEquals(150, created.get());
+        assertEquals(0, created.delta());
+
+        assertFalse(this.registry.gauge("test.depth").series(SeriesRegistry.ITEM, "Q2").touch());
+    }
+
+    @Test
+    public void stopsReportingOnceClosed() {
+        this.registry.withRates(true);
+        this.registry.track("test.depth", "Q1", 1);
+        this.registry.count("test.created", "P1", 10);
+        assertEquals(4, this.reader.collectAllMetrics().size());
+
+        this.registry.close();
+        assertEquals(0, this.registry.size());
+        assertEquals(0, this.reader.collectAllMetrics().size());
+
+        /*
+         * A scrape that is still running may write on, unreported.
+         */
+        this.registry.track("test.depth", "Q1", 2);
+        this.registry.track("test.open", "Q1", 3);
+        assertEquals(0, this.reader.collectAllMetrics().size());
+    }
+}
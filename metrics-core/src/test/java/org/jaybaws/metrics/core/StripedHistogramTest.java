@@ -0,0 +1,48 @@
+package org.jaybaws.metrics.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class StripedHistogramTest {
+
+    @Test
+    public void bucketsKnowTheirValuesToWithinSixPercent() {
+        for (long value = 1; value < (1L << 42); value = value * 3 / 2 + 1) {
+            long estimate = StripedHistogram.value(StripedHistogram.bucket(value));
+            assertTrue(value + " ~ " + estimate, Math.abs(estimate - value) <= value * 0.0625 + 0.5);
+        }
+        assertEquals(StripedHistogram.BUCKETS - 1, StripedHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void drainsTheQuantilesOfTheIntervalOnly() throws InterruptedException {
+        StripedHistogram histogram = new StripedHistogram(4);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    histogram.record(i * 1_000L);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] interval = histogram.drain();
+        assertEquals(4000, interval[StripedHistogram.COUNT]);
+        assertEquals(4 * 500_500_000L, interval[StripedHistogram.SUM]);
+        assertEquals(500_000, StripedHistogram.quantile(interval, 0.5), 500_000 * 0.0625);
+        assertEquals(990_000, StripedHistogram.quantile(interval, 0.99), 990_000 * 0.0625);
+
+        histogram.record(7);
+        interval = histogram.drain();
+        assertEquals(1, interval[StripedHistogram.COUNT]);
+        assertEquals(7, StripedHistogram.quantile(interval, 0.99));
+        assertEquals(4001, histogram.count());
+
+        assertEquals(0, StripedHistogram.quantile(histogram.drain(), 0.5));
+    }
+}
@@ -0,0 +1,120 @@
+package org.jaybaws.metrics.host;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+
+/**
+ * Runs the selected collectors found on the classpath (see {@link Collector}) in one JVM: one SDK, one exporter and
+ * one scheduler for all of them, instead of a JVM per collector.
+ *
+ * The selection is required: a collector started by default would scrape its default target (e.g. an EMS server on
+ * localhost) and log every failure, or report every process on the host.
+ */
+public class CollectorHostApp {
+
+    private static final String c_jvm_arg_prefix = CollectorHostApp.class.getPackage().getName();
+
+    private static final String c_jvm_arg_host_collectors = c_jvm_arg_prefix + ".collectors";
+    private static final String c_jvm_arg_host_threads = c_jvm_arg_prefix + ".threads";
+
+    private static final Logger LOGGER = Logger.getLogger(CollectorHostApp.class.getName());
+
+    public static void main(String[] args) {
+        List<Collector> available = new ArrayList<>();
+        for (Collector collector : ServiceLoader.load(Collector.class)) {
+            available.add(collector);
+        }
+
+        if (args.length == 1 && args[0].equals("--help")) {
+            System.out.println(
+                    String.format(
+                            "Available properties:\n\n%s (any of %s, required)\n%s\n%s.{adaptive,cpu_budget,max_backoff,max_speedup}\n\nplus the properties of the selected collectors.\n",
+                            c_jvm_arg_host_collectors,
+                            names(available),
+                            c_jvm_arg_host_threads,
+                            AdaptiveScheduler.PREFIX
+                    )
+            );
+            return;
+        }
+
+        LOGGER.info("Starting CollectorHostApp application...");
+
+        String selection = System.getProperty(c_jvm_arg_host_collectors, "");
+        Set<String> selected = new HashSet<>();
+        for (String name : selection.split(",")) {
+            if (!name.trim().isEmpty()) {
+                selected.add(name.trim());
+            }
+        }
+
+        if (selected.isEmpty()) {
+            LOGGER.warning(
+                    String.format(
+                            "No collectors selected. Set %s to any of %s. Nothing to do!",
+                            c_jvm_arg_host_collectors,
+                            names(available)
+                    )
+            );
+            return;
+        }
+
+        /*
+         * The collectors' workers spend most of their time waiting on remote calls, so a couple of threads go a long way.
+         */
+        int threads = Integer.parseInt(System.getProperty(c_jvm_arg_host_threads, "2"));
+        AdaptiveScheduler scheduler = AdaptiveScheduler.fromSystemProperties(
+                AdaptiveScheduler.PREFIX,
+                Executors.newScheduledThreadPool(threads)
+        );
+
+        OpenTelemetry sdk = AutoConfiguredOpenTelemetrySdk.initialize().getOpenTelemetrySdk();
+
+        int started = 0;
+        List<String> skipped = new ArrayList<>();
+        for (Collector collector : available) {
+            if (!selected.remove(collector.name())) {
+                skipped.add(collector.name());
+                continue;
+            }
+            try {
+                collector.start(sdk, scheduler);
+                started++;
+                LOGGER.info(String.format("Started collector '%s'.", collector.name()));
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, String.format("Unable to start collector '%s'!", collector.name()), t);
+            }
+        }
+
+        if (!skipped.isEmpty()) {
+            LOGGER.info(String.format("Not starting collector(s) %s, which %s does not select.", skipped, c_jvm_arg_host_collectors));
+        }
+
+        if (!selected.isEmpty()) {
+            LOGGER.warning(String.format("Unknown collector(s) %s. Available: %s.", selected, names(available)));
+        }
+
+        if (started == 0) {
+            LOGGER.warning("No collectors were started. Nothing to do!");
+            scheduler.shutdown();
+        }
+    }
+
+    private static String names(List<Collector> collectors) {
+        String[] names = new String[collectors.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = collectors.get(i).name();
+        }
+        return Arrays.toString(names);
+    }
+}
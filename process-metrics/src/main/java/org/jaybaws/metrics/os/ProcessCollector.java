@@ -0,0 +1,44 @@
+package org.jaybaws.metrics.os;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+
+public class ProcessCollector implements Collector {
+
+    static final String c_jvm_arg_prefix = ProcessCollector.class.getPackage().getName();
+
+    static final String c_jvm_arg_os_cmdline_filter = c_jvm_arg_prefix + ".cmdline_filter";
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessCollector.class.getName());
+
+    @Override
+    public String name() {
+        return "processes";
+    }
+
+    /*
+     * The process collector logs its findings, so it has no use for the SDK.
+     */
+    @Override
+    public void start(OpenTelemetry sdk, AdaptiveScheduler scheduler) {
+        schedule(scheduler);
+    }
+
+    static void schedule(AdaptiveScheduler scheduler) {
+        String binary_filter = System.getProperty(c_jvm_arg_os_cmdline_filter, ".*");
+
+        ProcessWorker worker = new ProcessWorker(binary_filter);
+
+        scheduler.schedule(
+                "processes",
+                worker,
+                0,
+                60,
+                TimeUnit.SECONDS
+        );
+
+        LOGGER.info("Worker scheduled!");
+    }
+}
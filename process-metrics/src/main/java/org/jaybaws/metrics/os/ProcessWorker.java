@@ -7,13 +7,13 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class Worker implements Runnable {
+public class ProcessWorker implements Runnable {
 
     private static final Logger LOGGER = Logger.getLogger(ProcessMonitorApp.class.getName());
 
     private final  Pattern commandLinePattern;
 
-    public Worker(String cmdline_filter) {
+    public ProcessWorker(String cmdline_filter) {
         this.commandLinePattern = Pattern.compile(cmdline_filter);
     }
 
@@ -0,0 +1,65 @@
+package org.jaybaws.metrics.os;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.AdaptiveScheduler;
+import org.jaybaws.metrics.core.Collector;
+
+public class SocketCollector implements Collector {
+
+    static final String c_jvm_arg_prefix = SocketCollector.class.getPackage().getName();
+
+    static final String c_jvm_arg_ports = c_jvm_arg_prefix + ".ports";
+
+    private static final Logger LOGGER = Logger.getLogger(SocketCollector.class.getName());
+
+    @Override
+    public String name() {
+        return "sockets";
+    }
+
+    @Override
+    public void start(OpenTelemetry sdk, AdaptiveScheduler scheduler) {
+        String ports = System.getProperty(c_jvm_arg_ports, "443,10400-10499");
+        List<Integer> port_ints = new ArrayList<Integer>();
+
+        try {
+            for (String s : ports.split(",")) {
+                if (s.contains("-")) {
+                    String[] range = s.split("-");
+                    int begin = Integer.parseInt(range[0]);
+                    int end = Integer.parseInt(range[1]);
+                    for (int i = begin; i <= end; i++) {
+                        port_ints.add(i);
+                    }
+                } else {
+                    port_ints.add(Integer.parseInt(s));
+                }
+            }
+
+            LOGGER.info(String.format("Parsed ports: %s.", port_ints.toString()));
+
+            if (port_ints.size() > 0) {
+                SocketWorker worker = new SocketWorker(sdk, port_ints);
+
+                scheduler.schedule(
+                        name(),
+                        worker,
+                        0,
+                        60,
+                        TimeUnit.SECONDS
+                );
+
+                LOGGER.info("Worker scheduled!");
+            } else {
+                LOGGER.warning("No port numbers were provided. Nothing to do!");
+            }
+
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.SEVERE,String.format("Unable to parse the provided port number(s): '%s'. Exiting!", ports), e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.jaybaws.metrics.os;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.metrics.Meter;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaybaws.metrics.core.CollectorMetrics;
+import org.jaybaws.metrics.core.Instrument;
+import org.jaybaws.metrics.core.Scraper;
+import org.jaybaws.metrics.core.Series;
+import org.jaybaws.metrics.core.SeriesRegistry;
+
+public class SocketWorker implements Scraper {
+
+    private static final Logger LOGGER = Logger.getLogger(SocketWorker.class.getName());
+
+    private static final AttributeKey<String> PORT = AttributeKey.stringKey("port");
+
+    private final int[] ports;
+    private final Series[] metrics;
+
+    private final CollectorMetrics collectorMetrics;
+
+    public SocketWorker(OpenTelemetry sdk, List<Integer> ports) {
+        Meter meter = sdk.getMeter("sockets");
+        SeriesRegistry registry = new SeriesRegistry(meter);
+        Instrument isOpen = registry.gauge("os.socket.is_open");
+        this.collectorMetrics = new CollectorMetrics(meter, "sockets", registry);
+
+        /*
+         * Resolve a series (and its attributes) per port up front. This is deterministic, since it only depends
+         * on the list of provided ports.
+         */
+        this.ports = new int[ports.size()];
+        this.metrics = new Series[ports.size()];
+        for (int i = 0; i < this.ports.length; i++) {
+            this.ports[i] = ports.get(i);
+            this.metrics[i] = isOpen.series(PORT, String.valueOf(this.ports[i]));
+            this.metrics[i].set(-1);
+        }
+    }
+
+    @Override
+    public CollectorMetrics metrics() {
+        return this.collectorMetrics;
+    }
+
+    @Override
+    public void run() {
+        long started = this.collectorMetrics.scrapeStarted();
+
+        try {
+            for (int i = 0; i < this.ports.length; i++) {
+                boolean open = !available(this.ports[i]);
+                long value = (open) ? 1 : 0;
+                this.metrics[i].set(value);
+            }
+
+            this.collectorMetrics.rows(this.ports.length);
+            this.collectorMetrics.scrapeSucceeded(started);
+        } catch (Throwable t) {
+            this.collectorMetrics.scrapeFailed(started, t);
+            LOGGER.log(Level.SEVERE, "Something went wrong during the worker-run!", t);
+        }
+    }
+
+    public static boolean available(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid start port: " + port);
+        }
+
+        ServerSocket ss = null;
+        DatagramSocket ds = null;
+        try {
+            ss = new ServerSocket(port);
+            ss.setReuseAddress(true);
+            ds = new DatagramSocket(port);
+            ds.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            /* yeah whatever */
+        } finally {
+            if (ds != null) {
+                ds.close();
+            }
+
+            if (ss != null) {
+                try {
+                    ss.close();
+                } catch (IOException e) {
+                    /* should not be thrown */
+                }
+            }
+        }
+
+        return false;
+    }
+
+}
\ No newline at end of file